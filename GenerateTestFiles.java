@@ -1,5 +1,4 @@
 import muse2.*;
-import javax.sound.sampled.*;
 import java.io.*;
 
 public class GenerateTestFiles {
@@ -43,22 +42,7 @@ public class GenerateTestFiles {
     }
     
     private static void writeStereoWav(float[] left, float[] right, float sampleRate, File outFile) throws IOException {
-        int nFrames = Math.min(left.length, right.length);
-        byte[] audioBytes = new byte[nFrames * 4]; // 2 channels x 16-bit
-        
-        for (int i = 0; i < nFrames; i++) {
-            int l = (int) Math.max(Math.min(left[i] * 32767.0, 32767), -32768);
-            int r = (int) Math.max(Math.min(right[i] * 32767.0, 32767), -32768);
-            audioBytes[i * 4] = (byte) (l & 0xFF);
-            audioBytes[i * 4 + 1] = (byte) ((l >> 8) & 0xFF);
-            audioBytes[i * 4 + 2] = (byte) (r & 0xFF);
-            audioBytes[i * 4 + 3] = (byte) ((r >> 8) & 0xFF);
-        }
-        
-        AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
-        try (AudioInputStream ais = new AudioInputStream(
-                new ByteArrayInputStream(audioBytes), format, nFrames)) {
-            AudioSystem.write(ais, AudioFileFormat.Type.WAVE, outFile);
-        }
+        // 16-bit PCM, encoded a block at a time; the shorter channel sets the length
+        WavWriter.writeStereo(outFile, left, right, sampleRate);
     }
 } 
\ No newline at end of file
@@ -6,6 +6,8 @@ public class LiveScarlettDemo {
     private static final float SAMPLE_RATE = 44100;
     private static Mixer scarlettMixer;
     private static SourceDataLine outputLine;
+    // Frames written to the line per block during playback
+    private static final int PLAYBACK_BLOCK = 1024;
     
     public static void main(String[] args) {
         System.out.println("===== MUSE2 Live Scarlett Demo =====");
@@ -255,51 +257,47 @@ public class LiveScarlettDemo {
     
     private static void saveToWavFile(float[] leftChannel, float[] rightChannel, String filename) 
             throws IOException {
-        // Create audio format
-        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 2, true, false);
-        
-        // Convert float samples to bytes
-        byte[] audioBytes = new byte[leftChannel.length * 4]; // 2 bytes per sample, 2 channels
-        
-        for (int i = 0; i < leftChannel.length; i++) {
-            // Left channel
-            short leftSample = (short)(leftChannel[i] * 32767.0f);
-            audioBytes[i*4] = (byte)(leftSample & 0xFF);
-            audioBytes[i*4+1] = (byte)(leftSample >> 8);
-            
-            // Right channel
-            short rightSample = (short)(rightChannel[i] * 32767.0f);
-            audioBytes[i*4+2] = (byte)(rightSample & 0xFF);
-            audioBytes[i*4+3] = (byte)(rightSample >> 8);
-        }
-        
-        // Save to WAV file
-        ByteArrayInputStream bais = new ByteArrayInputStream(audioBytes);
-        AudioInputStream ais = new AudioInputStream(bais, format, leftChannel.length);
-        AudioSystem.write(ais, AudioFileFormat.Type.WAVE, new File(filename));
+        muse2.WavWriter.writeStereo(new File(filename), leftChannel, rightChannel, SAMPLE_RATE);
     }
     
     private static void playThroughScarlett(float[] leftChannel, float[] rightChannel) {
         try {
             outputLine.start();
             
-            // Convert float audio data to bytes for playback
-            byte[] audioBytes = new byte[leftChannel.length * 4]; // 2 bytes per sample, 2 channels
+            // Track the cues of what is being heard, printing about twice a second
+            muse2.LiveCueTracker tracker = new muse2.LiveCueTracker((int)SAMPLE_RATE);
+            final int printEvery = Math.max(1, (int)(SAMPLE_RATE / 2) / tracker.getHop());
+            final int[] updates = {0};
+            tracker.setListener((frame, itd, ild) -> {
+                if (++updates[0] % printEvery == 0) {
+                    System.out.printf("\r  %.1fs  ITD: %7.1f us  ILD: %6.2f dB", frame / SAMPLE_RATE, itd, ild);
+                }
+            });
+            
+            // Convert and write one block at a time so the cues follow playback
+            int length = Math.min(leftChannel.length, rightChannel.length);
+            byte[] audioBytes = new byte[PLAYBACK_BLOCK * 4]; // 2 bytes per sample, 2 channels
             
-            for (int i = 0; i < leftChannel.length; i++) {
-                // Convert left channel float to 16-bit
-                short leftSample = (short)(leftChannel[i] * 32767.0f);
-                audioBytes[i*4] = (byte)(leftSample & 0xFF);
-                audioBytes[i*4 + 1] = (byte)((leftSample >> 8) & 0xFF);
+            for (int start = 0; start < length; start += PLAYBACK_BLOCK) {
+                int count = Math.min(PLAYBACK_BLOCK, length - start);
+                for (int n = 0; n < count; n++) {
+                    int i = start + n;
+                    // Convert left channel float to 16-bit
+                    short leftSample = (short)(leftChannel[i] * 32767.0f);
+                    audioBytes[n*4] = (byte)(leftSample & 0xFF);
+                    audioBytes[n*4 + 1] = (byte)((leftSample >> 8) & 0xFF);
+                    
+                    // Convert right channel float to 16-bit
+                    short rightSample = (short)(rightChannel[i] * 32767.0f);
+                    audioBytes[n*4 + 2] = (byte)(rightSample & 0xFF);
+                    audioBytes[n*4 + 3] = (byte)((rightSample >> 8) & 0xFF);
+                }
                 
-                // Convert right channel float to 16-bit
-                short rightSample = (short)(rightChannel[i] * 32767.0f);
-                audioBytes[i*4 + 2] = (byte)(rightSample & 0xFF);
-                audioBytes[i*4 + 3] = (byte)((rightSample >> 8) & 0xFF);
+                // Write to audio line; blocks while the line buffer is full
+                outputLine.write(audioBytes, 0, count * 4);
+                tracker.process(leftChannel, rightChannel, start, count);
             }
-            
-            // Write to audio line
-            outputLine.write(audioBytes, 0, audioBytes.length);
+            System.out.println();
             
             // Wait for playback to complete
             outputLine.drain();
@@ -42,8 +42,15 @@ public class RealSpeechAnalyzer {
                 System.out.printf("Processing: %s\n", wavFile.getName());
                 
                 try {
-                    // Load original speech
-                    float[][] original = muse2.AudioProcessor.loadWavFile(wavFile.getPath());
+                    // Load original speech, decoded once per content when a cache is configured
+                    muse2.AnalysisCache cache = muse2.AnalysisCache.getDefault();
+                    float[][] original;
+                    if (cache != null) {
+                        muse2.AnalysisCache.Audio audio = cache.loadAudio(wavFile);
+                        original = new float[][] { audio.getLeft(), audio.getRight() };
+                    } else {
+                        original = muse2.AudioProcessor.loadWavFile(wavFile.getPath());
+                    }
                     
                     // Measure original spatial cues
                     double originalITD = muse2.ImprovedSpatialCueAnalyzer.computeITD(original[0], original[1], 44100);
@@ -226,72 +233,7 @@ public class RealSpeechAnalyzer {
         File file = new File(filename);
         file.getParentFile().mkdirs();
         
-        // Convert to byte array
-        int numSamples = stereo[0].length;
-        byte[] audioData = new byte[numSamples * 4]; // 16-bit stereo
-        
-        for (int i = 0; i < numSamples; i++) {
-            short leftSample = (short) (stereo[0][i] * 32767);
-            short rightSample = (short) (stereo[1][i] * 32767);
-            
-            // Left channel
-            audioData[i * 4] = (byte) (leftSample & 0xFF);
-            audioData[i * 4 + 1] = (byte) ((leftSample >> 8) & 0xFF);
-            
-            // Right channel
-            audioData[i * 4 + 2] = (byte) (rightSample & 0xFF);
-            audioData[i * 4 + 3] = (byte) ((rightSample >> 8) & 0xFF);
-        }
-        
-        // Write WAV file
-        try (FileOutputStream fos = new FileOutputStream(filename)) {
-            // Write WAV header
-            byte[] header = createWavHeader(audioData.length, sampleRate, 2);
-            fos.write(header);
-            
-            // Write audio data
-            fos.write(audioData);
-        }
-    }
-    
-    private static byte[] createWavHeader(int dataLength, float sampleRate, int channels) {
-        byte[] header = new byte[44];
-        
-        // RIFF header
-        header[0] = 'R'; header[1] = 'I'; header[2] = 'F'; header[3] = 'F';
-        int fileSize = dataLength + 36;
-        header[4] = (byte) (fileSize & 0xFF);
-        header[5] = (byte) ((fileSize >> 8) & 0xFF);
-        header[6] = (byte) ((fileSize >> 16) & 0xFF);
-        header[7] = (byte) ((fileSize >> 24) & 0xFF);
-        header[8] = 'W'; header[9] = 'A'; header[10] = 'V'; header[11] = 'E';
-        
-        // fmt chunk
-        header[12] = 'f'; header[13] = 'm'; header[14] = 't'; header[15] = ' ';
-        header[16] = 16; header[17] = 0; header[18] = 0; header[19] = 0;
-        header[20] = 1; header[21] = 0; // PCM format
-        header[22] = (byte) channels; header[23] = 0;
-        int sampleRateInt = (int) sampleRate;
-        header[24] = (byte) (sampleRateInt & 0xFF);
-        header[25] = (byte) ((sampleRateInt >> 8) & 0xFF);
-        header[26] = (byte) ((sampleRateInt >> 16) & 0xFF);
-        header[27] = (byte) ((sampleRateInt >> 24) & 0xFF);
-        int byteRate = (int) (sampleRate * channels * 16 / 8);
-        header[28] = (byte) (byteRate & 0xFF);
-        header[29] = (byte) ((byteRate >> 8) & 0xFF);
-        header[30] = (byte) ((byteRate >> 16) & 0xFF);
-        header[31] = (byte) ((byteRate >> 24) & 0xFF);
-        header[32] = (byte) (channels * 16 / 8); header[33] = 0;
-        header[34] = 16; header[35] = 0; // 16-bit
-        
-        // data chunk
-        header[36] = 'd'; header[37] = 'a'; header[38] = 't'; header[39] = 'a';
-        header[40] = (byte) (dataLength & 0xFF);
-        header[41] = (byte) ((dataLength >> 8) & 0xFF);
-        header[42] = (byte) ((dataLength >> 16) & 0xFF);
-        header[43] = (byte) ((dataLength >> 24) & 0xFF);
-        
-        return header;
+        muse2.WavWriter.writeStereo(file, stereo[0], stereo[1], sampleRate);
     }
     
     private static boolean checkAmplitudeRange(float[][] audio) {
@@ -3,6 +3,9 @@ import java.io.*;
 import java.util.*;
 
 public class ScarlettAudioUtility {
+    // Test tone peak, 8000 of 32767 full scale. Samples pass through float before
+    // WavWriter scales and truncates them, so a few land 1 LSB from a pure double path.
+    private static final float TONE_LEVEL = 8000 / 32767.0f;
     
     public static void main(String[] args) {
         System.out.println("=== Scarlett Audio Interface Utility ===");
@@ -131,22 +134,14 @@ public class ScarlettAudioUtility {
         float sampleRate = 44100;
         int numSamples = (int) (sampleRate * duration);
         
-        byte[] audioData = new byte[numSamples * 4]; // 16-bit stereo
-        
-        for (int i = 0; i < numSamples; i++) {
-            double t = i / sampleRate;
-            short sample = (short) (Math.sin(2 * Math.PI * frequency * t) * 8000);
-            
-            // Left channel
-            audioData[i * 4] = (byte) (sample & 0xFF);
-            audioData[i * 4 + 1] = (byte) ((sample >> 8) & 0xFF);
-            
-            // Right channel (same)
-            audioData[i * 4 + 2] = (byte) (sample & 0xFF);
-            audioData[i * 4 + 3] = (byte) ((sample >> 8) & 0xFF);
-        }
-        
-        writeWavFile(filename, audioData, sampleRate, 2);
+        writeWavFile(filename, sampleRate, numSamples, (first, left, right, count) -> {
+            for (int n = 0; n < count; n++) {
+                double t = (first + n) / sampleRate;
+                float sample = (float) (Math.sin(2 * Math.PI * frequency * t) * TONE_LEVEL);
+                left[n] = sample;
+                right[n] = sample; // Right channel (same)
+            }
+        });
     }
     
     private static void generateLeftRightTest(String filename) throws Exception {
@@ -154,66 +149,35 @@ public class ScarlettAudioUtility {
         float duration = 3.0f;
         int numSamples = (int) (sampleRate * duration);
         
-        byte[] audioData = new byte[numSamples * 4];
-        
-        for (int i = 0; i < numSamples; i++) {
-            double t = i / sampleRate;
-            short sample = (short) (Math.sin(2 * Math.PI * 800 * t) * 8000);
-            
-            // Left channel only for first second
-            if (t < 1.0) {
-                audioData[i * 4] = (byte) (sample & 0xFF);
-                audioData[i * 4 + 1] = (byte) ((sample >> 8) & 0xFF);
-                audioData[i * 4 + 2] = 0; // Right silent
-                audioData[i * 4 + 3] = 0;
-            }
-            // Right channel only for second second
-            else if (t < 2.0) {
-                audioData[i * 4] = 0; // Left silent
-                audioData[i * 4 + 1] = 0;
-                audioData[i * 4 + 2] = (byte) (sample & 0xFF);
-                audioData[i * 4 + 3] = (byte) ((sample >> 8) & 0xFF);
-            }
-            // Both channels for third second
-            else {
-                audioData[i * 4] = (byte) (sample & 0xFF);
-                audioData[i * 4 + 1] = (byte) ((sample >> 8) & 0xFF);
-                audioData[i * 4 + 2] = (byte) (sample & 0xFF);
-                audioData[i * 4 + 3] = (byte) ((sample >> 8) & 0xFF);
+        writeWavFile(filename, sampleRate, numSamples, (first, left, right, count) -> {
+            for (int n = 0; n < count; n++) {
+                double t = (first + n) / sampleRate;
+                float sample = (float) (Math.sin(2 * Math.PI * 800 * t) * TONE_LEVEL);
+                
+                // Left channel only for first second, right only for second second, both for third
+                left[n] = t < 1.0 || t >= 2.0 ? sample : 0;
+                right[n] = t >= 1.0 ? sample : 0;
             }
-        }
-        
-        writeWavFile(filename, audioData, sampleRate, 2);
+        });
     }
     
     private static void generateITDTest(String filename) throws Exception {
         float sampleRate = 44100;
         float duration = 2.0f;
         int numSamples = (int) (sampleRate * duration);
-        
-        byte[] audioData = new byte[numSamples * 4];
         int delaySamples = 500; // ~11ms delay
         
-        for (int i = 0; i < numSamples; i++) {
-            double t = i / sampleRate;
-            short sample = (short) (Math.sin(2 * Math.PI * 1000 * t) * 8000);
-            
-            // Left channel
-            audioData[i * 4] = (byte) (sample & 0xFF);
-            audioData[i * 4 + 1] = (byte) ((sample >> 8) & 0xFF);
-            
-            // Right channel (delayed)
-            int rightIndex = i - delaySamples;
-            if (rightIndex >= 0) {
-                audioData[i * 4 + 2] = (byte) (sample & 0xFF);
-                audioData[i * 4 + 3] = (byte) ((sample >> 8) & 0xFF);
-            } else {
-                audioData[i * 4 + 2] = 0;
-                audioData[i * 4 + 3] = 0;
+        writeWavFile(filename, sampleRate, numSamples, (first, left, right, count) -> {
+            for (int n = 0; n < count; n++) {
+                int i = first + n;
+                double t = i / sampleRate;
+                float sample = (float) (Math.sin(2 * Math.PI * 1000 * t) * TONE_LEVEL);
+                
+                // Right channel silent until the delay has passed
+                left[n] = sample;
+                right[n] = i - delaySamples >= 0 ? sample : 0;
             }
-        }
-        
-        writeWavFile(filename, audioData, sampleRate, 2);
+        });
     }
     
     private static void generateILDTest(String filename) throws Exception {
@@ -221,78 +185,34 @@ public class ScarlettAudioUtility {
         float duration = 2.0f;
         int numSamples = (int) (sampleRate * duration);
         
-        byte[] audioData = new byte[numSamples * 4];
-        
-        for (int i = 0; i < numSamples; i++) {
-            double t = i / sampleRate;
-            short leftSample = (short) (Math.sin(2 * Math.PI * 1000 * t) * 8000);
-            short rightSample = (short) (Math.sin(2 * Math.PI * 1000 * t) * 4000); // Half level
-            
-            // Left channel (full level)
-            audioData[i * 4] = (byte) (leftSample & 0xFF);
-            audioData[i * 4 + 1] = (byte) ((leftSample >> 8) & 0xFF);
-            
-            // Right channel (half level)
-            audioData[i * 4 + 2] = (byte) (rightSample & 0xFF);
-            audioData[i * 4 + 3] = (byte) ((rightSample >> 8) & 0xFF);
-        }
-        
-        writeWavFile(filename, audioData, sampleRate, 2);
+        writeWavFile(filename, sampleRate, numSamples, (first, left, right, count) -> {
+            for (int n = 0; n < count; n++) {
+                double t = (first + n) / sampleRate;
+                double tone = Math.sin(2 * Math.PI * 1000 * t);
+                left[n] = (float) (tone * TONE_LEVEL); // Full level
+                right[n] = (float) (tone * TONE_LEVEL / 2); // Half level
+            }
+        });
     }
     
-    private static void writeWavFile(String filename, byte[] audioData, float sampleRate, int channels) throws Exception {
-        AudioFormat format = new AudioFormat(sampleRate, 16, channels, true, false);
-        
-        try (ByteArrayInputStream bais = new ByteArrayInputStream(audioData);
-             AudioInputStream ais = new AudioInputStream(bais, format, audioData.length / format.getFrameSize());
-             FileOutputStream fos = new FileOutputStream(filename)) {
-            
-            // Write WAV header
-            byte[] header = createWavHeader(audioData.length, format);
-            fos.write(header);
-            
-            // Write audio data
-            fos.write(audioData);
-        }
+    /**
+     * Fills one block of stereo frames starting at frame index first
+     */
+    private interface FrameSource {
+        void fill(int first, float[] left, float[] right, int count);
     }
     
-    private static byte[] createWavHeader(int dataLength, AudioFormat format) {
-        byte[] header = new byte[44];
-        
-        // RIFF header
-        header[0] = 'R'; header[1] = 'I'; header[2] = 'F'; header[3] = 'F';
-        int fileSize = dataLength + 36;
-        header[4] = (byte) (fileSize & 0xFF);
-        header[5] = (byte) ((fileSize >> 8) & 0xFF);
-        header[6] = (byte) ((fileSize >> 16) & 0xFF);
-        header[7] = (byte) ((fileSize >> 24) & 0xFF);
-        header[8] = 'W'; header[9] = 'A'; header[10] = 'V'; header[11] = 'E';
-        
-        // fmt chunk
-        header[12] = 'f'; header[13] = 'm'; header[14] = 't'; header[15] = ' ';
-        header[16] = 16; header[17] = 0; header[18] = 0; header[19] = 0; // fmt chunk size
-        header[20] = 1; header[21] = 0; // PCM format
-        header[22] = (byte) format.getChannels(); header[23] = 0; // channels
-        int sampleRateInt = (int) format.getSampleRate();
-        header[24] = (byte) (sampleRateInt & 0xFF);
-        header[25] = (byte) ((sampleRateInt >> 8) & 0xFF);
-        header[26] = (byte) ((sampleRateInt >> 16) & 0xFF);
-        header[27] = (byte) ((sampleRateInt >> 24) & 0xFF);
-        int byteRate = (int) (format.getSampleRate() * format.getChannels() * format.getSampleSizeInBits() / 8);
-        header[28] = (byte) (byteRate & 0xFF);
-        header[29] = (byte) ((byteRate >> 8) & 0xFF);
-        header[30] = (byte) ((byteRate >> 16) & 0xFF);
-        header[31] = (byte) ((byteRate >> 24) & 0xFF);
-        header[32] = (byte) (format.getChannels() * format.getSampleSizeInBits() / 8); header[33] = 0; // block align
-        header[34] = (byte) format.getSampleSizeInBits(); header[35] = 0; // bits per sample
-        
-        // data chunk
-        header[36] = 'd'; header[37] = 'a'; header[38] = 't'; header[39] = 'a';
-        header[40] = (byte) (dataLength & 0xFF);
-        header[41] = (byte) ((dataLength >> 8) & 0xFF);
-        header[42] = (byte) ((dataLength >> 16) & 0xFF);
-        header[43] = (byte) ((dataLength >> 24) & 0xFF);
-        
-        return header;
+    private static void writeWavFile(String filename, float sampleRate, int numSamples, FrameSource source) throws Exception {
+        // Frames are generated and written one block at a time
+        float[] left = new float[muse2.WavWriter.BLOCK_FRAMES];
+        float[] right = new float[muse2.WavWriter.BLOCK_FRAMES];
+        try (muse2.WavWriter writer = new muse2.WavWriter(new File(filename), (int) sampleRate, 2,
+                muse2.WavWriter.Encoding.PCM_16)) {
+            for (int first = 0; first < numSamples; first += left.length) {
+                int count = Math.min(left.length, numSamples - first);
+                source.fill(first, left, right, count);
+                writer.write(left, right, 0, count);
+            }
+        }
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,6 +1,5 @@
 package muse2;
 
-import javax.sound.sampled.*;
 import java.io.*;
 
 public class SimpleITDTest {
@@ -69,27 +68,7 @@ public class SimpleITDTest {
     
     private static void saveToWavFile(float[] leftChannel, float[] rightChannel, String filename)
             throws IOException {
-        // Create audio format
-        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 2, true, false);
-        
-        // Convert float samples to bytes
-        byte[] audioBytes = new byte[leftChannel.length * 4]; // 2 bytes per sample, 2 channels
-        
-        for (int i = 0; i < leftChannel.length; i++) {
-            // Left channel
-            short leftSample = (short)(leftChannel[i] * 32767.0f);
-            audioBytes[i*4] = (byte)(leftSample & 0xFF);
-            audioBytes[i*4+1] = (byte)(leftSample >> 8);
-            
-            // Right channel
-            short rightSample = (short)(rightChannel[i] * 32767.0f);
-            audioBytes[i*4+2] = (byte)(rightSample & 0xFF);
-            audioBytes[i*4+3] = (byte)(rightSample >> 8);
-        }
-        
-        // Save to WAV file
-        ByteArrayInputStream bais = new ByteArrayInputStream(audioBytes);
-        AudioInputStream ais = new AudioInputStream(bais, format, leftChannel.length);
-        AudioSystem.write(ais, AudioFileFormat.Type.WAVE, new File(filename));
+        // 16-bit stereo, encoded a block at a time
+        WavWriter.writeStereo(new File(filename), leftChannel, rightChannel, SAMPLE_RATE);
     }
 } 
\ No newline at end of file
@@ -1,5 +1,4 @@
 import muse2.*;
-import javax.sound.sampled.*;
 import java.io.*;
 
 public class SpeechTokenGenerator {
@@ -51,7 +50,7 @@ public class SpeechTokenGenerator {
             
             // Write to WAV file
             File outFile = new File("input_wavs", filename);
-            writeStereoWav(stereo[0], stereo[1], sampleRate, outFile);
+            WavWriter.writeStereo(outFile, stereo[0], stereo[1], sampleRate);
             
         } catch (Exception e) {
             System.err.println("Error generating " + filename + ": " + e.getMessage());
@@ -99,24 +98,4 @@ public class SpeechTokenGenerator {
         
         return new float[][] { left, right };
     }
-    
-    private static void writeStereoWav(float[] left, float[] right, float sampleRate, File outFile) throws IOException {
-        int nFrames = Math.min(left.length, right.length);
-        byte[] audioBytes = new byte[nFrames * 4]; // 2 channels x 16-bit
-        
-        for (int i = 0; i < nFrames; i++) {
-            int l = (int) Math.max(Math.min(left[i] * 32767.0, 32767), -32768);
-            int r = (int) Math.max(Math.min(right[i] * 32767.0, 32767), -32768);
-            audioBytes[i * 4] = (byte) (l & 0xFF);
-            audioBytes[i * 4 + 1] = (byte) ((l >> 8) & 0xFF);
-            audioBytes[i * 4 + 2] = (byte) (r & 0xFF);
-            audioBytes[i * 4 + 3] = (byte) ((r >> 8) & 0xFF);
-        }
-        
-        AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
-        try (AudioInputStream ais = new AudioInputStream(
-                new ByteArrayInputStream(audioBytes), format, nFrames)) {
-            AudioSystem.write(ais, AudioFileFormat.Type.WAVE, outFile);
-        }
-    }
 } 
\ No newline at end of file
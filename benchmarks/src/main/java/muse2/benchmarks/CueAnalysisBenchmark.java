@@ -0,0 +1,52 @@
+package muse2.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import muse2.ImprovedSpatialCueAnalyzer;
+import muse2.SpatialCueAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ITD/ILD measurement on whole signals
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class CueAnalysisBenchmark {
+
+    @Benchmark
+    public double itdTimeDomain(SignalState signal) {
+        return SpatialCueAnalyzer.computeITD(signal.left, signal.right, SignalState.SAMPLE_RATE,
+            SpatialCueAnalyzer.CorrelationMethod.TIME_DOMAIN);
+    }
+
+    @Benchmark
+    public double itdFft(SignalState signal) {
+        return SpatialCueAnalyzer.computeITD(signal.left, signal.right, SignalState.SAMPLE_RATE,
+            SpatialCueAnalyzer.CorrelationMethod.FFT);
+    }
+
+    @Benchmark
+    public double ild(SignalState signal) {
+        return SpatialCueAnalyzer.computeILD(signal.left, signal.right);
+    }
+
+    @Benchmark
+    public double improvedItdExhaustive(SignalState signal) {
+        return ImprovedSpatialCueAnalyzer.computeITD(signal.left, signal.right, SignalState.SAMPLE_RATE,
+            ImprovedSpatialCueAnalyzer.LagSearch.EXHAUSTIVE);
+    }
+
+    @Benchmark
+    public double improvedItdHierarchical(SignalState signal) {
+        return ImprovedSpatialCueAnalyzer.computeITD(signal.left, signal.right, SignalState.SAMPLE_RATE,
+            ImprovedSpatialCueAnalyzer.LagSearch.HIERARCHICAL);
+    }
+}
@@ -0,0 +1,61 @@
+package muse2.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import muse2.Oscillator;
+import muse2.SyntheticSignalGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Synthetic stimulus generation, per oscillator mode. The threaded variant shows
+ * whether concurrent generators contend on shared random state.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class GeneratorBenchmark {
+    private static final double DURATION_SEC = 5.0;
+
+    @Param({"RECURRENCE", "WAVETABLE"})
+    public String oscillator;
+
+    @Setup(Level.Trial)
+    public void selectOscillator() {
+        SyntheticSignalGenerator.setOscillatorMode(Oscillator.Mode.valueOf(oscillator));
+    }
+
+    @Benchmark
+    public float[][] sine() {
+        return SyntheticSignalGenerator.generateSineStereo(DURATION_SEC, SignalState.SAMPLE_RATE, 500.0f, 250.0, 3.0);
+    }
+
+    @Benchmark
+    public float[][] speech() {
+        return SyntheticSignalGenerator.generateSpeechLikeSignal(DURATION_SEC, SignalState.SAMPLE_RATE, 250.0, 3.0);
+    }
+
+    @Benchmark
+    public float[][] noisy() {
+        return SyntheticSignalGenerator.generateNoisySignal(DURATION_SEC, SignalState.SAMPLE_RATE, 500.0f, 250.0, 3.0, 0.2, 7L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public float[][] noisyThreaded() {
+        return SyntheticSignalGenerator.generateNoisySignal(DURATION_SEC, SignalState.SAMPLE_RATE, 500.0f, 250.0, 3.0, 0.2);
+    }
+}
@@ -0,0 +1,50 @@
+package muse2.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import muse2.Resampler;
+import muse2.StereoBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sample rate conversion of whole signals, as done when loading a file that is not at
+ * the analysis rate. Filter banks are built once per ratio, so only the first
+ * invocation of a trial pays for them.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ResamplerBenchmark {
+    private static final int RATE = (int) SignalState.SAMPLE_RATE;
+
+    @Benchmark
+    public StereoBuffer to48k(SignalState signal) throws IOException {
+        return Resampler.resample(StereoBuffer.wrap(signal.left, signal.right), RATE, 48000, null);
+    }
+
+    @Benchmark
+    public StereoBuffer to22k(SignalState signal) throws IOException {
+        return Resampler.resample(StereoBuffer.wrap(signal.left, signal.right), RATE, 22050, null);
+    }
+
+    @Benchmark
+    public StereoBuffer to96k(SignalState signal) throws IOException {
+        return Resampler.resample(StereoBuffer.wrap(signal.left, signal.right), RATE, 96000, null);
+    }
+
+    @Benchmark
+    public void streamed(SignalState signal, Blackhole bh) throws IOException {
+        Resampler resampler = new Resampler(RATE, 48000, (left, right, count) -> bh.consume(left));
+        resampler.accept(signal.left, signal.right, 0, Math.min(signal.left.length, signal.right.length));
+        resampler.finish();
+    }
+}
@@ -0,0 +1,53 @@
+package muse2.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import muse2.FrequencyShifter;
+import muse2.ShiftLadder;
+import muse2.SimpleFrequencyShifter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Frequency shifting of whole signals
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ShiftingBenchmark {
+    private static final float SHIFT_HZ = 400.0f;
+    private static final float[] LADDER_HZ = {200.0f, 400.0f, 600.0f};
+
+    @Benchmark
+    public float[][] phaseVocoder(SignalState signal) {
+        return FrequencyShifter.shift(signal.left, signal.right, SignalState.SAMPLE_RATE, SHIFT_HZ);
+    }
+
+    @Benchmark
+    public void phaseVocoderLadder(SignalState signal, Blackhole bh) throws IOException {
+        ShiftLadder ladder = new ShiftLadder(LADDER_HZ, (target, left, right, count) -> bh.consume(left));
+        ladder.accept(signal.left, signal.right, 0, Math.min(signal.left.length, signal.right.length));
+        ladder.finish();
+        for (int t = 0; t < LADDER_HZ.length; t++) {
+            bh.consume(ladder.getCues(t, (int) SignalState.SAMPLE_RATE));
+        }
+    }
+
+    @Benchmark
+    public float[][] simpleShift(SignalState signal) {
+        return SimpleFrequencyShifter.shift(signal.left, signal.right, SignalState.SAMPLE_RATE, SHIFT_HZ);
+    }
+
+    @Benchmark
+    public float[][] simpleShiftAdvanced(SignalState signal) {
+        return SimpleFrequencyShifter.shiftAdvanced(signal.left, signal.right, SignalState.SAMPLE_RATE, SHIFT_HZ);
+    }
+}
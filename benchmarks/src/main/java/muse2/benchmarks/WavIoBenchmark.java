@@ -0,0 +1,87 @@
+package muse2.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import muse2.AudioProcessor;
+import muse2.WavWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading and writing 16-bit stereo WAV files, with the former AudioSystem writer as a baseline.
+ * Files live in the temp directory, so results include the OS page cache, not the disk.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class WavIoBenchmark {
+    private File input;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void createFiles(SignalState signal) throws IOException {
+        input = File.createTempFile("muse2_bench_in", ".wav");
+        output = File.createTempFile("muse2_bench_out", ".wav");
+        WavWriter.writeStereo(input, signal.left, signal.right, SignalState.SAMPLE_RATE);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() {
+        input.delete();
+        output.delete();
+    }
+
+    @Benchmark
+    public float[][] load() throws Exception {
+        return AudioProcessor.loadWavFile(input.getPath());
+    }
+
+    @Benchmark
+    public File write(SignalState signal) throws IOException {
+        WavWriter.writeStereo(output, signal.left, signal.right, SignalState.SAMPLE_RATE);
+        return output;
+    }
+
+    @Benchmark
+    public File writeAudioSystem(SignalState signal) throws IOException {
+        writeWav(signal.left, signal.right, output);
+        return output;
+    }
+
+    // Full byte[] and AudioSystem path that the stimulus writers used before WavWriter
+    private static void writeWav(float[] left, float[] right, File file) throws IOException {
+        int frames = Math.min(left.length, right.length);
+        byte[] bytes = new byte[frames * 4];
+        for (int i = 0; i < frames; i++) {
+            int l = (int) Math.max(Math.min(left[i] * 32767.0, 32767), -32768);
+            int r = (int) Math.max(Math.min(right[i] * 32767.0, 32767), -32768);
+            bytes[i * 4] = (byte) l;
+            bytes[i * 4 + 1] = (byte) (l >> 8);
+            bytes[i * 4 + 2] = (byte) r;
+            bytes[i * 4 + 3] = (byte) (r >> 8);
+        }
+        AudioFormat format = new AudioFormat(SignalState.SAMPLE_RATE, 16, 2, true, false);
+        try (AudioInputStream ais = new AudioInputStream(new ByteArrayInputStream(bytes), format, frames)) {
+            AudioSystem.write(ais, AudioFileFormat.Type.WAVE, file);
+        }
+    }
+}
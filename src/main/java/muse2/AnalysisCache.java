@@ -0,0 +1,374 @@
+package muse2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed cache of decoded WAV files and their spatial cues.
+ *
+ * Entries are keyed by the SHA-256 of the file contents, so a renamed or copied file
+ * still hits and an edited one misses. Cue entries additionally include ANALYSIS_VERSION
+ * and the analysis parameters (correlation backend, lag range, kernel mode).
+ *
+ * Decoded audio is stored on disk as raw little-endian floats and read back through a
+ * mapping; an in-memory LRU layer bounded by bytes sits in front. Arrays handed out
+ * are shared with the cache and must not be modified. Thread-safe.
+ */
+public class AnalysisCache {
+    /**
+     * Bump whenever decoding or cue analysis changes its results.
+     * 2: WAV decoding through SampleDecoder and loading through the resampler
+     */
+    public static final int ANALYSIS_VERSION = 2;
+    public static final long DEFAULT_MEMORY_BYTES = 256L * 1024 * 1024;
+
+    private static final Metrics.Counter HITS = Metrics.counter(Metrics.CACHE_HITS);
+    private static final Metrics.Counter MISSES = Metrics.counter(Metrics.CACHE_MISSES);
+
+    private static final int AUDIO_MAGIC = 0x41325A4D; // "MZ2A"
+    private static final int AUDIO_HEADER_BYTES = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static AnalysisCache defaultCache;
+    private static boolean defaultResolved = false;
+
+    private final File directory;
+    private final long memoryBytes;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryUsed = 0;
+    // Hashes of files already seen in this process, invalidated by size or mtime changes
+    private final Map<String, FileKey> hashes = new LinkedHashMap<>();
+
+    /**
+     * Decoded stereo audio with its sample rate
+     */
+    public static class Audio {
+        private final float[] left;
+        private final float[] right;
+        private final float sampleRate;
+
+        Audio(float[] left, float[] right, float sampleRate) {
+            this.left = left;
+            this.right = right;
+            this.sampleRate = sampleRate;
+        }
+
+        public float[] getLeft() { return left; }
+        public float[] getRight() { return right; }
+        public float getSampleRate() { return sampleRate; }
+    }
+
+    private static class Entry {
+        final Audio audio;
+        final SpatialCueAnalyzer.SpatialCues cues;
+        final long bytes;
+
+        Entry(Audio audio, SpatialCueAnalyzer.SpatialCues cues) {
+            this.audio = audio;
+            this.cues = cues;
+            this.bytes = audio != null ? 64L + 4L * (audio.left.length + audio.right.length) : 64L;
+        }
+    }
+
+    private static class FileKey {
+        final long size;
+        final long modified;
+        final String hash;
+
+        FileKey(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * @param directory Where entries are stored; created if missing
+     * @param memoryBytes Upper bound on decoded audio held in memory
+     */
+    public AnalysisCache(File directory, long memoryBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + directory);
+        }
+        this.directory = directory;
+        this.memoryBytes = memoryBytes;
+    }
+
+    /**
+     * Cache in the directory named by -Dmuse2.cache, or null when the property is not set
+     */
+    public static synchronized AnalysisCache getDefault() {
+        if (!defaultResolved) {
+            defaultResolved = true;
+            String dir = System.getProperty("muse2.cache");
+            if (dir != null && !dir.isEmpty()) {
+                try {
+                    defaultCache = new AnalysisCache(new File(dir), DEFAULT_MEMORY_BYTES);
+                } catch (IOException e) {
+                    System.err.println("Analysis cache disabled: " + e.getMessage());
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Decoded audio of a WAV file, decoding only on a miss in both layers
+     */
+    public Audio loadAudio(File wav) throws Exception {
+        String key = hash(wav);
+        Entry entry = getMemory(key);
+        if (entry != null && entry.audio != null) {
+            HITS.increment();
+            return entry.audio;
+        }
+
+        File stored = new File(directory, key + ".audio");
+        Audio audio = stored.isFile() ? readAudio(stored) : null;
+        if (audio != null) {
+            HITS.increment();
+        } else {
+            MISSES.increment();
+            AudioProcessor decoded = new AudioProcessor(wav.getPath());
+            audio = new Audio(decoded.getLeftChannel(), decoded.getRightChannel(), decoded.getSampleRate());
+            try {
+                writeAudio(stored, audio);
+            } catch (IOException e) {
+                System.err.println("Could not cache " + wav.getName() + ": " + e.getMessage());
+            }
+        }
+        putMemory(key, new Entry(audio, null));
+        return audio;
+    }
+
+    /**
+     * Whole-file spatial cues of a WAV file with the current default correlation backend
+     */
+    public SpatialCueAnalyzer.SpatialCues getCues(File wav) throws Exception {
+        SpatialCueAnalyzer.CorrelationMethod method = SpatialCueAnalyzer.getCorrelationMethod();
+        String key = hash(wav) + "-" + parametersHash(method);
+        Entry entry = getMemory(key);
+        if (entry != null) {
+            HITS.increment();
+            return entry.cues;
+        }
+
+        File stored = new File(directory, key + ".cues");
+        SpatialCueAnalyzer.SpatialCues cues = stored.isFile() ? readCues(stored) : null;
+        if (cues != null) {
+            HITS.increment();
+        } else {
+            Audio audio = loadAudio(wav);
+            MISSES.increment();
+            cues = SpatialCueAnalyzer.analyzeSpatialCues(audio.left, audio.right, (int) audio.sampleRate, method);
+            try {
+                writeCues(stored, cues);
+            } catch (IOException e) {
+                System.err.println("Could not cache cues of " + wav.getName() + ": " + e.getMessage());
+            }
+        }
+        putMemory(key, new Entry(null, cues));
+        return cues;
+    }
+
+    /**
+     * Hex SHA-256 of a file's contents. Repeated calls for an unchanged file (same size
+     * and modification time) reuse the earlier hash.
+     */
+    public String hash(File file) throws IOException {
+        String path = file.getCanonicalPath();
+        long size = file.length();
+        long modified = file.lastModified();
+        synchronized (hashes) {
+            FileKey known = hashes.get(path);
+            if (known != null && known.size == size && known.modified == modified) {
+                return known.hash;
+            }
+        }
+        String hash = contentHash(file);
+        synchronized (hashes) {
+            hashes.put(path, new FileKey(size, modified, hash));
+        }
+        return hash;
+    }
+
+    /**
+     * Hex SHA-256 of a file's contents, read in blocks
+     */
+    public static String contentHash(File file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer block = ByteBuffer.allocateDirect(1 << 16);
+            while (channel.read(block) >= 0) {
+                block.flip();
+                digest.update(block);
+                block.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    // Everything other than the file contents that changes the cues
+    private static String parametersHash(SpatialCueAnalyzer.CorrelationMethod method) {
+        String parameters = "v" + ANALYSIS_VERSION + ";method=" + method + ";maxLag=" + SpatialCueAnalyzer.MAX_LAG_SAMPLES
+            + ";kernels=" + (SignalKernels.isReference() ? "scalar" : "default");
+        return hex(sha256().digest(parameters.getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    }
+
+    private Entry getMemory(String key) {
+        synchronized (memory) {
+            return memory.get(key);
+        }
+    }
+
+    private void putMemory(String key, Entry entry) {
+        if (entry.bytes > memoryBytes) return;
+        synchronized (memory) {
+            Entry previous = memory.put(key, entry);
+            if (previous != null) memoryUsed -= previous.bytes;
+            memoryUsed += entry.bytes;
+            // Evict least recently used entries until the new one fits
+            Iterator<Entry> it = memory.values().iterator();
+            while (memoryUsed > memoryBytes && it.hasNext()) {
+                Entry oldest = it.next();
+                if (oldest == entry) continue;
+                memoryUsed -= oldest.bytes;
+                it.remove();
+            }
+        }
+    }
+
+    /** Drops the in-memory layer; disk entries are kept */
+    public void clearMemory() {
+        synchronized (memory) {
+            memory.clear();
+            memoryUsed = 0;
+        }
+    }
+
+    public long getMemoryBytesUsed() {
+        synchronized (memory) {
+            return memoryUsed;
+        }
+    }
+
+    // Header: magic, version, sample rate, frame count; then all left, then all right samples
+    private static Audio readAudio(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.limit() < AUDIO_HEADER_BYTES || map.getInt(0) != AUDIO_MAGIC || map.getInt(4) != ANALYSIS_VERSION) {
+                return null;
+            }
+            float sampleRate = map.getFloat(8);
+            int frames = map.getInt(12);
+            if (frames < 0 || map.limit() != AUDIO_HEADER_BYTES + 8L * frames) {
+                return null;
+            }
+            float[] left = new float[frames];
+            float[] right = new float[frames];
+            map.position(AUDIO_HEADER_BYTES);
+            map.asFloatBuffer().get(left).get(right);
+            return new Audio(left, right, sampleRate);
+        } catch (IOException e) {
+            // A damaged entry is a miss
+            return null;
+        }
+    }
+
+    private static void writeAudio(File file, Audio audio) throws IOException {
+        int frames = Math.min(audio.left.length, audio.right.length);
+        writeAtomically(file, channel -> {
+            ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            block.putInt(AUDIO_MAGIC).putInt(ANALYSIS_VERSION).putFloat(audio.sampleRate).putInt(frames);
+            for (float[] samples : new float[][] {audio.left, audio.right}) {
+                for (int i = 0; i < frames; ) {
+                    int n = Math.min(frames - i, block.remaining() / 4);
+                    block.asFloatBuffer().put(samples, i, n);
+                    block.position(block.position() + n * 4);
+                    i += n;
+                    drain(channel, block);
+                }
+            }
+            drain(channel, block);
+        });
+    }
+
+    private static SpatialCueAnalyzer.SpatialCues readCues(File file) {
+        try {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+            if (data.limit() != 16) return null;
+            return new SpatialCueAnalyzer.SpatialCues(data.getDouble(0), data.getDouble(8));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeCues(File file, SpatialCueAnalyzer.SpatialCues cues) throws IOException {
+        writeAtomically(file, channel -> {
+            ByteBuffer data = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            data.putDouble(cues.getItdMicroseconds()).putDouble(cues.getIldDecibels());
+            drain(channel, data);
+        });
+    }
+
+    private interface ChannelWriter {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    // Written to a temporary file and moved into place, so readers never see a partial entry
+    private static void writeAtomically(File file, ChannelWriter writer) throws IOException {
+        Path temp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writer.write(channel);
+            }
+            try {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer block) throws IOException {
+        block.flip();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        block.clear();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -1,61 +1,162 @@
 package muse2;
 
 import javax.sound.sampled.*;
-import java.io.File;
-import java.io.IOException;
 
 public class AudioProcessor {
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer(Metrics.AUDIO_LOAD);
+    private static final Metrics.Counter DECODED_FRAMES = Metrics.counter(Metrics.FRAMES_DECODED);
+    private static final Metrics.Counter BYTES_READ = Metrics.counter(Metrics.BYTES_READ);
+
+    /** Rate the analysis and the written stimuli use unless told otherwise */
+    public static final int TARGET_SAMPLE_RATE = 44100;
+    /** Target rate meaning "keep the file's own rate" */
+    public static final int NATIVE_RATE = 0;
+
+    private StereoBuffer audio;
     private float[] leftChannel;
     private float[] rightChannel;
     private float sampleRate;
 
     public AudioProcessor(String filename) throws Exception {
-        float[][] audio = loadWavFile(filename);
-        this.leftChannel = audio[0];
-        this.rightChannel = audio[1];
-        this.sampleRate = 44100.0f;
+        this(filename, null, TARGET_SAMPLE_RATE);
+    }
+
+    /**
+     * Loads a stereo WAV file at any sample rate
+     * @param filename WAV file path
+     * @param pool Pool to take the buffer from, or null to allocate it
+     * @param targetRate Rate to resample to, or NATIVE_RATE to keep the file's rate
+     */
+    public AudioProcessor(String filename, StereoBuffer.Pool pool, int targetRate) throws Exception {
+        this(filename, pool, targetRate, 0, 1);
     }
-    
+
+    /**
+     * Loads one ear pair of a WAV file with any number of channels at any sample rate
+     * @param filename WAV file path
+     * @param pool Pool to take the buffer from, or null to allocate it
+     * @param targetRate Rate to resample to, or NATIVE_RATE to keep the file's rate
+     * @param leftChannel Channel loaded as the left ear
+     * @param rightChannel Channel loaded as the right ear
+     */
+    public AudioProcessor(String filename, StereoBuffer.Pool pool, int targetRate,
+                          int leftChannel, int rightChannel) throws Exception {
+        try (WavStreamReader reader = new WavStreamReader(filename, WavStreamReader.DEFAULT_BLOCK_FRAMES,
+                leftChannel, rightChannel)) {
+            int fileRate = Math.round(reader.getSampleRate());
+            int rate = targetRate == NATIVE_RATE ? fileRate : targetRate;
+            this.audio = load(reader, filename, pool, rate);
+            this.sampleRate = rate;
+        }
+    }
+
     // Public static method for loading WAV files
     public static float[][] loadWavFile(String filename) throws Exception {
-        File file = new File(filename);
-        AudioInputStream ais = AudioSystem.getAudioInputStream(file);
-        AudioFormat format = ais.getFormat();
+        return loadStereo(filename, null).toArrays();
+    }
+
+    /**
+     * Loads a stereo WAV file into a buffer at TARGET_SAMPLE_RATE
+     * @param filename WAV file path
+     * @param pool Pool to take the buffer from, or null to allocate it
+     * @return Decoded audio; release() it when it came from a pool
+     */
+    public static StereoBuffer loadStereo(String filename, StereoBuffer.Pool pool) throws Exception {
+        return new AudioProcessor(filename, pool, TARGET_SAMPLE_RATE).getAudio();
+    }
 
-        if (format.getChannels() != 2) {
-            throw new Exception("Audio file must be stereo.");
+    private static StereoBuffer load(WavStreamReader reader, String filename, StereoBuffer.Pool pool,
+                                     int targetRate) throws Exception {
+        long start = LOAD_TIMER.start();
+        AudioFormat format = reader.getFormat();
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED && format.getEncoding() != AudioFormat.Encoding.PCM_FLOAT) {
+            throw new Exception("Audio file must be PCM signed or float.");
         }
-        if (format.getSampleRate() != 44100.0f) {
-            throw new Exception("Audio file must be 44.1kHz.");
+        int fileRate = Math.round(format.getSampleRate());
+        if (fileRate <= 0) {
+            throw new Exception("Invalid sample rate in " + filename + ": " + format.getSampleRate());
         }
-        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
-            throw new Exception("Audio file must be PCM signed.");
+
+        // Decoded block by block straight into the buffer, through the resampler when the
+        // rates differ; the file is never held as bytes or at its original rate
+        long frameLength = reader.getFrameLength();
+        long expected = frameLength > 0 ? Resampler.outputFrames(frameLength, fileRate, targetRate) : 0;
+        if (expected > Integer.MAX_VALUE) {
+            throw new Exception("Audio file is too long: " + filename);
+        }
+        Collector collector = new Collector(pool, expected > 0 ? (int) expected : WavStreamReader.DEFAULT_BLOCK_FRAMES);
+        Resampler resampler = fileRate != targetRate ? new Resampler(fileRate, targetRate, collector) : null;
+        long decoded = 0;
+        try {
+            int n;
+            while ((n = reader.read()) > 0) {
+                if (resampler != null) {
+                    resampler.accept(reader.getLeft(), reader.getRight(), 0, n);
+                } else {
+                    collector.write(reader.getLeft(), reader.getRight(), n);
+                }
+                decoded += n;
+            }
+            if (resampler != null) {
+                resampler.finish();
+            }
+        } catch (Exception e) {
+            collector.audio.release();
+            throw e;
         }
 
-        byte[] audioBytes = ais.readAllBytes();
-        int frameSize = format.getFrameSize();
-        int numFrames = audioBytes.length / frameSize;
+        StereoBuffer audio = collector.audio;
+        audio.setFrames(collector.frames);
+        LOAD_TIMER.stop(start);
+        DECODED_FRAMES.add(decoded);
+        BYTES_READ.add(decoded * format.getFrameSize());
+        return audio;
+    }
 
-        float[] leftChannel = new float[numFrames];
-        float[] rightChannel = new float[numFrames];
+    // Appends frames to a buffer, growing it from the pool when the header undercounts
+    private static class Collector implements Resampler.Sink {
+        final StereoBuffer.Pool pool;
+        StereoBuffer audio;
+        int frames = 0;
+
+        Collector(StereoBuffer.Pool pool, int capacity) {
+            this.pool = pool;
+            this.audio = acquire(pool, capacity);
+        }
 
-        for (int i = 0; i < numFrames; i++) {
-            int sampleIndex = i * frameSize;
-            // 16-bit signed, little endian
-            int left = (audioBytes[sampleIndex + 1] << 8) | (audioBytes[sampleIndex] & 0xFF);
-            int right = (audioBytes[sampleIndex + 3] << 8) | (audioBytes[sampleIndex + 2] & 0xFF);
-            leftChannel[i] = left / 32768.0f;
-            rightChannel[i] = right / 32768.0f;
+        @Override
+        public void write(float[] left, float[] right, int count) {
+            if (frames + count > audio.frames()) {
+                StereoBuffer grown = acquire(pool, Math.max(audio.frames() * 2, frames + count));
+                grown.put(0, audio.slice(0, frames));
+                audio.release();
+                audio = grown;
+            }
+            audio.put(frames, left, right, 0, count);
+            frames += count;
         }
-        
-        return new float[][] { leftChannel, rightChannel };
+    }
+
+    private static StereoBuffer acquire(StereoBuffer.Pool pool, int frames) {
+        return pool != null ? pool.acquire(frames) : StereoBuffer.allocate(frames);
+    }
+
+    /** Decoded audio at getSampleRate(); release() it when it came from a pool */
+    public StereoBuffer getAudio() {
+        return audio;
     }
 
     public float[] getLeftChannel() {
+        if (leftChannel == null) {
+            float[][] channels = audio.toArrays();
+            leftChannel = channels[0];
+            rightChannel = channels[1];
+        }
         return leftChannel;
     }
 
     public float[] getRightChannel() {
+        getLeftChannel();
         return rightChannel;
     }
 
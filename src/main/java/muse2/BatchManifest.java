@@ -0,0 +1,177 @@
+package muse2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Record of what an incremental batch run produced, kept next to the results CSV.
+ *
+ * One entry per successfully processed input: its size, modification time and content
+ * hash, the processing parameters and the stimulus files written for it. An input is
+ * up to date when its entry matches (size and time, or failing that the hash), the
+ * parameters are unchanged and every output still exists; its CSV rows can then be
+ * carried over instead of recomputed.
+ *
+ * Text format, one tab-separated line per input after a version line:
+ * name, size, modified, sha256, parameters, outputs separated by '|'.
+ */
+public class BatchManifest {
+    public static final String FILE_SUFFIX = ".manifest";
+    private static final String VERSION_LINE = "# muse2 batch manifest v1";
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public static class Entry {
+        final String name;
+        final long size;
+        final long modified;
+        final String hash;
+        final String parameters;
+        final String[] outputs;
+
+        Entry(String name, long size, long modified, String hash, String parameters, String[] outputs) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.parameters = parameters;
+            this.outputs = outputs;
+        }
+
+        public String getName() { return name; }
+        public String getHash() { return hash; }
+        public String getParameters() { return parameters; }
+        public String[] getOutputs() { return outputs.clone(); }
+    }
+
+    /** Manifest file that belongs to a results CSV */
+    public static File forCsv(String csvFile) {
+        return new File(csvFile + FILE_SUFFIX);
+    }
+
+    /**
+     * Reads a manifest; a missing or unreadable one is empty, so everything is rebuilt
+     */
+    public static BatchManifest load(File file) {
+        BatchManifest manifest = new BatchManifest();
+        if (!file.isFile()) return manifest;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if (!VERSION_LINE.equals(reader.readLine())) {
+                System.err.println("Ignoring manifest with unknown format: " + file);
+                return manifest;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] f = line.split("\t", -1);
+                if (f.length != 6) continue;
+                String[] outputs = f[5].isEmpty() ? new String[0] : f[5].split("\\|");
+                manifest.entries.put(f[0], new Entry(f[0], Long.parseLong(f[1]), Long.parseLong(f[2]), f[3], f[4], outputs));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Ignoring unreadable manifest " + file + ": " + e.getMessage());
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.name, entry);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Entry for an input that has just been processed
+     */
+    public static Entry entryFor(File input, String hash, String parameters, List<File> outputs) throws IOException {
+        // Canonical, so a later run from another working directory finds the same files
+        String[] names = new String[outputs.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = outputs.get(i).getCanonicalPath();
+        }
+        return new Entry(input.getName(), input.length(), input.lastModified(), hash, parameters, names);
+    }
+
+    /**
+     * The previous entry if the input and its outputs are unchanged, refreshed when only
+     * the modification time moved; null when the input has to be processed again
+     */
+    public Entry upToDate(File input, String parameters) throws IOException {
+        Entry entry = entries.get(input.getName());
+        if (entry == null || !entry.parameters.equals(parameters)) return null;
+        for (String output : entry.outputs) {
+            if (!new File(output).isFile()) return null;
+        }
+        if (entry.size == input.length() && entry.modified == input.lastModified()) {
+            return entry;
+        }
+        if (entry.size != input.length() || !entry.hash.equals(AnalysisCache.contentHash(input))) {
+            return null;
+        }
+        return new Entry(entry.name, entry.size, input.lastModified(), entry.hash, entry.parameters, entry.outputs);
+    }
+
+    /**
+     * Writes the manifest through a temporary file so an interrupted run leaves the old one
+     */
+    public void save(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        Path temp = Files.createTempFile(parent.toPath(), file.getName(), ".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+                out.println(VERSION_LINE);
+                for (Entry e : entries.values()) {
+                    out.println(e.name + "\t" + e.size + "\t" + e.modified + "\t" + e.hash + "\t"
+                        + e.parameters + "\t" + String.join("|", e.outputs));
+                }
+            }
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Data rows of an existing results CSV grouped by filename, in file order; empty if
+     * the file does not exist. Rows are kept as written so carried-over rows are unchanged.
+     */
+    public static Map<String, List<String>> readCsvRows(File csv) throws IOException {
+        Map<String, List<String>> rows = new HashMap<>();
+        if (!csv.isFile()) return rows;
+        try (BufferedReader reader = new BufferedReader(new FileReader(csv))) {
+            String line = reader.readLine(); // Skip header
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                // The filename may contain commas; the seven numeric fields never do
+                int cut = line.length();
+                for (int i = 0; i < 7 && cut > 0; i++) {
+                    cut = line.lastIndexOf(',', cut - 1);
+                }
+                if (cut <= 0) continue;
+                rows.computeIfAbsent(line.substring(0, cut), k -> new ArrayList<>()).add(line);
+            }
+        }
+        return rows;
+    }
+}
@@ -2,11 +2,185 @@ package muse2;
 
 import java.io.File;
 import java.io.IOException;
-import javax.sound.sampled.*;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 
 public class BatchProcessor {
-    private String[] shiftLabels = {"200", "400", "600"};
-    private float[] shiftHz = {200f, 400f, 600f};
+    /**
+     * Thread pool used by the concurrent batch mode
+     */
+    public enum ExecutorKind {
+        FORK_JOIN,
+        FIXED,
+        /**
+         * One virtual thread per task (JDK 21+), at most parallelism running at once;
+         * falls back to FIXED on older JDKs
+         */
+        VIRTUAL
+    }
+
+    public static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 512L * 1024 * 1024;
+
+    public static final float[] DEFAULT_SHIFTS_HZ = {200f, 400f, 600f};
+
+    // Idle buffers kept for reuse are capped at this fraction of the in-flight budget
+    private static final int RETAINED_FRACTION = 8;
+
+    private static final Metrics.Timer FILE_TIMER = Metrics.timer(Metrics.FILE_TOTAL);
+    private static final Metrics.Timer WAV_TIMER = Metrics.timer(Metrics.WAV_WRITE);
+    private static final Metrics.Counter FILES_PROCESSED = Metrics.counter(Metrics.FILES_PROCESSED);
+    private static final Metrics.Counter FILES_FAILED = Metrics.counter(Metrics.FILES_FAILED);
+    private static final Metrics.Counter FILES_SKIPPED = Metrics.counter(Metrics.FILES_SKIPPED);
+    private static final Metrics.Counter SHIFTS_PRODUCED = Metrics.counter(Metrics.SHIFTS_PRODUCED);
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter(Metrics.BYTES_WRITTEN);
+
+    private String[] shiftLabels;
+    private float[] shiftHz;
+
+    private final int parallelism;
+    private final ExecutorKind executorKind;
+    private final long maxBytesInFlight;
+    private File metricsOutput;
+    private File resultsTableOutput;
+    private AnalysisCache cache = AnalysisCache.getDefault();
+    // Decoded inputs and shifted outputs; buffers return here when a file is done and the
+    // idle ones are dropped at the end of each run
+    private final StereoBuffer.Pool buffers;
+    private boolean incremental = false;
+    private int sampleRate = AudioProcessor.TARGET_SAMPLE_RATE;
+    private int leftChannel = 0;
+    private int rightChannel = 1;
+
+    public BatchProcessor() {
+        this(1, ExecutorKind.FORK_JOIN, DEFAULT_MAX_BYTES_IN_FLIGHT);
+    }
+
+    /**
+     * @param parallelism Worker threads; 1 processes files one at a time on the calling thread
+     * @param executorKind Pool used when parallelism > 1
+     * @param maxBytesInFlight Upper bound on the estimated memory of decoded and shifted audio
+     *                         held at once; files wait for admission until enough is released
+     */
+    public BatchProcessor(int parallelism, ExecutorKind executorKind, long maxBytesInFlight) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        if (maxBytesInFlight < 1024) {
+            throw new IllegalArgumentException("Memory budget too small: " + maxBytesInFlight);
+        }
+        this.parallelism = parallelism;
+        this.executorKind = executorKind;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.buffers = new StereoBuffer.Pool(StereoBuffer.Layout.PLANAR, false, maxBytesInFlight / RETAINED_FRACTION);
+        setShifts(DEFAULT_SHIFTS_HZ);
+    }
+
+    /**
+     * Sets the shift ladder; all shifts of a file are produced in one pass
+     * @param shiftsHz Shift amounts in Hz, each in [0, 1 kHz)
+     * @throws IllegalArgumentException if the ladder is empty or a shift is out of range
+     */
+    public void setShifts(float... shiftsHz) {
+        if (shiftsHz.length == 0) {
+            throw new IllegalArgumentException("At least one shift amount is required");
+        }
+        for (float hz : shiftsHz) {
+            checkShift(hz);
+        }
+        this.shiftHz = shiftsHz.clone();
+        this.shiftLabels = new String[shiftsHz.length];
+        for (int i = 0; i < shiftsHz.length; i++) {
+            float hz = shiftsHz[i];
+            shiftLabels[i] = hz == Math.rint(hz) ? String.valueOf((int) hz) : String.valueOf(hz);
+        }
+    }
+
+    public float[] getShifts() {
+        return shiftHz.clone();
+    }
+
+    // Same limit FrequencyShifter enforces, checked before any file is processed
+    static void checkShift(float hz) {
+        if (!(hz < FrequencyShifter.CENTER_FREQ)) {
+            throw new IllegalArgumentException("Shift must be below " + FrequencyShifter.CENTER_FREQ + " Hz: " + hz);
+        }
+        if (hz < 0) {
+            throw new IllegalArgumentException("Shift must not be negative: " + hz);
+        }
+    }
+
+    /**
+     * Writes the pipeline metrics of each processDirectory run to this file when it
+     * finishes; JSON for a .json name, CSV otherwise. Null turns the dump off. Metrics are
+     * process-wide, so while this is set each run starts by resetting them; runs that
+     * overlap in one process report their combined totals.
+     */
+    public void setMetricsOutput(File file) {
+        this.metricsOutput = file;
+    }
+
+    /**
+     * Cache for decoded inputs and their original cues; null decodes and analyses every
+     * file. Defaults to AnalysisCache.getDefault().
+     */
+    public void setCache(AnalysisCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Also writes each processDirectory run's rows as a columnar ResultsTable file.
+     * Null turns it off.
+     */
+    public void setResultsTableOutput(File file) {
+        this.resultsTableOutput = file;
+    }
+
+    /**
+     * Incremental runs keep a BatchManifest next to the CSV and only process inputs that
+     * are new or changed since the last run; rows of unchanged inputs are copied from the
+     * previous CSV. The CSV still lists every current input, as a full run would. A
+     * non-incremental run removes the manifest, since it no longer matches the CSV.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Rate inputs are resampled to before analysis and shifting, and that the stimuli are
+     * written at; AudioProcessor.NATIVE_RATE keeps each file's own rate. Defaults to
+     * AudioProcessor.TARGET_SAMPLE_RATE. The cache only holds audio at the default rate.
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 0) {
+            throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Channels read as the left and right ear, for inputs recorded with more than two
+     * microphones; the other channels are not decoded. Defaults to 0 and 1. Like a
+     * non-default rate, other pairs bypass the cache.
+     */
+    public void setEarChannels(int leftChannel, int rightChannel) {
+        if (leftChannel < 0 || rightChannel < 0) {
+            throw new IllegalArgumentException("Invalid ear channels: " + leftChannel + "/" + rightChannel);
+        }
+        this.leftChannel = leftChannel;
+        this.rightChannel = rightChannel;
+    }
 
     public void processDirectory(String inputDir, String csvOut) {
         File dir = new File(inputDir);
@@ -15,57 +189,361 @@ public class BatchProcessor {
             System.err.println("No WAV files found in directory: " + inputDir);
             return;
         }
+        // Fixed file order so CSV rows come out the same regardless of scheduling
+        Arrays.sort(files);
+        if (metricsOutput != null) {
+            // The dump covers this run only
+            Metrics.reset();
+        }
         // Create output directory for stimuli
         File outStimDir = new File("output_stimuli");
         if (!outStimDir.exists()) outStimDir.mkdir();
+        Run run = new Run();
+        run.table = resultsTableOutput != null ? new ResultsTable.Writer(resultsTableOutput.getPath()) : null;
+        File manifestFile = BatchManifest.forCsv(csvOut);
+        if (incremental) {
+            // Previous rows must be read before the exporter truncates the CSV
+            run.previous = BatchManifest.load(manifestFile);
+            try {
+                run.previousRows = BatchManifest.readCsvRows(new File(csvOut));
+            } catch (IOException e) {
+                System.err.println("Cannot read previous results, processing everything: " + e.getMessage());
+                run.previous = new BatchManifest();
+                run.previousRows = new HashMap<>();
+            }
+            run.manifest = new BatchManifest();
+            run.parameters = parameterKey();
+        } else if (manifestFile.exists() && !manifestFile.delete()) {
+            // A full run rewrites the CSV, so a left-over manifest would describe rows that are gone
+            System.err.println("Cannot remove stale manifest: " + manifestFile);
+        }
         try (CsvExporter exporter = new CsvExporter(csvOut)) {
+            run.exporter = exporter;
             exporter.writeHeader();
+            if (parallelism == 1) {
+                for (File file : files) {
+                    try {
+                        FileResult result = carryOver(file, run);
+                        writeResult(run, result != null ? result : processFile(file, outStimDir, run));
+                    } catch (Exception e) {
+                        FILES_FAILED.increment();
+                        System.err.println("Error processing " + file.getName() + ": " + e.getMessage());
+                    }
+                }
+            } else {
+                processConcurrently(files, outStimDir, run);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing CSV: " + e.getMessage());
+        }
+        if (run.table != null) {
+            try {
+                run.table.close();
+            } catch (IOException e) {
+                System.err.println("Error writing results table: " + e.getMessage());
+            }
+        }
+        // Idle buffers are only worth keeping while files are being processed
+        buffers.clear();
+        if (run.manifest != null) {
+            try {
+                run.manifest.save(manifestFile);
+            } catch (IOException e) {
+                System.err.println("Error writing manifest: " + e.getMessage());
+            }
+        }
+        if (metricsOutput != null) {
+            try {
+                Metrics.dump(metricsOutput);
+            } catch (IOException e) {
+                System.err.println("Error writing metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    // Files and shifts run on the pool; rows are written on this thread in file order
+    private void processConcurrently(File[] files, File outStimDir, Run run) throws IOException {
+        ExecutorService executor = createExecutor();
+        int budgetKb = (int) Math.min(Integer.MAX_VALUE, maxBytesInFlight / 1024);
+        Semaphore admission = new Semaphore(budgetKb);
+        // A virtual thread per task has no pool size, so parallelism is enforced here
+        Semaphore slots = executorKind == ExecutorKind.VIRTUAL ? new Semaphore(parallelism) : null;
+        List<CompletableFuture<FileResult>> pending = new ArrayList<>();
+        int nextToWrite = 0;
+
+        try {
             for (File file : files) {
+                FileResult carried = carryOver(file, run);
+                if (carried != null) {
+                    pending.add(CompletableFuture.completedFuture(carried));
+                    continue;
+                }
+                int costKb = (int) Math.max(1, Math.min(budgetKb, estimateBytes(file) / 1024));
                 try {
-                    System.out.println("Processing: " + file.getName());
-                    AudioProcessor ap = new AudioProcessor(file.getAbsolutePath());
-                    float[] left = ap.getLeftChannel();
-                    float[] right = ap.getRightChannel();
-                    float sr = ap.getSampleRate();
-                    double origITD = SpatialCueAnalyzer.computeITD(left, right, sr);
-                    double origILD = SpatialCueAnalyzer.computeILD(left, right);
-                    for (int i = 0; i < shiftHz.length; i++) {
-                        float shift = shiftHz[i];
-                        float[][] shifted = FrequencyShifter.shift(left, right, sr, shift);
-                        double shiftedITD = SpatialCueAnalyzer.computeITD(shifted[0], shifted[1], sr);
-                        double shiftedILD = SpatialCueAnalyzer.computeILD(shifted[0], shifted[1]);
-                        exporter.appendRow(file.getName(), shift, origITD, origILD, shiftedITD, shiftedILD);
-                        System.out.printf("  Shift %s Hz: ITD %.2f us, ILD %.2f dB\n", shiftLabels[i], shiftedITD, shiftedILD);
-                        // Save shifted audio as WAV
-                        String outName = file.getName().replace(".wav", "_shifted_" + shiftLabels[i] + "Hz.wav");
-                        File outFile = new File(outStimDir, outName);
-                        writeStereoWav(shifted[0], shifted[1], sr, outFile);
+                    admission.acquire(costKb);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for memory budget", e);
+                }
+                if (slots != null) {
+                    try {
+                        slots.acquire();
+                    } catch (InterruptedException e) {
+                        admission.release(costKb);
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for a worker slot", e);
                     }
-                } catch (Exception e) {
-                    System.err.println("Error processing " + file.getName() + ": " + e.getMessage());
+                }
+
+                CompletableFuture<FileResult> result = submitFile(file, outStimDir, run, executor);
+                result.whenComplete((r, t) -> {
+                    if (slots != null) slots.release();
+                    admission.release(costKb);
+                });
+                pending.add(result);
+
+                // Write whatever is already finished at the head of the queue
+                while (nextToWrite < pending.size() && pending.get(nextToWrite).isDone()) {
+                    writePending(run, files[nextToWrite], pending.get(nextToWrite));
+                    pending.set(nextToWrite++, null);
                 }
             }
+            while (nextToWrite < pending.size()) {
+                writePending(run, files[nextToWrite], pending.get(nextToWrite));
+                pending.set(nextToWrite++, null);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Each file is one task; its shifts share a single pass over the audio
+    private CompletableFuture<FileResult> submitFile(File file, File outStimDir, Run run, ExecutorService executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return processFile(file, outStimDir, run);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private void writePending(Run run, File file, CompletableFuture<FileResult> result) throws IOException {
+        try {
+            writeResult(run, result.join());
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            FILES_FAILED.increment();
+            System.err.println("Error processing " + file.getName() + ": " + cause.getMessage());
+        }
+    }
+
+    private FileResult processFile(File file, File outStimDir, Run run) throws Exception {
+        long start = FILE_TIMER.start();
+        FileResult result = analyzeOriginal(file);
+        try {
+            processShifts(result, outStimDir);
+        } finally {
+            result.release();
+        }
+        if (run.manifest != null) {
+            String hash = cache != null ? cache.hash(file) : AnalysisCache.contentHash(file);
+            result.entry = BatchManifest.entryFor(file, hash, run.parameters, result.outputs);
+        }
+        FILE_TIMER.stop(start);
+        FILES_PROCESSED.increment();
+        return result;
+    }
+
+    private FileResult analyzeOriginal(File file) throws Exception {
+        System.out.println("Processing: " + file.getName());
+        if (cache != null && sampleRate == AudioProcessor.TARGET_SAMPLE_RATE && leftChannel == 0 && rightChannel == 1) {
+            AnalysisCache.Audio audio = cache.loadAudio(file);
+            SpatialCueAnalyzer.SpatialCues cues = cache.getCues(file);
+            // Cached arrays are shared, so they are wrapped rather than pooled
+            FileResult result = new FileResult(file.getName(), StereoBuffer.wrap(audio.getLeft(), audio.getRight()), audio.getSampleRate());
+            result.origITD = cues.getItdMicroseconds();
+            result.origILD = cues.getIldDecibels();
+            return result;
+        }
+        AudioProcessor decoded = new AudioProcessor(file.getAbsolutePath(), buffers, sampleRate, leftChannel, rightChannel);
+        FileResult result = new FileResult(file.getName(), decoded.getAudio(), decoded.getSampleRate());
+        try {
+            SpatialCueAnalyzer.SpatialCues cues = SpatialCueAnalyzer.analyzeSpatialCues(result.audio, (int) result.sampleRate);
+            result.origITD = cues.getItdMicroseconds();
+            result.origILD = cues.getIldDecibels();
+        } catch (RuntimeException e) {
+            result.release();
+            throw e;
+        }
+        return result;
+    }
+
+    // Shifts to every ladder step at once, measuring cues as the shifted audio is produced
+    private void processShifts(FileResult file, File outStimDir) throws IOException {
+        int length = file.audio.frames();
+        StereoBuffer[] shifted = new StereoBuffer[shiftHz.length];
+        try {
+            for (int i = 0; i < shifted.length; i++) {
+                shifted[i] = buffers.acquire(length);
+            }
+            int[] written = new int[shiftHz.length];
+            ShiftLadder ladder = new ShiftLadder(shiftHz, (target, left, right, count) -> {
+                shifted[target].put(written[target], left, right, 0, count);
+                written[target] += count;
+            });
+            ladder.accept(file.audio);
+            ladder.finish();
+
+            for (int i = 0; i < shiftHz.length; i++) {
+                SpatialCueAnalyzer.SpatialCues cues = ladder.getCues(i, (int) file.sampleRate);
+                // Save shifted audio as WAV
+                String outName = file.name.replace(".wav", "_shifted_" + shiftLabels[i] + "Hz.wav");
+                File outFile = new File(outStimDir, outName);
+                long start = WAV_TIMER.start();
+                WavWriter.write(outFile, shifted[i], (int) file.sampleRate, WavWriter.Encoding.PCM_16);
+                // Each shift goes back to the pool as soon as it is on disk
+                shifted[i].release();
+                shifted[i] = null;
+                WAV_TIMER.stop(start);
+                BYTES_WRITTEN.add(outFile.length());
+                SHIFTS_PRODUCED.increment();
+                file.shifts.add(new ShiftResult(i, cues.getItdMicroseconds(), cues.getIldDecibels()));
+                file.outputs.add(outFile);
+            }
+        } finally {
+            for (StereoBuffer buffer : shifted) {
+                if (buffer != null) buffer.release();
+            }
+        }
+    }
+
+    // An unchanged input with its previous rows, or null when it has to be processed
+    private FileResult carryOver(File file, Run run) throws IOException {
+        if (run.manifest == null) return null;
+        List<String> rows = run.previousRows.get(file.getName());
+        if (rows == null) return null;
+        BatchManifest.Entry entry = run.previous.upToDate(file, run.parameters);
+        if (entry == null) return null;
+        FileResult result = new FileResult(file.getName(), null, 0f);
+        result.keptRows = rows;
+        result.entry = entry;
+        return result;
+    }
+
+    private void writeResult(Run run, FileResult result) throws IOException {
+        ResultsTable.Writer table = run.table;
+        if (result.entry != null) {
+            run.manifest.put(result.entry);
+        }
+        if (result.keptRows != null) {
+            System.out.println("Unchanged: " + result.name);
+            for (String row : result.keptRows) {
+                run.exporter.appendRawRow(row);
+                if (table != null) {
+                    table.appendCsvRow(row);
+                }
+            }
+            FILES_SKIPPED.increment();
+            return;
+        }
+        CsvExporter.Batch rows = new CsvExporter.Batch();
+        for (ShiftResult shift : result.shifts) {
+            rows.add(result.name, shiftHz[shift.index], result.origITD, result.origILD, shift.itd, shift.ild);
+            if (table != null) {
+                table.appendRow(result.name, shiftHz[shift.index], result.origITD, result.origILD, shift.itd, shift.ild);
+            }
+            System.out.printf("  Shift %s Hz: ITD %.2f us, ILD %.2f dB\n", shiftLabels[shift.index], shift.itd, shift.ild);
+        }
+        run.exporter.append(rows);
+    }
+
+    // Two float ears at the analysis rate for the input, and another pair per shift
+    long estimateBytes(File file) {
+        long frames;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WavHeader header = WavHeader.read(channel);
+            frames = header.getFrameCount();
+            if (sampleRate != AudioProcessor.NATIVE_RATE && header.getSampleRate() > 0) {
+                frames = (long) Math.ceil(frames * (double) sampleRate / header.getSampleRate());
+            }
         } catch (IOException e) {
-            System.err.println("Error writing CSV: " + e.getMessage());
+            // Unreadable headers fail when the file is processed; assume 16-bit stereo until then
+            frames = file.length() / 4;
+        }
+        return frames * 2 * Float.BYTES * (1 + shiftHz.length);
+    }
+
+    private ExecutorService createExecutor() {
+        if (executorKind == ExecutorKind.VIRTUAL) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads not available on this JDK, using a fixed pool");
+            }
+        }
+        if (executorKind == ExecutorKind.FORK_JOIN) {
+            return new ForkJoinPool(parallelism);
         }
+        return Executors.newFixedThreadPool(parallelism);
+    }
+
+    // Where one processDirectory run writes; the manifest parts are only set when incremental
+    private static class Run {
+        CsvExporter exporter;
+        ResultsTable.Writer table;
+        BatchManifest previous;
+        Map<String, List<String>> previousRows;
+        BatchManifest manifest;
+        String parameters;
+    }
+
+    // Everything that changes the rows or stimuli of an input; a change reprocesses it
+    private String parameterKey() {
+        StringBuilder key = new StringBuilder("v").append(AnalysisCache.ANALYSIS_VERSION);
+        key.append(";shifts=").append(String.join(",", shiftLabels));
+        key.append(";frame=").append(FrequencyShifter.FRAME_SIZE).append(";hop=").append(FrequencyShifter.HOP);
+        key.append(";method=").append(SpatialCueAnalyzer.getCorrelationMethod());
+        key.append(";rate=").append(sampleRate == AudioProcessor.NATIVE_RATE ? "native" : String.valueOf(sampleRate));
+        key.append(";ears=").append(leftChannel).append(",").append(rightChannel);
+        return key.toString();
     }
 
-    // Helper to write stereo float arrays to WAV file
-    private void writeStereoWav(float[] left, float[] right, float sampleRate, File outFile) throws IOException {
-        int nFrames = Math.min(left.length, right.length);
-        byte[] audioBytes = new byte[nFrames * 4]; // 2 channels x 16-bit
-        for (int i = 0; i < nFrames; i++) {
-            int l = (int) Math.max(Math.min(left[i] * 32767.0, 32767), -32768);
-            int r = (int) Math.max(Math.min(right[i] * 32767.0, 32767), -32768);
-            audioBytes[i * 4] = (byte) (l & 0xFF);
-            audioBytes[i * 4 + 1] = (byte) ((l >> 8) & 0xFF);
-            audioBytes[i * 4 + 2] = (byte) (r & 0xFF);
-            audioBytes[i * 4 + 3] = (byte) ((r >> 8) & 0xFF);
+    // Per-file state; audio is dropped once all shifts are done so only rows are kept
+    private static class FileResult {
+        final String name;
+        final float sampleRate;
+        StereoBuffer audio;
+        double origITD;
+        double origILD;
+        final List<ShiftResult> shifts = new ArrayList<>();
+        final List<File> outputs = new ArrayList<>();
+        // Set for inputs carried over unchanged by an incremental run
+        List<String> keptRows;
+        BatchManifest.Entry entry;
+
+        FileResult(String name, StereoBuffer audio, float sampleRate) {
+            this.name = name;
+            this.audio = audio;
+            this.sampleRate = sampleRate;
+        }
+
+        void release() {
+            audio.release();
+            audio = null;
         }
-        AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
-        try (AudioInputStream ais = new AudioInputStream(
-                new java.io.ByteArrayInputStream(audioBytes), format, nFrames)) {
-            AudioSystem.write(ais, AudioFileFormat.Type.WAVE, outFile);
+    }
+
+    private static class ShiftResult {
+        final int index;
+        final double itd;
+        final double ild;
+
+        ShiftResult(int index, double itd, double ild) {
+            this.index = index;
+            this.itd = itd;
+            this.ild = ild;
         }
     }
-} 
\ No newline at end of file
+}
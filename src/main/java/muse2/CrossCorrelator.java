@@ -0,0 +1,129 @@
+package muse2;
+
+/**
+ * Frequency-domain cross-correlation over a bounded lag window.
+ *
+ * The signal is processed in overlap-save blocks: each block of x is correlated
+ * against the matching stretch of y (padded by maxLag on both sides) with a single
+ * complex FFT (x in the real part, y in the imaginary part) and one inverse FFT.
+ * Cost is O(N log B) instead of O(N * lags) for the time-domain loop.
+ *
+ * FFT plans come from the shared FFT.forSize cache. Instances keep their scratch
+ * buffers between calls and are not thread-safe; use one instance per thread.
+ */
+public final class CrossCorrelator {
+    private static final int TARGET_BLOCK_SAMPLES = 8192;
+
+    private FFT fft;
+    private double[] re = new double[0];
+    private double[] im = new double[0];
+
+    /**
+     * Raw lagged products r[maxLag + d] = sum_i x[i] * y[i + d] for -maxLag <= d <= maxLag,
+     * treating samples outside [0, length) as zero
+     * @param x First signal
+     * @param y Second signal
+     * @param length Number of samples of each signal to use
+     * @param maxLag Largest lag (in samples) to evaluate
+     * @return Correlation sums indexed by lag + maxLag
+     */
+    public double[] correlate(float[] x, float[] y, int length, int maxLag) {
+        double[] out = new double[maxLag * 2 + 1];
+        int n = prepare(length, maxLag);
+        int block = n - maxLag * 2;
+
+        for (int start = 0; start < length; start += block) {
+            int len = Math.min(block, length - start);
+
+            // Real part: this block of x, zero padded
+            for (int t = 0; t < len; t++) re[t] = x[start + t];
+            for (int t = len; t < n; t++) re[t] = 0.0;
+
+            // Imaginary part: y from start - maxLag to start + len + maxLag
+            int yLen = len + maxLag * 2;
+            for (int t = 0; t < n; t++) {
+                int idx = start - maxLag + t;
+                im[t] = (t < yLen && idx >= 0 && idx < length) ? y[idx] : 0.0;
+            }
+
+            accumulateBlock(n, maxLag, out);
+        }
+        return out;
+    }
+
+    /**
+     * Largest stretch accepted by accumulate() for the given lag window
+     */
+    public static int blockLength(int maxLag) {
+        return FFT.nextPowerOfTwo(TARGET_BLOCK_SAMPLES + maxLag * 2) - maxLag * 2;
+    }
+
+    /**
+     * Adds one stretch of a streamed correlation into out:
+     * out[maxLag + d] += sum_t x[t] * y[t + maxLag + d] for t in [0, length) and |d| <= maxLag.
+     * y therefore holds the samples from maxLag before x[0] to maxLag after x[length - 1],
+     * with any samples outside the signal already zeroed by the caller.
+     * @param x Stretch of the first signal, length <= blockLength(maxLag)
+     * @param y Matching stretch of the second signal, at least length + 2 * maxLag samples
+     * @param length Number of samples of x to use
+     * @param maxLag Largest lag (in samples) to evaluate
+     * @param out Running sums indexed by lag + maxLag
+     */
+    public void accumulate(float[] x, float[] y, int length, int maxLag, double[] out) {
+        if (length > blockLength(maxLag)) {
+            throw new IllegalArgumentException("Stretch longer than one block: " + length);
+        }
+        int n = prepare(TARGET_BLOCK_SAMPLES, maxLag);
+        int yLen = length + maxLag * 2;
+        for (int t = 0; t < n; t++) {
+            re[t] = t < length ? x[t] : 0.0;
+            im[t] = t < yLen ? y[t] : 0.0;
+        }
+        accumulateBlock(n, maxLag, out);
+    }
+
+    // Picks the block FFT size and makes sure tables and scratch buffers fit it
+    private int prepare(int length, int maxLag) {
+        int n = FFT.nextPowerOfTwo(Math.min(length, TARGET_BLOCK_SAMPLES) + maxLag * 2);
+        if (fft == null || fft.getSize() != n) {
+            fft = FFT.forSize(n);
+        }
+        if (re.length < n) {
+            re = new double[n];
+            im = new double[n];
+        }
+        return n;
+    }
+
+    // Correlates the packed block in re/im and adds lags -maxLag..maxLag into out
+    private void accumulateBlock(int n, int maxLag, double[] out) {
+        fft.forward(re, im);
+
+        // Unpack X (real input) and Y (imaginary input) and form conj(X) * Y.
+        // The product is Hermitian, so bins k and n-k are handled together.
+        for (int k = 0; k <= n / 2; k++) {
+            int nk = (n - k) & (n - 1);
+            double zrk = re[k], zik = im[k];
+            double zrn = re[nk], zin = im[nk];
+
+            double xr = (zrk + zrn) * 0.5;
+            double xi = (zik - zin) * 0.5;
+            double yr = (zik + zin) * 0.5;
+            double yi = (zrn - zrk) * 0.5;
+
+            double pr = xr * yr + xi * yi;
+            double pi = xr * yi - xi * yr;
+            re[k] = pr;
+            im[k] = pi;
+            re[nk] = pr;
+            im[nk] = -pi;
+        }
+
+        fft.inverse(re, im);
+
+        // Circular index e = d + maxLag never wraps because n >= block + 2 * maxLag
+        for (int e = 0; e <= maxLag * 2; e++) {
+            out[e] += re[e];
+        }
+    }
+}
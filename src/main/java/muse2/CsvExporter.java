@@ -1,32 +1,155 @@
 package muse2;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
 
+/**
+ * Writes batch results as CSV.
+ *
+ * Rows are formatted into a StringBuilder with a fixed-point formatter that produces
+ * the same text as String.format("%.3f") and written through a large buffer. Appends
+ * are thread-safe: workers can format their rows into a Batch without holding any lock
+ * and hand it over with append(batch), which writes the rows together.
+ */
 public class CsvExporter implements AutoCloseable {
-    private FileWriter writer;
+    private static final Metrics.Timer WRITE_TIMER = Metrics.timer(Metrics.CSV_WRITE);
+    private static final Metrics.Counter ROWS = Metrics.counter(Metrics.CSV_ROWS);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L};
+    // Scaled values up to this are formatted directly; larger ones go through String.format
+    private static final double FAST_LIMIT = 1e9;
+
+    private final Writer writer;
+    private final StringBuilder row = new StringBuilder(160);
     private boolean headerWritten = false;
 
     public CsvExporter(String filename) throws IOException {
-        writer = new FileWriter(filename, false); // overwrite
+        writer = new BufferedWriter(new FileWriter(filename, false), BUFFER_SIZE); // overwrite
     }
 
-    public void writeHeader() throws IOException {
+    public synchronized void writeHeader() throws IOException {
         if (!headerWritten) {
             writer.write("filename,shift_amount_hz,original_itd,original_ild,shifted_itd,shifted_ild,itd_change,ild_change\n");
             headerWritten = true;
         }
     }
 
-    public void appendRow(String filename, float shiftAmountHz, double originalItd, double originalIld, double shiftedItd, double shiftedIld) throws IOException {
-        double itdChange = shiftedItd - originalItd;
-        double ildChange = shiftedIld - originalIld;
-        writer.write(String.format("%s,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n",
-                filename, shiftAmountHz, originalItd, originalIld, shiftedItd, shiftedIld, itdChange, ildChange));
+    public synchronized void appendRow(String filename, float shiftAmountHz, double originalItd, double originalIld, double shiftedItd, double shiftedIld) throws IOException {
+        long start = WRITE_TIMER.start();
+        row.setLength(0);
+        formatRow(row, filename, shiftAmountHz, originalItd, originalIld, shiftedItd, shiftedIld);
+        writer.append(row);
+        WRITE_TIMER.stop(start);
+        ROWS.increment();
+    }
+
+    /**
+     * Writes every row of a batch, keeping them together and in order
+     */
+    public synchronized void append(Batch batch) throws IOException {
+        long start = WRITE_TIMER.start();
+        writer.append(batch.rows);
+        WRITE_TIMER.stop(start);
+        ROWS.add(batch.count);
+    }
+
+    /**
+     * Writes a row exactly as given, e.g. one carried over from an earlier results file
+     */
+    public synchronized void appendRawRow(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+        ROWS.increment();
+    }
+
+    public synchronized void flush() throws IOException {
+        writer.flush();
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         writer.close();
     }
-} 
\ No newline at end of file
+
+    /**
+     * Rows formatted ahead of writing, e.g. on a worker thread. Not thread-safe itself.
+     */
+    public static class Batch {
+        private final StringBuilder rows = new StringBuilder(512);
+        private int count = 0;
+
+        public void add(String filename, float shiftAmountHz, double originalItd, double originalIld, double shiftedItd, double shiftedIld) {
+            formatRow(rows, filename, shiftAmountHz, originalItd, originalIld, shiftedItd, shiftedIld);
+            count++;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public void clear() {
+            rows.setLength(0);
+            count = 0;
+        }
+    }
+
+    // "%s,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n"
+    private static void formatRow(StringBuilder out, String filename, float shiftAmountHz, double originalItd, double originalIld, double shiftedItd, double shiftedIld) {
+        double itdChange = shiftedItd - originalItd;
+        double ildChange = shiftedIld - originalIld;
+        out.append(filename).append(',');
+        appendFixed(out, shiftAmountHz, 1);
+        out.append(',');
+        appendFixed(out, originalItd, 3);
+        out.append(',');
+        appendFixed(out, originalIld, 3);
+        out.append(',');
+        appendFixed(out, shiftedItd, 3);
+        out.append(',');
+        appendFixed(out, shiftedIld, 3);
+        out.append(',');
+        appendFixed(out, itdChange, 3);
+        out.append(',');
+        appendFixed(out, ildChange, 3);
+        out.append('\n');
+    }
+
+    /**
+     * Appends value with the given number of decimals (at most 6), exactly as
+     * String.format("%.Nf") would. Formatter rounds the shortest decimal representation
+     * half up, so values whose scaled fraction is close to one half, and very large
+     * values, are passed to String.format itself.
+     */
+    static void appendFixed(StringBuilder out, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(Double.isNaN(value) ? "NaN" : value > 0 ? "Infinity" : "-Infinity");
+            return;
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = Math.abs(value) * scale;
+        double whole = Math.floor(scaled);
+        double fraction = scaled - whole;
+        if (scaled >= FAST_LIMIT || Math.abs(fraction - 0.5) < 1e-6) {
+            out.append(String.format(Locale.ROOT, "%." + decimals + "f", value));
+            return;
+        }
+        long digits = (long) whole + (fraction > 0.5 ? 1 : 0);
+        // Negative values keep their sign even when they round to zero, as in Formatter
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            out.append('-');
+        }
+        out.append(digits / scale);
+        if (decimals > 0) {
+            out.append('.');
+            long rest = digits % scale;
+            for (long p = scale / 10; p > rest && p > 1; p /= 10) {
+                out.append('0');
+            }
+            out.append(rest);
+        }
+    }
+}
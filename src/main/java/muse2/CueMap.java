@@ -0,0 +1,89 @@
+package muse2;
+
+import java.util.Arrays;
+
+/**
+ * ITD and ILD per analysis frame and frequency band, as produced by CueMapAnalyzer.
+ * Values are stored frame-major in float arrays. A frame/band cell with no usable
+ * signal in one or both ears holds NaN for the cues it cannot measure.
+ */
+public class CueMap {
+    private final int sampleRate;
+    private final int frameSize;
+    private final int hopSize;
+    private final int frameCount;
+    private final float[] bandLowHz;
+    private final float[] bandHighHz;
+    private final float[] itdMicroseconds;
+    private final float[] ildDecibels;
+
+    CueMap(int sampleRate, int frameSize, int hopSize, int frameCount, float[] bandLowHz, float[] bandHighHz) {
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.frameCount = frameCount;
+        this.bandLowHz = bandLowHz;
+        this.bandHighHz = bandHighHz;
+        this.itdMicroseconds = new float[frameCount * bandLowHz.length];
+        this.ildDecibels = new float[frameCount * bandLowHz.length];
+    }
+
+    void set(int frame, int band, double itd, double ild) {
+        int i = frame * bandLowHz.length + band;
+        itdMicroseconds[i] = (float) itd;
+        ildDecibels[i] = (float) ild;
+    }
+
+    public int getSampleRate() { return sampleRate; }
+    public int getFrameSize() { return frameSize; }
+    public int getHopSize() { return hopSize; }
+    public int getFrameCount() { return frameCount; }
+    public int getBandCount() { return bandLowHz.length; }
+    public float getBandLowHz(int band) { return bandLowHz[band]; }
+    public float getBandHighHz(int band) { return bandHighHz[band]; }
+
+    /** Geometric centre of a band */
+    public double getBandCenterHz(int band) {
+        return Math.sqrt((double) bandLowHz[band] * bandHighHz[band]);
+    }
+
+    /** Time of the centre of a frame, in seconds from the start of the signal */
+    public double getFrameTimeSeconds(int frame) {
+        return (frame * (double) hopSize + frameSize / 2.0) / sampleRate;
+    }
+
+    public double getItdMicroseconds(int frame, int band) {
+        return itdMicroseconds[frame * bandLowHz.length + band];
+    }
+
+    public double getIldDecibels(int frame, int band) {
+        return ildDecibels[frame * bandLowHz.length + band];
+    }
+
+    public SpatialCueAnalyzer.SpatialCues getCues(int frame, int band) {
+        return new SpatialCueAnalyzer.SpatialCues(getItdMicroseconds(frame, band), getIldDecibels(frame, band));
+    }
+
+    /**
+     * Median cues of one band over all frames where they could be measured;
+     * NaN when no frame in the band had a usable signal
+     */
+    public SpatialCueAnalyzer.SpatialCues getBandMedian(int band) {
+        float[] itd = new float[frameCount];
+        float[] ild = new float[frameCount];
+        int itdCount = 0;
+        int ildCount = 0;
+        for (int f = 0; f < frameCount; f++) {
+            int i = f * bandLowHz.length + band;
+            if (!Float.isNaN(itdMicroseconds[i])) itd[itdCount++] = itdMicroseconds[i];
+            if (!Float.isNaN(ildDecibels[i])) ild[ildCount++] = ildDecibels[i];
+        }
+        return new SpatialCueAnalyzer.SpatialCues(median(itd, itdCount), median(ild, ildCount));
+    }
+
+    private static double median(float[] values, int count) {
+        if (count == 0) return Double.NaN;
+        Arrays.sort(values, 0, count);
+        return count % 2 == 1 ? values[count / 2] : (values[count / 2 - 1] + values[count / 2]) / 2.0;
+    }
+}
@@ -0,0 +1,210 @@
+package muse2;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Short-time, per-band ITD/ILD analysis.
+ * Each Hann-windowed frame of both ears is transformed once. The spectra are then
+ * shared by every critical band: a band's ILD comes from its energy in each ear, and
+ * its ITD from the peak of the band-limited cross-correlation (inverse FFT of the
+ * cross-spectrum restricted to the band), refined with the same parabolic
+ * interpolation as SpatialCueAnalyzer.
+ *
+ * Frames are processed in chunks so memory stays bounded on long files; within a
+ * chunk the bands run in parallel.
+ */
+public class CueMapAnalyzer {
+    public static final int DEFAULT_FRAME_SIZE = 2048;
+    public static final int DEFAULT_HOP_SIZE = 1024;
+
+    // Critical band edges (Zwicker), in Hz
+    private static final float[] BARK_EDGES_HZ = {
+        20, 100, 200, 300, 400, 510, 630, 770, 920, 1080, 1270, 1480, 1720,
+        2000, 2320, 2700, 3150, 3700, 4400, 5300, 6400, 7700, 9500, 12000, 15500
+    };
+
+    // Frames whose spectra are held at once
+    private static final int CHUNK_FRAMES = 64;
+    // Band RMS below this, or this far below the whole frame, is treated as silence;
+    // the relative floor keeps window leakage from tonal input out of empty bands
+    private static final double SILENCE_RMS = 0.000001;
+    private static final double RELATIVE_FLOOR = 0.001;
+
+    private final int frameSize;
+    private final int hopSize;
+    private final int fftSize;
+    private final FFT fft;
+    private final boolean parallel;
+    private final float[] window;
+    private final ThreadLocal<BandScratch> scratch;
+
+    public CueMapAnalyzer() {
+        this(DEFAULT_FRAME_SIZE, DEFAULT_HOP_SIZE, true);
+    }
+
+    /**
+     * @param frameSize Analysis frame length in samples
+     * @param hopSize Frame advance in samples
+     * @param parallel Whether bands are analysed on the common fork/join pool
+     */
+    public CueMapAnalyzer(int frameSize, int hopSize, boolean parallel) {
+        if (frameSize <= SpatialCueAnalyzer.MAX_LAG_SAMPLES * 2 || hopSize < 1) {
+            throw new IllegalArgumentException("Invalid frame/hop: " + frameSize + "/" + hopSize);
+        }
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        // Zero padding to twice the frame keeps the correlation linear over all lags
+        this.fftSize = FFT.nextPowerOfTwo(frameSize * 2);
+        this.fft = FFT.forSize(fftSize);
+        this.parallel = parallel;
+        this.window = new float[frameSize];
+        for (int i = 0; i < frameSize; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / frameSize));
+        }
+        this.scratch = ThreadLocal.withInitial(() -> new BandScratch(fftSize));
+    }
+
+    /**
+     * Computes the cue map of a stereo signal
+     * @param left Left channel audio data
+     * @param right Right channel audio data
+     * @param sampleRate Sample rate in Hz
+     */
+    public CueMap analyze(float[] left, float[] right, int sampleRate) {
+        int length = Math.min(left.length, right.length);
+        // The last frame is zero-padded so every sample is covered
+        int frameCount = length == 0 ? 0 : 1 + Math.max(0, (length - frameSize + hopSize - 1) / hopSize);
+
+        int bins = fftSize / 2 + 1;
+        double binHz = (double) sampleRate / fftSize;
+        int bandCount = 0;
+        while (bandCount + 1 < BARK_EDGES_HZ.length && BARK_EDGES_HZ[bandCount + 1] <= sampleRate / 2.0) {
+            bandCount++;
+        }
+        float[] lowHz = new float[bandCount];
+        float[] highHz = new float[bandCount];
+        int[] firstBin = new int[bandCount];
+        int[] endBin = new int[bandCount];
+        for (int b = 0; b < bandCount; b++) {
+            lowHz[b] = BARK_EDGES_HZ[b];
+            highHz[b] = BARK_EDGES_HZ[b + 1];
+            firstBin[b] = (int) Math.ceil(lowHz[b] / binHz);
+            endBin[b] = Math.min(bins, (int) Math.ceil(highHz[b] / binHz));
+        }
+
+        CueMap map = new CueMap(sampleRate, frameSize, hopSize, frameCount, lowHz, highHz);
+        Spectra spectra = new Spectra(Math.min(CHUNK_FRAMES, frameCount), bins);
+        float[] frame = new float[frameSize];
+        double[] re = new double[fftSize];
+        double[] im = new double[fftSize];
+
+        for (int chunkStart = 0; chunkStart < frameCount; chunkStart += CHUNK_FRAMES) {
+            int chunkFrames = Math.min(CHUNK_FRAMES, frameCount - chunkStart);
+            for (int f = 0; f < chunkFrames; f++) {
+                int start = (chunkStart + f) * hopSize;
+                double leftRMS = transform(left, start, length, frame, re, im, spectra.leftRe[f], spectra.leftIm[f]);
+                double rightRMS = transform(right, start, length, frame, re, im, spectra.rightRe[f], spectra.rightIm[f]);
+                spectra.floor[f] = Math.max(SILENCE_RMS, Math.max(leftRMS, rightRMS) * RELATIVE_FLOOR);
+            }
+            final int first = chunkStart;
+            IntStream bands = IntStream.range(0, bandCount);
+            if (parallel) bands = bands.parallel();
+            bands.forEach(b -> analyzeBand(spectra, first, chunkFrames, b, firstBin[b], endBin[b], map));
+        }
+        return map;
+    }
+
+    // Windowed, zero-padded spectrum of one frame, bins 0..fftSize/2; returns the windowed RMS
+    private double transform(float[] signal, int start, int length, float[] frame,
+                           double[] re, double[] im, double[] outRe, double[] outIm) {
+        int n = Math.max(0, Math.min(frameSize, length - start));
+        for (int i = 0; i < n; i++) {
+            frame[i] = signal[start + i] * window[i];
+        }
+        for (int i = n; i < frameSize; i++) {
+            frame[i] = 0.0f;
+        }
+        fft.realForward(frame, frameSize, re, im);
+        System.arraycopy(re, 0, outRe, 0, outRe.length);
+        System.arraycopy(im, 0, outIm, 0, outIm.length);
+        return Math.sqrt(SignalKernels.sumOfSquares(frame, 0, frameSize) / frameSize);
+    }
+
+    private void analyzeBand(Spectra spectra, int firstFrame, int frames, int band, int lo, int hi, CueMap map) {
+        BandScratch s = scratch.get();
+        int maxLag = SpatialCueAnalyzer.MAX_LAG_SAMPLES;
+        int half = fftSize / 2;
+
+        for (int f = 0; f < frames; f++) {
+            double[] lr = spectra.leftRe[f], li = spectra.leftIm[f];
+            double[] rr = spectra.rightRe[f], ri = spectra.rightIm[f];
+
+            // Band energy via Parseval; interior bins stand for their mirror image too
+            double leftEnergy = 0.0, rightEnergy = 0.0;
+            for (int k = lo; k < hi; k++) {
+                double weight = (k == 0 || k == half) ? 1.0 : 2.0;
+                leftEnergy += weight * (lr[k] * lr[k] + li[k] * li[k]);
+                rightEnergy += weight * (rr[k] * rr[k] + ri[k] * ri[k]);
+            }
+            double leftRMS = Math.sqrt(leftEnergy / ((double) fftSize * frameSize));
+            double rightRMS = Math.sqrt(rightEnergy / ((double) fftSize * frameSize));
+
+            double ild = Double.NaN;
+            double itd = Double.NaN;
+            double floor = spectra.floor[f];
+            if (leftRMS >= floor || rightRMS >= floor) {
+                ild = SpatialCueAnalyzer.ildFromRms(leftRMS, rightRMS);
+            }
+            if (leftRMS >= floor && rightRMS >= floor) {
+                // Band-limited cross-spectrum conj(L) * R gives sum l[i] * r[i + d] at index d
+                Arrays.fill(s.re, 0, half + 1, 0.0);
+                Arrays.fill(s.im, 0, half + 1, 0.0);
+                for (int k = lo; k < hi; k++) {
+                    s.re[k] = lr[k] * rr[k] + li[k] * ri[k];
+                    s.im[k] = lr[k] * ri[k] - li[k] * rr[k];
+                }
+                fft.realInverse(s.re, s.im, s.out);
+                for (int d = -maxLag; d <= maxLag; d++) {
+                    s.correlation[maxLag + d] = s.out[(d + fftSize) % fftSize];
+                }
+                int peak = SpatialCueAnalyzer.peakIndex(s.correlation);
+                double delay = peak - maxLag;
+                if (peak > 0 && peak < s.correlation.length - 1) {
+                    delay += SpatialCueAnalyzer.parabolicOffset(s.correlation, peak);
+                }
+                itd = delay * 1000000.0 / map.getSampleRate();
+            }
+            map.set(firstFrame + f, band, itd, ild);
+        }
+    }
+
+    // Spectra of one chunk of frames for both ears
+    private static class Spectra {
+        final double[][] leftRe, leftIm, rightRe, rightIm;
+        // Silence threshold per frame
+        final double[] floor;
+
+        Spectra(int frames, int bins) {
+            floor = new double[frames];
+            leftRe = new double[frames][bins];
+            leftIm = new double[frames][bins];
+            rightRe = new double[frames][bins];
+            rightIm = new double[frames][bins];
+        }
+    }
+
+    // Per-thread buffers for the band inverse transforms
+    private static class BandScratch {
+        final double[] re;
+        final double[] im;
+        final float[] out;
+        final double[] correlation = new double[SpatialCueAnalyzer.MAX_LAG_SAMPLES * 2 + 1];
+
+        BandScratch(int fftSize) {
+            re = new double[fftSize];
+            im = new double[fftSize];
+            out = new float[fftSize];
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package muse2;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Complex and real-input FFT for any size.
+ *
+ * Power-of-two sizes use an iterative radix-2 transform with precomputed twiddle
+ * and bit-reversal tables. Other sizes use Bluestein's chirp-z algorithm on top of
+ * a power-of-two transform. Plans are cached per size by forSize(), and a plan keeps
+ * no per-call state apart from thread-local Bluestein scratch, so one plan can be
+ * shared between threads.
+ */
+public final class FFT {
+    private static final ConcurrentMap<Integer, FFT> PLANS = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final boolean powerOfTwo;
+
+    // Twiddle tables (all sizes) and bit-reversal table (radix-2 only)
+    private final double[] cosTable;
+    private final double[] sinTable;
+    private final int[] bitReverse;
+
+    // Bluestein tables: chirp e^(-i*pi*k^2/size) and the transformed convolution kernel
+    private final FFT convolution;
+    private final double[] chirpRe;
+    private final double[] chirpIm;
+    private final double[] kernelRe;
+    private final double[] kernelIm;
+    private final ThreadLocal<double[][]> scratch;
+
+    // Half-size plan used by the real-input transform, created on first use
+    private volatile FFT half;
+
+    public FFT(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("FFT size must be positive: " + size);
+        }
+        this.size = size;
+        this.powerOfTwo = (size & (size - 1)) == 0;
+
+        // Twiddle factors e^(-2*pi*i*k/size) for the first half of the circle
+        cosTable = new double[size / 2];
+        sinTable = new double[size / 2];
+        for (int k = 0; k < size / 2; k++) {
+            double angle = 2 * Math.PI * k / size;
+            cosTable[k] = Math.cos(angle);
+            sinTable[k] = Math.sin(angle);
+        }
+
+        if (powerOfTwo) {
+            // Bit-reversal permutation
+            bitReverse = new int[size];
+            int bits = Integer.numberOfTrailingZeros(size);
+            for (int i = 0; i < size; i++) {
+                bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+            }
+
+            convolution = null;
+            chirpRe = chirpIm = kernelRe = kernelIm = null;
+            scratch = null;
+        } else {
+            bitReverse = null;
+
+            int m = nextPowerOfTwo(size * 2 - 1);
+            convolution = forSize(m);
+
+            chirpRe = new double[size];
+            chirpIm = new double[size];
+            for (int k = 0; k < size; k++) {
+                // k^2 mod 2*size keeps the angle small and precise for large k
+                long k2 = ((long) k * k) % (2L * size);
+                double angle = Math.PI * k2 / size;
+                chirpRe[k] = Math.cos(angle);
+                chirpIm[k] = -Math.sin(angle);
+            }
+
+            // Kernel b[j] = conj(chirp[|j|]), wrapped for negative j
+            kernelRe = new double[m];
+            kernelIm = new double[m];
+            kernelRe[0] = chirpRe[0];
+            kernelIm[0] = -chirpIm[0];
+            for (int k = 1; k < size; k++) {
+                kernelRe[k] = kernelRe[m - k] = chirpRe[k];
+                kernelIm[k] = kernelIm[m - k] = -chirpIm[k];
+            }
+            convolution.forward(kernelRe, kernelIm);
+
+            scratch = ThreadLocal.withInitial(() -> new double[2][m]);
+        }
+    }
+
+    /**
+     * Cached plan for the given size
+     */
+    public static FFT forSize(int size) {
+        FFT plan = PLANS.get(size);
+        if (plan == null) {
+            // Not computeIfAbsent: building a Bluestein plan looks up its power-of-two plan
+            plan = new FFT(size);
+            FFT existing = PLANS.putIfAbsent(size, plan);
+            if (existing != null) plan = existing;
+        }
+        return plan;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * In-place forward transform
+     * @param re Real parts, length >= size
+     * @param im Imaginary parts, length >= size
+     */
+    public void forward(double[] re, double[] im) {
+        if (powerOfTwo) {
+            radix2(re, im, false);
+        } else {
+            bluestein(re, im);
+        }
+    }
+
+    /**
+     * In-place inverse transform, scaled by 1/size so that inverse(forward(x)) == x
+     * @param re Real parts, length >= size
+     * @param im Imaginary parts, length >= size
+     */
+    public void inverse(double[] re, double[] im) {
+        if (powerOfTwo) {
+            radix2(re, im, true);
+        } else {
+            // inverse(x) = conj(forward(conj(x)))
+            for (int i = 0; i < size; i++) im[i] = -im[i];
+            bluestein(re, im);
+            for (int i = 0; i < size; i++) im[i] = -im[i];
+        }
+        double scale = 1.0 / size;
+        for (int i = 0; i < size; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    /**
+     * Forward transform of a real signal, returning bins 0..size/2.
+     * Even sizes run a half-size complex transform; odd sizes fall back to a full one.
+     * @param input Real samples; samples past count (up to size) are taken as zero
+     * @param count Number of input samples to use
+     * @param re Receives real parts of bins 0..size/2, length >= size/2 + 1 (size for odd sizes)
+     * @param im Receives imaginary parts, same length as re
+     */
+    public void realForward(float[] input, int count, double[] re, double[] im) {
+        int n = Math.min(count, size);
+        if (size % 2 != 0) {
+            for (int i = 0; i < size; i++) {
+                re[i] = i < n ? input[i] : 0.0;
+                im[i] = 0.0;
+            }
+            forward(re, im);
+            return;
+        }
+
+        // Pack even samples into the real part and odd samples into the imaginary part
+        int h = size / 2;
+        for (int k = 0; k < h; k++) {
+            int e = 2 * k;
+            re[k] = e < n ? input[e] : 0.0;
+            im[k] = e + 1 < n ? input[e + 1] : 0.0;
+        }
+        halfPlan().forward(re, im);
+        unpackReal(re, im, h);
+    }
+
+    /**
+     * Inverse of realForward: rebuilds size real samples from bins 0..size/2.
+     * The spectrum arrays are used as scratch and overwritten.
+     * @param re Real parts of bins 0..size/2 (length >= size for odd sizes)
+     * @param im Imaginary parts of bins 0..size/2 (same length as re)
+     * @param output Receives size samples
+     */
+    public void realInverse(double[] re, double[] im, float[] output) {
+        if (size % 2 != 0) {
+            // Mirror the spectrum and run a full complex inverse
+            for (int k = 1; k <= size / 2; k++) {
+                re[size - k] = re[k];
+                im[size - k] = -im[k];
+            }
+            im[0] = 0.0;
+            inverse(re, im);
+            for (int i = 0; i < size; i++) output[i] = (float) re[i];
+            return;
+        }
+
+        int h = size / 2;
+        packReal(re, im, h);
+        halfPlan().inverse(re, im);
+        for (int k = 0; k < h; k++) {
+            output[2 * k] = (float) re[k];
+            output[2 * k + 1] = (float) im[k];
+        }
+    }
+
+    /**
+     * Smallest power of two >= n
+     */
+    public static int nextPowerOfTwo(int n) {
+        if (n <= 1) return 1;
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private FFT halfPlan() {
+        FFT plan = half;
+        if (plan == null) {
+            plan = forSize(size / 2);
+            half = plan;
+        }
+        return plan;
+    }
+
+    // Splits the half-size transform Z of packed (even, odd) samples into bins 0..h of X.
+    // With E = (Z[k] + conj Z[h-k]) / 2 and O = (Z[k] - conj Z[h-k]) / 2i,
+    // X[k] = E + W^k O and X[h-k] = conj(E - W^k O), W = e^(-2*pi*i/size).
+    private void unpackReal(double[] re, double[] im, int h) {
+        double z0r = re[0], z0i = im[0];
+        re[0] = z0r + z0i;
+        im[0] = 0.0;
+        re[h] = z0r - z0i;
+        im[h] = 0.0;
+
+        for (int k = 1; k <= h / 2; k++) {
+            int m = h - k;
+            double zkr = re[k], zki = im[k];
+            double zmr = re[m], zmi = im[m];
+
+            double er = (zkr + zmr) * 0.5;
+            double ei = (zki - zmi) * 0.5;
+            double or = (zki + zmi) * 0.5;
+            double oi = (zmr - zkr) * 0.5;
+
+            double c = cosTable[k];
+            double s = sinTable[k];
+            double wor = c * or + s * oi;
+            double woi = c * oi - s * or;
+
+            re[k] = er + wor;
+            im[k] = ei + woi;
+            re[m] = er - wor;
+            im[m] = -(ei - woi);
+        }
+    }
+
+    // Reverse of unpackReal: E = (X[k] + conj X[h-k]) / 2, O = W^-k (X[k] - conj X[h-k]) / 2,
+    // Z[k] = E + i O
+    private void packReal(double[] re, double[] im, int h) {
+        double x0 = re[0], xh = re[h];
+        re[0] = (x0 + xh) * 0.5;
+        im[0] = (x0 - xh) * 0.5;
+
+        for (int k = 1; k <= h / 2; k++) {
+            int m = h - k;
+            double xkr = re[k], xki = im[k];
+            double xmr = re[m], xmi = im[m];
+
+            double er = (xkr + xmr) * 0.5;
+            double ei = (xki - xmi) * 0.5;
+            double dr = (xkr - xmr) * 0.5;
+            double di = (xki + xmi) * 0.5;
+
+            double c = cosTable[k];
+            double s = sinTable[k];
+            // O = conj(W^k) * D, conj(W^k) = (c, s)
+            double or = c * dr - s * di;
+            double oi = c * di + s * dr;
+
+            // Z[k] = E + iO, Z[h-k] = conj(E) + i conj(O)
+            re[k] = er - oi;
+            im[k] = ei + or;
+            re[m] = er + oi;
+            im[m] = -ei + or;
+        }
+    }
+
+    private void radix2(double[] re, double[] im, boolean inverse) {
+        int n = size;
+        for (int i = 0; i < n; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                double tr = re[i]; re[i] = re[j]; re[j] = tr;
+                double ti = im[i]; im[i] = im[j]; im[j] = ti;
+            }
+        }
+
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            for (int i = 0; i < n; i += len) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cosTable[k * step];
+                    double wi = inverse ? sinTable[k * step] : -sinTable[k * step];
+                    int a = i + k;
+                    int b = a + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    // X[k] = chirp[k] * sum_j (x[j] * chirp[j]) * conj(chirp[k - j]), as a power-of-two convolution
+    private void bluestein(double[] re, double[] im) {
+        int m = convolution.getSize();
+        double[][] buffers = scratch.get();
+        double[] ar = buffers[0];
+        double[] ai = buffers[1];
+
+        for (int j = 0; j < size; j++) {
+            ar[j] = re[j] * chirpRe[j] - im[j] * chirpIm[j];
+            ai[j] = re[j] * chirpIm[j] + im[j] * chirpRe[j];
+        }
+        for (int j = size; j < m; j++) {
+            ar[j] = 0.0;
+            ai[j] = 0.0;
+        }
+
+        convolution.forward(ar, ai);
+        for (int k = 0; k < m; k++) {
+            double r = ar[k] * kernelRe[k] - ai[k] * kernelIm[k];
+            double i = ar[k] * kernelIm[k] + ai[k] * kernelRe[k];
+            ar[k] = r;
+            ai[k] = i;
+        }
+        convolution.inverse(ar, ai);
+
+        for (int k = 0; k < size; k++) {
+            re[k] = ar[k] * chirpRe[k] - ai[k] * chirpIm[k];
+            im[k] = ar[k] * chirpIm[k] + ai[k] * chirpRe[k];
+        }
+    }
+}
@@ -1,41 +1,311 @@
 package muse2;
 
-import be.tarsos.dsp.AudioEvent;
-import be.tarsos.dsp.AudioProcessor;
-import be.tarsos.dsp.io.TarsosDSPAudioFormat;
-import be.tarsos.dsp.pitch.PitchShifter;
+import java.util.Arrays;
 
+/**
+ * Streaming frequency lowering with a phase vocoder.
+ * Frames of FRAME_SIZE samples are analysed every HOP samples (4x overlap) with a Hann
+ * window, their partials are moved down by the pitch ratio and the resynthesised frames
+ * are overlap-added. Left and right share the frame clock, so both ears stay aligned.
+ *
+ * A shifter can produce several shift amounts at once: each frame is analysed once and
+ * only the partial mapping and synthesis are repeated per target.
+ *
+ * All state is allocated in the constructor; process() can be fed blocks of any size
+ * and never allocates. Output lags input by getLatency() samples.
+ * Not thread-safe; use one shifter per stream.
+ */
 public class FrequencyShifter {
+    public static final int FRAME_SIZE = 1024;
+    public static final int OVERSAMPLING = 4;
+    public static final int HOP = FRAME_SIZE / OVERSAMPLING;
+    private static final int HISTORY = FRAME_SIZE - HOP;
+
+    // Reference frequency for the shift-to-ratio conversion; shifts must stay below it
+    static final float CENTER_FREQ = 1000.0f;
+
+    private static final Metrics.Timer SHIFT_TIMER = Metrics.timer(Metrics.SHIFT_BLOCK);
+    private static final Metrics.Counter SHIFTED_FRAMES = Metrics.counter(Metrics.FRAMES_SHIFTED);
+
+    private final double[] ratios;
+    private final FFT fft = FFT.forSize(FRAME_SIZE);
+    private final float[] window = new float[FRAME_SIZE];
+    private final float outputGain;
+    private final double expectedPhase = 2.0 * Math.PI * HOP / FRAME_SIZE;
+
+    private final Channel left;
+    private final Channel right;
+
+    // Shared per-frame scratch
+    private final float[] frame = new float[FRAME_SIZE];
+    private final double[] re = new double[FRAME_SIZE];
+    private final double[] im = new double[FRAME_SIZE];
+    private final double[] magnitudes = new double[FRAME_SIZE / 2 + 1];
+    private final double[] frequencies = new double[FRAME_SIZE / 2 + 1];
+    private final double[] shiftedMagnitudes = new double[FRAME_SIZE / 2 + 1];
+    private final double[] shiftedFrequencies = new double[FRAME_SIZE / 2 + 1];
+
+    // Single-target process() reuses these instead of allocating wrappers
+    private final float[][] singleLeft = new float[1][];
+    private final float[][] singleRight = new float[1][];
+
+    // Position in the current frame; the first HISTORY samples repeat the previous frame
+    private int fill = HISTORY;
+
+    /**
+     * @param shiftAmountHz Amount to lower frequencies, relative to 1 kHz
+     */
+    public FrequencyShifter(float shiftAmountHz) {
+        this(new float[] {shiftAmountHz});
+    }
+
+    /**
+     * @param shiftAmountsHz Shift targets produced together, each relative to 1 kHz
+     */
+    public FrequencyShifter(float[] shiftAmountsHz) {
+        if (shiftAmountsHz.length == 0) {
+            throw new IllegalArgumentException("At least one shift amount is required");
+        }
+        ratios = new double[shiftAmountsHz.length];
+        for (int t = 0; t < ratios.length; t++) {
+            ratios[t] = (CENTER_FREQ - shiftAmountsHz[t]) / CENTER_FREQ;
+            if (ratios[t] <= 0) {
+                throw new IllegalArgumentException("Shift must be below " + CENTER_FREQ + " Hz: " + shiftAmountsHz[t]);
+            }
+        }
+        left = new Channel(ratios.length);
+        right = new Channel(ratios.length);
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / FRAME_SIZE));
+        }
+        // Analysis and synthesis windows overlap-add to a constant; divide it out
+        double overlap = 0.0;
+        for (int i = 0; i < FRAME_SIZE; i += HOP) {
+            overlap += window[i] * window[i];
+        }
+        outputGain = (float) (1.0 / overlap);
+    }
+
+    /** Number of shift targets */
+    public int getTargetCount() {
+        return ratios.length;
+    }
+
+    /** Delay in samples between an input sample and its shifted output */
+    public int getLatency() {
+        // A sample leaves the accumulator one full frame after it entered
+        return FRAME_SIZE;
+    }
+
+    /**
+     * Shifts the next block of a stereo stream
+     * @param inLeft Left input
+     * @param inRight Right input
+     * @param inOffset First input frame
+     * @param length Number of frames
+     * @param outLeft Left output, written from outOffset
+     * @param outRight Right output, written from outOffset
+     * @param outOffset First output frame
+     */
+    public void process(float[] inLeft, float[] inRight, int inOffset, int length,
+                        float[] outLeft, float[] outRight, int outOffset) {
+        if (ratios.length != 1) {
+            throw new IllegalStateException("Shifter has " + ratios.length + " targets");
+        }
+        singleLeft[0] = outLeft;
+        singleRight[0] = outRight;
+        process(inLeft, inRight, inOffset, length, singleLeft, singleRight, outOffset);
+        singleLeft[0] = null;
+        singleRight[0] = null;
+    }
+
+    /**
+     * Shifts the next block of a stereo stream to every target
+     * @param outLeft Left output per target, written from outOffset
+     * @param outRight Right output per target, written from outOffset
+     */
+    public void process(float[] inLeft, float[] inRight, int inOffset, int length,
+                        float[][] outLeft, float[][] outRight, int outOffset) {
+        long start = SHIFT_TIMER.start();
+        int done = 0;
+        while (done < length) {
+            int n = Math.min(length - done, FRAME_SIZE - fill);
+            left.exchange(inLeft, inOffset + done, outLeft, outOffset + done, fill, n);
+            right.exchange(inRight, inOffset + done, outRight, outOffset + done, fill, n);
+            fill += n;
+            done += n;
+            if (fill == FRAME_SIZE) {
+                processFrame(left);
+                processFrame(right);
+                fill = HISTORY;
+            }
+        }
+        SHIFT_TIMER.stop(start);
+        SHIFTED_FRAMES.add(length);
+    }
+
+    /** Clears all history so the shifter can start a new stream */
+    public void reset() {
+        left.reset();
+        right.reset();
+        fill = HISTORY;
+    }
+
+    private void processFrame(Channel ch) {
+        int half = FRAME_SIZE / 2;
+
+        // Analysis: magnitude and true frequency (in bins) of each partial
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            frame[i] = ch.input[i] * window[i];
+        }
+        fft.realForward(frame, FRAME_SIZE, re, im);
+        for (int k = 0; k <= half; k++) {
+            magnitudes[k] = Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+            double phase = Math.atan2(im[k], re[k]);
+            double delta = phase - ch.lastPhase[k] - k * expectedPhase;
+            ch.lastPhase[k] = phase;
+            // Wrap into [-pi, pi]
+            delta -= 2.0 * Math.PI * Math.rint(delta / (2.0 * Math.PI));
+            frequencies[k] = k + delta * OVERSAMPLING / (2.0 * Math.PI);
+        }
+
+        for (int t = 0; t < ratios.length; t++) {
+            synthesize(ch.targets[t], ratios[t]);
+        }
+        System.arraycopy(ch.input, HOP, ch.input, 0, FRAME_SIZE - HOP);
+    }
+
+    // Resynthesises the analysed frame lowered by ratio and overlap-adds it into one target
+    private void synthesize(Target target, double ratio) {
+        int half = FRAME_SIZE / 2;
+
+        // Move each partial to its lowered bin
+        Arrays.fill(shiftedMagnitudes, 0.0);
+        Arrays.fill(shiftedFrequencies, 0.0);
+        for (int k = 0; k <= half; k++) {
+            int bin = (int) (k * ratio);
+            if (bin <= half) {
+                shiftedMagnitudes[bin] += magnitudes[k];
+                shiftedFrequencies[bin] = frequencies[k] * ratio;
+            }
+        }
+
+        // Advance each bin's phase by its new frequency
+        for (int k = 0; k <= half; k++) {
+            double delta = (shiftedFrequencies[k] - k) * 2.0 * Math.PI / OVERSAMPLING + k * expectedPhase;
+            target.sumPhase[k] += delta;
+            re[k] = shiftedMagnitudes[k] * Math.cos(target.sumPhase[k]);
+            im[k] = shiftedMagnitudes[k] * Math.sin(target.sumPhase[k]);
+        }
+        // DC and Nyquist are real for a real signal
+        im[0] = 0.0;
+        im[half] = 0.0;
+        fft.realInverse(re, im, frame);
+
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            target.accumulator[i] += frame[i] * window[i] * outputGain;
+        }
+        // The next HOP output samples are complete; slide the accumulator by one hop
+        System.arraycopy(target.accumulator, 0, target.output, 0, HOP);
+        System.arraycopy(target.accumulator, HOP, target.accumulator, 0, FRAME_SIZE - HOP);
+        Arrays.fill(target.accumulator, FRAME_SIZE - HOP, FRAME_SIZE, 0.0f);
+    }
+
+    /**
+     * Lowers the frequency content of a whole stereo signal
+     * @param left Left channel audio data
+     * @param right Right channel audio data
+     * @param sampleRate Sample rate in Hz
+     * @param shiftAmountHz Amount to lower frequencies, relative to 1 kHz
+     * @return Shifted stereo audio data [left, right], aligned with and as long as the input
+     */
     public static float[][] shift(float[] left, float[] right, float sampleRate, float shiftAmountHz) {
-        // Calculate pitch shift ratio
-        float centerFreq = 1000.0f; // Reference frequency for ratio calculation
-        float ratio = (centerFreq - shiftAmountHz) / centerFreq;
-
-        float[][] shifted = new float[2][];
-        shifted[0] = shiftChannel(left, sampleRate, ratio);
-        shifted[1] = shiftChannel(right, sampleRate, ratio);
-        return shifted;
-    }
-
-    private static float[] shiftChannel(float[] channel, float sampleRate, float ratio) {
-        int bufferSize = 1024;
-        int overlap = 256;
-        float[] output = new float[channel.length];
-        float[] buffer = new float[bufferSize];
-        float[] outBuffer = new float[bufferSize];
-        int pos = 0;
-        PitchShifter shifter = new PitchShifter(ratio, bufferSize, overlap, sampleRate);
-        while (pos < channel.length) {
-            int len = Math.min(bufferSize, channel.length - pos);
-            System.arraycopy(channel, pos, buffer, 0, len);
-            AudioEvent event = new AudioEvent(new TarsosDSPAudioFormat(sampleRate, 16, 1, true, false));
-            event.setFloatBuffer(buffer);
-            shifter.process(event);
-            float[] processed = event.getFloatBuffer();
-            System.arraycopy(processed, 0, outBuffer, 0, len);
-            System.arraycopy(outBuffer, 0, output, pos, len);
-            pos += len;
-        }
-        return output;
-    }
-} 
\ No newline at end of file
+        StereoBuffer shifted = StereoBuffer.allocate(Math.min(left.length, right.length));
+        shift(StereoBuffer.wrap(left, right), shifted, shiftAmountHz);
+        return shifted.toArrays();
+    }
+
+    /**
+     * Lowers the frequency content of a whole stereo buffer
+     * @param in Input audio, any layout or storage
+     * @param out Receives the shifted audio, aligned with the input; must be as long as in
+     * @param shiftAmountHz Amount to lower frequencies, relative to 1 kHz
+     */
+    public static void shift(StereoBuffer in, StereoBuffer out, float shiftAmountHz) {
+        int length = in.frames();
+        if (out.frames() != length) {
+            throw new IllegalArgumentException("Output has " + out.frames() + " frames, input " + length);
+        }
+        FrequencyShifter shifter = new FrequencyShifter(shiftAmountHz);
+        int latency = shifter.getLatency();
+        int block = 4096;
+        float[] inLeft = in.hasArray() ? in.leftArray() : new float[block];
+        float[] inRight = in.hasArray() ? in.rightArray() : new float[block];
+        float[] outLeft = new float[block];
+        float[] outRight = new float[block];
+        float[] silence = new float[block];
+
+        // Run latency samples of silence through after the input and drop the leading delay
+        int skip = latency;
+        int written = 0;
+        for (int pos = 0; pos < length + latency; pos += block) {
+            int n = Math.min(block, length + latency - pos);
+            int real = Math.max(0, Math.min(n, length - pos));
+            if (real > 0) {
+                if (in.hasArray()) {
+                    shifter.process(inLeft, inRight, in.arrayOffset() + pos, real, outLeft, outRight, 0);
+                } else {
+                    in.getLeft(pos, inLeft, 0, real);
+                    in.getRight(pos, inRight, 0, real);
+                    shifter.process(inLeft, inRight, 0, real, outLeft, outRight, 0);
+                }
+            }
+            if (real < n) {
+                shifter.process(silence, silence, 0, n - real, outLeft, outRight, real);
+            }
+            int drop = Math.min(skip, n);
+            skip -= drop;
+            out.put(written, outLeft, outRight, drop, n - drop);
+            written += n - drop;
+        }
+    }
+
+    // Per-ear frame history and analysis phase, shared by all targets
+    private static class Channel {
+        final float[] input = new float[FRAME_SIZE];
+        final double[] lastPhase = new double[FRAME_SIZE / 2 + 1];
+        final Target[] targets;
+
+        Channel(int targetCount) {
+            targets = new Target[targetCount];
+            for (int t = 0; t < targetCount; t++) {
+                targets[t] = new Target();
+            }
+        }
+
+        // Queues n input samples at position pos and returns each target's matching delayed output
+        void exchange(float[] in, int inOffset, float[][] out, int outOffset, int pos, int n) {
+            System.arraycopy(in, inOffset, input, pos, n);
+            for (int t = 0; t < targets.length; t++) {
+                System.arraycopy(targets[t].output, pos - HISTORY, out[t], outOffset, n);
+            }
+        }
+
+        void reset() {
+            Arrays.fill(input, 0.0f);
+            Arrays.fill(lastPhase, 0.0);
+            for (Target target : targets) {
+                Arrays.fill(target.accumulator, 0.0f);
+                Arrays.fill(target.output, 0.0f);
+                Arrays.fill(target.sumPhase, 0.0);
+            }
+        }
+    }
+
+    // Synthesis phase, overlap-add accumulator and output queue of one shift target
+    private static class Target {
+        final float[] accumulator = new float[FRAME_SIZE];
+        final float[] output = new float[HOP];
+        final double[] sumPhase = new double[FRAME_SIZE / 2 + 1];
+    }
+}
@@ -2,10 +2,63 @@ package muse2;
 
 public class ImprovedSpatialCueAnalyzer {
     
+    /**
+     * Lag search strategy for the cross-correlation ITD.
+     * The interpolated correlation is linear between integer lags, so its maximum always
+     * sits on an integer lag; only the parabolic fit resolves delays between samples.
+     */
+    public enum LagSearch {
+        /** Every lag from -maxLag to +maxLag in 0.1-sample steps */
+        EXHAUSTIVE,
+        /** Integer-lag peak from one FFT correlation, then a parabola through the peak and its neighbours */
+        HIERARCHICAL
+    }
+    
+    /**
+     * Outcome of a lag search
+     */
+    public static class LagSearchResult {
+        private final double lagSamples;
+        private final double correlation;
+        private final int evaluations;
+        
+        public LagSearchResult(double lagSamples, double correlation, int evaluations) {
+            this.lagSamples = lagSamples;
+            this.correlation = correlation;
+            this.evaluations = evaluations;
+        }
+        
+        public double getLagSamples() { return lagSamples; }
+        public double getCorrelation() { return correlation; }
+        /**
+         * Full-signal correlation passes: one per lag for the exhaustive search, a single
+         * FFT correlation covering every integer lag for the hierarchical one
+         */
+        public int getEvaluations() { return evaluations; }
+        
+        public double getItdMicroseconds(float sampleRate) {
+            return lagSamples * 1_000_000.0 / sampleRate;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("lag %.3f samples (corr %.4f, %d passes)", lagSamples, correlation, evaluations);
+        }
+    }
+    
+    private static volatile LagSearch defaultLagSearch = LagSearch.EXHAUSTIVE;
+    
+    // FFT scratch buffers are reused per thread
+    private static final ThreadLocal<CrossCorrelator> CORRELATORS = ThreadLocal.withInitial(CrossCorrelator::new);
+    
     // Enhanced ITD measurement with improved accuracy
     public static double computeITD(float[] left, float[] right, float sampleRate) {
+        return computeITD(left, right, sampleRate, defaultLagSearch);
+    }
+    
+    public static double computeITD(float[] left, float[] right, float sampleRate, LagSearch lagSearch) {
         // Use multiple methods and combine results for better accuracy
-        double itd1 = crossCorrelationITD(left, right, sampleRate);
+        double itd1 = searchLag(left, right, sampleRate, lagSearch).getItdMicroseconds(sampleRate);
         double itd2 = phaseBasedITD(left, right, sampleRate);
         
         // Weighted combination (cross-correlation more reliable for larger ITDs)
@@ -16,57 +69,118 @@ public class ImprovedSpatialCueAnalyzer {
         }
     }
     
-    // Improved cross-correlation with sub-sample interpolation
-    private static double crossCorrelationITD(float[] left, float[] right, float sampleRate) {
+    /**
+     * Sets the lag search used by computeITD when none is passed explicitly
+     */
+    public static void setLagSearch(LagSearch lagSearch) {
+        if (lagSearch == null) {
+            throw new IllegalArgumentException("Lag search cannot be null");
+        }
+        defaultLagSearch = lagSearch;
+    }
+    
+    public static LagSearch getLagSearch() {
+        return defaultLagSearch;
+    }
+    
+    /**
+     * Finds the lag (in samples) that maximizes the interpolated cross-correlation
+     * within +/-1ms
+     * @param left Left channel audio data
+     * @param right Right channel audio data
+     * @param sampleRate Sample rate in Hz
+     * @param lagSearch Search strategy
+     * @return Best lag, its correlation and the number of correlation passes spent
+     */
+    public static LagSearchResult searchLag(float[] left, float[] right, float sampleRate, LagSearch lagSearch) {
         int maxLag = (int)(sampleRate * 0.001); // +/-1ms window
+        if (lagSearch == LagSearch.EXHAUSTIVE) {
+            return exhaustiveSearch(left, right, maxLag);
+        }
+        
+        // Coarse stage: every integer lag from a single FFT correlation
+        double[] coarse = integerLagCorrelation(left, right, maxLag);
+        int peak = 0;
+        for (int i = 1; i < coarse.length; i++) {
+            if (coarse[i] > coarse[peak]) peak = i;
+        }
+        int peakLag = peak - maxLag;
+        if (peak == 0 || peak == coarse.length - 1) {
+            return new LagSearchResult(peakLag, coarse[peak], 1);
+        }
+        
+        // Fine stage: vertex of the parabola through the peak and its neighbours
+        double y1 = coarse[peak - 1];
+        double y2 = coarse[peak];
+        double y3 = coarse[peak + 1];
+        double denominator = 2 * (2 * y2 - y1 - y3);
+        double offset = denominator != 0 ? (y3 - y1) / denominator : 0;
+        double peakValue = y2 - 0.25 * (y1 - y3) * offset;
+        return new LagSearchResult(peakLag + offset, peakValue, 1);
+    }
+    
+    // Fine-grained search with interpolation
+    private static LagSearchResult exhaustiveSearch(float[] left, float[] right, int maxLag) {
         double bestLag = 0;
         double maxCorr = Double.NEGATIVE_INFINITY;
+        int evaluations = 0;
         
-        // Fine-grained search with interpolation
         for (double lag = -maxLag; lag <= maxLag; lag += 0.1) {
             double corr = interpolatedCrossCorrelation(left, right, lag);
+            evaluations++;
             if (corr > maxCorr) {
                 maxCorr = corr;
                 bestLag = lag;
             }
         }
         
-        // Convert lag (samples) to microseconds
-        return bestLag * 1_000_000.0 / sampleRate;
+        return new LagSearchResult(bestLag, maxCorr, evaluations);
+    }
+    
+    /**
+     * interpolatedCrossCorrelation at every integer lag in [-maxLag, maxLag], from one FFT pass.
+     * At an integer lag both branches of interpolatedCrossCorrelation reduce to the mean of
+     * x[j] * y[j + |lag|]; for lag >= 0 the bounds check also drops the pair ending on the
+     * last sample of y, which is subtracted here to keep the values identical.
+     */
+    private static double[] integerLagCorrelation(float[] x, float[] y, int maxLag) {
+        int len = Math.min(x.length, y.length);
+        double[] raw = CORRELATORS.get().correlate(x, y, len, maxLag);
+        double[] correlation = new double[maxLag * 2 + 1];
+        
+        for (int lag = -maxLag; lag <= maxLag; lag++) {
+            int shift = Math.abs(lag);
+            double sum = raw[maxLag + shift];
+            int count = len - shift;
+            if (lag >= 0 && y.length == len && count > 0) {
+                sum -= (double) x[len - shift - 1] * y[len - 1];
+                count--;
+            }
+            correlation[maxLag + lag] = count > 0 ? sum / count : 0;
+        }
+        return correlation;
     }
     
     // Interpolated cross-correlation for sub-sample accuracy
     private static double interpolatedCrossCorrelation(float[] x, float[] y, double lag) {
         int len = Math.min(x.length, y.length);
         double sum = 0;
-        int count = 0;
+        int count;
         
+        // The interpolation fraction is the same for every sample, so each branch is a
+        // dot product over the range where both interpolation taps are in bounds
         if (lag >= 0) {
-            for (int i = 0; i < len - Math.ceil(lag); i++) {
-                double rightIndex = i + lag;
-                int rightIndexInt = (int)rightIndex;
-                double fraction = rightIndex - rightIndexInt;
-                
-                if (rightIndexInt + 1 < y.length) {
-                    // Linear interpolation
-                    double yValue = y[rightIndexInt] * (1 - fraction) + y[rightIndexInt + 1] * fraction;
-                    sum += x[i] * yValue;
-                    count++;
-                }
-            }
+            int whole = (int) Math.floor(lag);
+            double fraction = lag - whole;
+            count = Math.max(0, Math.min(len - (int) Math.ceil(lag), y.length - whole - 1));
+            // x[i] against y interpolated at i + lag
+            sum = SignalKernels.interpolatedDot(x, 0, y, whole, count, fraction);
         } else {
-            for (int i = (int)Math.ceil(-lag); i < len; i++) {
-                double leftIndex = i + lag;
-                int leftIndexInt = (int)leftIndex;
-                double fraction = leftIndex - leftIndexInt;
-                
-                if (leftIndexInt + 1 < x.length) {
-                    // Linear interpolation
-                    double xValue = x[leftIndexInt] * (1 - fraction) + x[leftIndexInt + 1] * fraction;
-                    sum += xValue * y[i];
-                    count++;
-                }
-            }
+            int start = (int) Math.ceil(-lag);
+            double fraction = start + lag;
+            count = Math.max(0, Math.min(len - start, x.length - 1));
+            // y[i] against x interpolated at i + lag
+            sum = SignalKernels.interpolatedDot(y, start, x, 0, count, fraction);
         }
         
         return count > 0 ? sum / count : 0;
@@ -98,20 +212,17 @@ public class ImprovedSpatialCueAnalyzer {
         return phaseDiff / (2 * Math.PI * frequency) * 1_000_000; // Convert to microseconds
     }
     
-    // Simple FFT implementation
+    // Real-input FFT, returned as interleaved (real, imaginary) pairs for bins 0..size/2
     private static double[] fft(float[] input, int size) {
-        double[] output = new double[size * 2]; // Real and imaginary parts
-        
-        for (int k = 0; k < size; k++) {
-            double real = 0, imag = 0;
-            for (int n = 0; n < size; n++) {
-                double angle = -2 * Math.PI * k * n / size;
-                double sample = n < input.length ? input[n] : 0;
-                real += sample * Math.cos(angle);
-                imag += sample * Math.sin(angle);
-            }
-            output[k * 2] = real;
-            output[k * 2 + 1] = imag;
+        int bins = size / 2 + 1;
+        double[] re = new double[size];
+        double[] im = new double[size];
+        FFT.forSize(size).realForward(input, input.length, re, im);
+        
+        double[] output = new double[bins * 2];
+        for (int k = 0; k < bins; k++) {
+            output[k * 2] = re[k];
+            output[k * 2 + 1] = im[k];
         }
         
         return output;
@@ -145,18 +256,16 @@ public class ImprovedSpatialCueAnalyzer {
     
     // A-weighted RMS for more perceptually relevant ILD
     private static double weightedRMS(float[] arr) {
-        double sum = 0;
-        int count = 0;
-        
-        for (int i = 0; i < arr.length; i++) {
-            // Simple A-weighting approximation
-            double weight = 1.0;
-            if (i < arr.length * 0.1) weight = 0.5; // Low frequencies
-            else if (i > arr.length * 0.9) weight = 0.8; // High frequencies
-            
-            sum += (arr[i] * weight) * (arr[i] * weight);
-            count++;
-        }
+        int count = arr.length;
+        
+        // Simple A-weighting approximation: indices below 10% get 0.5 (low frequencies),
+        // above 90% get 0.8 (high frequencies), the rest 1.0
+        int lowEnd = Math.min(count, (int) Math.ceil(count * 0.1));
+        int highStart = Math.max(lowEnd, Math.min(count, (int) Math.floor(count * 0.9) + 1));
+        
+        double sum = SignalKernels.weightedSumOfSquares(arr, 0, lowEnd, 0.5)
+            + SignalKernels.weightedSumOfSquares(arr, lowEnd, highStart - lowEnd, 1.0)
+            + SignalKernels.weightedSumOfSquares(arr, highStart, count - highStart, 0.8);
         
         return Math.sqrt(sum / count);
     }
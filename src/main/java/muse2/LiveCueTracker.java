@@ -0,0 +1,202 @@
+package muse2;
+
+/**
+ * Sliding-window ITD/ILD tracker for live playback.
+ * Keeps the cross-correlation sums of the last window samples for every lag in
+ * [-MAX_LAG_SAMPLES, MAX_LAG_SAMPLES] up to date as samples arrive: each new sample adds
+ * its products with the samples already in the window and the sample leaving the window
+ * subtracts its own, so the work per sample is O(lags) regardless of window length.
+ * Every hop samples the cues are re-estimated with the same normalisation and parabolic
+ * peak interpolation as SpatialCueAnalyzer; every RESYNC_HOPS updates the sums are
+ * recomputed from the window so rounding drift cannot build up.
+ *
+ * All state is allocated in the constructor and process() never allocates.
+ * Not thread-safe; feed it from the thread that writes the audio.
+ */
+public class LiveCueTracker {
+    public static final int DEFAULT_WINDOW = 4096;
+    public static final int DEFAULT_HOP = 1024;
+    public static final int RESYNC_HOPS = 32;
+
+    /**
+     * Receives each cue update
+     */
+    public interface Listener {
+        /**
+         * @param frame Number of frames processed when the update was made
+         * @param itdMicroseconds ITD over the window, NaN when either ear is silent
+         * @param ildDecibels ILD over the window, NaN when both ears are silent
+         */
+        void onCues(long frame, double itdMicroseconds, double ildDecibels);
+    }
+
+    private final int window;
+    private final int hop;
+    private final int maxLag = SpatialCueAnalyzer.MAX_LAG_SAMPLES;
+    private final int sampleRate;
+    private Listener listener;
+
+    // Each sample is stored at p % window and p % window + window, so any run of up to
+    // window consecutive samples is contiguous
+    private final float[] left;
+    private final float[] right;
+    private final double[] sums;
+    private final double[] correlation;
+    private double leftEnergy = 0.0;
+    private double rightEnergy = 0.0;
+
+    private long frames = 0;
+    private int fill = 0;
+    private int updates = 0;
+    private double itdMicroseconds = Double.NaN;
+    private double ildDecibels = Double.NaN;
+
+    public LiveCueTracker(int sampleRate) {
+        this(sampleRate, DEFAULT_WINDOW, DEFAULT_HOP);
+    }
+
+    /**
+     * @param sampleRate Sample rate in Hz
+     * @param window Samples per analysis window; must exceed twice the maximum lag
+     * @param hop Samples between cue updates
+     */
+    public LiveCueTracker(int sampleRate, int window, int hop) {
+        if (window <= maxLag * 2 || hop < 1) {
+            throw new IllegalArgumentException("Invalid window/hop: " + window + "/" + hop);
+        }
+        this.sampleRate = sampleRate;
+        this.window = window;
+        this.hop = hop;
+        this.left = new float[window * 2];
+        this.right = new float[window * 2];
+        this.sums = new double[maxLag * 2 + 1];
+        this.correlation = new double[maxLag * 2 + 1];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds the next frames of the stream, updating the cues at every hop boundary
+     * @return Number of cue updates made during this call
+     */
+    public int process(float[] leftIn, float[] rightIn, int offset, int count) {
+        int made = 0;
+        for (int n = 0; n < count; n++) {
+            push(leftIn[offset + n], rightIn[offset + n]);
+            if (frames % hop == 0) {
+                update();
+                made++;
+            }
+        }
+        return made;
+    }
+
+    private void push(float l, float r) {
+        if (fill == window) {
+            // Remove the oldest sample and its products with the rest of the window
+            int o = (int) ((frames - window) % window);
+            float lo = left[o];
+            float ro = right[o];
+            sums[maxLag] -= lo * ro;
+            int lags = Math.min(maxLag, fill - 1);
+            for (int d = 1; d <= lags; d++) {
+                sums[maxLag + d] -= lo * right[o + d];
+                sums[maxLag - d] -= left[o + d] * ro;
+            }
+            leftEnergy -= lo * lo;
+            rightEnergy -= ro * ro;
+            fill--;
+        }
+
+        int t = (int) (frames % window);
+        left[t] = l;
+        left[t + window] = l;
+        right[t] = r;
+        right[t + window] = r;
+        frames++;
+        fill++;
+
+        // Add the new sample's products with the samples before it
+        int newest = t + window;
+        sums[maxLag] += l * r;
+        int lags = Math.min(maxLag, fill - 1);
+        for (int d = 1; d <= lags; d++) {
+            sums[maxLag + d] += left[newest - d] * r;
+            sums[maxLag - d] += l * right[newest - d];
+        }
+        leftEnergy += l * l;
+        rightEnergy += r * r;
+    }
+
+    private void update() {
+        if (++updates % RESYNC_HOPS == 0) {
+            resync();
+        }
+
+        double leftRMS = Math.sqrt(Math.max(0.0, leftEnergy) / fill);
+        double rightRMS = Math.sqrt(Math.max(0.0, rightEnergy) / fill);
+        boolean leftSilent = leftRMS < 0.000001;
+        boolean rightSilent = rightRMS < 0.000001;
+        ildDecibels = leftSilent && rightSilent ? Double.NaN : SpatialCueAnalyzer.ildFromRms(leftRMS, rightRMS);
+
+        if (leftSilent || rightSilent || fill <= maxLag * 2) {
+            itdMicroseconds = Double.NaN;
+        } else {
+            for (int d = -maxLag; d <= maxLag; d++) {
+                correlation[maxLag + d] = sums[maxLag + d] / (fill - Math.abs(d));
+            }
+            int peak = SpatialCueAnalyzer.peakIndex(correlation);
+            double delay = peak - maxLag;
+            if (peak > 0 && peak < correlation.length - 1) {
+                delay += SpatialCueAnalyzer.parabolicOffset(correlation, peak);
+            }
+            itdMicroseconds = delay * 1000000.0 / sampleRate;
+        }
+
+        if (listener != null) {
+            listener.onCues(frames, itdMicroseconds, ildDecibels);
+        }
+    }
+
+    // Recomputes the running sums from the samples in the window
+    private void resync() {
+        int start = (int) ((frames - fill) % window);
+        for (int d = 0; d <= maxLag; d++) {
+            int count = Math.max(0, fill - d);
+            sums[maxLag + d] = SignalKernels.dot(left, start, right, start + d, count);
+            if (d > 0) {
+                sums[maxLag - d] = SignalKernels.dot(left, start + d, right, start, count);
+            }
+        }
+        leftEnergy = SignalKernels.sumOfSquares(left, start, fill);
+        rightEnergy = SignalKernels.sumOfSquares(right, start, fill);
+    }
+
+    /** ITD of the most recent update, NaN before the first or when an ear is silent */
+    public double getItdMicroseconds() {
+        return itdMicroseconds;
+    }
+
+    /** ILD of the most recent update, NaN before the first or when both ears are silent */
+    public double getIldDecibels() {
+        return ildDecibels;
+    }
+
+    public SpatialCueAnalyzer.SpatialCues getCues() {
+        return new SpatialCueAnalyzer.SpatialCues(itdMicroseconds, ildDecibels);
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public int getHop() {
+        return hop;
+    }
+}
@@ -1,87 +1,388 @@
 package muse2;
 
 import java.io.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Processing log written to the console and, after initialize(), to a log file.
+ *
+ * Messages below the current level are dropped before any formatting. In asynchronous
+ * mode (setAsync(true) or -Dmuse2.log.async=true) a call only claims a slot in a
+ * lock-free ring and stores the level, time and message; a background thread formats
+ * the lines and writes them in batches, flushing once per batch instead of once per line.
+ * Callers never block on I/O unless the ring is full, in which case they wait for the
+ * writer rather than lose messages.
+ */
 public class Logger {
     private static final String LOG_FILE = "muse2_processing.log";
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-    private static PrintWriter logWriter;
-    private static boolean initialized = false;
-    
+    private static final DateTimeFormatter SECOND_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final int RING_CAPACITY = 8192;
+
+    public enum Level {
+        DEBUG, INFO, WARNING, ERROR
+    }
+
+    private static volatile Level level = parseLevel(System.getProperty("muse2.log.level"));
+    private static volatile boolean consoleOutput = true;
+    private static volatile PrintWriter logWriter;
+    private static volatile boolean initialized = false;
+    private static volatile AsyncWriter asyncWriter;
+    private static boolean shutdownHookAdded = false;
+
+    static {
+        if (Boolean.getBoolean("muse2.log.async")) {
+            setAsync(true);
+        }
+    }
+
     public static void initialize() {
+        initialize(LOG_FILE);
+    }
+
+    /**
+     * Opens the given log file for appending
+     */
+    public static synchronized void initialize(String logFile) {
         try {
-            logWriter = new PrintWriter(new FileWriter(LOG_FILE, true));
-            logWriter.println("\n" + "=".repeat(80));
-            logWriter.println("MUSE2 Processing Session Started: " + DATE_FORMAT.format(new Date()));
-            logWriter.println("=".repeat(80));
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(logFile, true)));
+            String rule = "=".repeat(80);
+            writer.println("\n" + rule);
+            writer.println("MUSE2 Processing Session Started: " + formatTime(System.currentTimeMillis(), new StringBuilder()));
+            writer.println(rule);
+            writer.flush();
+            logWriter = writer;
             initialized = true;
         } catch (IOException e) {
             System.err.println("Failed to initialize logger: " + e.getMessage());
         }
     }
-    
+
+    /**
+     * Sets the lowest level that is logged
+     */
+    public static void setLevel(Level minimum) {
+        if (minimum == null) {
+            throw new IllegalArgumentException("Log level cannot be null");
+        }
+        level = minimum;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.ordinal() >= level.ordinal();
+    }
+
+    /**
+     * Whether lines are echoed to standard output as well as the log file
+     */
+    public static void setConsoleOutput(boolean enabled) {
+        consoleOutput = enabled;
+    }
+
+    /**
+     * Switches between asynchronous and synchronous writing. Turning it off writes out
+     * everything already queued before returning.
+     */
+    public static synchronized void setAsync(boolean enabled) {
+        if (enabled && asyncWriter == null) {
+            if (!shutdownHookAdded) {
+                // Write out whatever is still queued when the JVM exits
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    AsyncWriter writer = asyncWriter;
+                    if (writer != null) writer.shutdown();
+                }));
+                shutdownHookAdded = true;
+            }
+            asyncWriter = new AsyncWriter();
+            asyncWriter.start();
+        } else if (!enabled && asyncWriter != null) {
+            AsyncWriter writer = asyncWriter;
+            asyncWriter = null;
+            writer.shutdown();
+        }
+    }
+
+    public static boolean isAsync() {
+        return asyncWriter != null;
+    }
+
     public static void info(String message) {
-        log("INFO", message);
+        log(Level.INFO, message, null);
     }
-    
+
     public static void warning(String message) {
-        log("WARNING", message);
+        log(Level.WARNING, message, null);
     }
-    
+
     public static void error(String message) {
-        log("ERROR", message);
+        log(Level.ERROR, message, null);
     }
-    
+
     public static void error(String message, Exception e) {
-        log("ERROR", message + ": " + e.getMessage());
-        if (initialized && logWriter != null) {
-            e.printStackTrace(logWriter);
-        }
+        log(Level.ERROR, message + ": " + e.getMessage(), e);
     }
-    
+
     public static void debug(String message) {
-        log("DEBUG", message);
+        log(Level.DEBUG, message, null);
     }
-    
+
     public static void logAudioFile(String filename, float sampleRate, int channels, long durationMs) {
-        info(String.format("Processing audio file: %s (%.1f kHz, %d ch, %.1f s)", 
+        if (!isEnabled(Level.INFO)) return;
+        info(String.format("Processing audio file: %s (%.1f kHz, %d ch, %.1f s)",
             filename, sampleRate/1000, channels, durationMs/1000.0));
     }
-    
+
     public static void logSpatialCues(String filename, double itd, double ild) {
+        if (!isEnabled(Level.INFO)) return;
         info(String.format("Spatial cues for %s: ITD=%.1f μs, ILD=%.1f dB", filename, itd, ild));
     }
-    
+
     public static void logFrequencyShift(String filename, float shiftHz, double itdChange, double ildChange) {
-        info(String.format("Frequency shift %.0f Hz for %s: ITD change=%.1f μs, ILD change=%.1f dB", 
+        if (!isEnabled(Level.INFO)) return;
+        info(String.format("Frequency shift %.0f Hz for %s: ITD change=%.1f μs, ILD change=%.1f dB",
             shiftHz, filename, itdChange, ildChange));
     }
-    
+
     public static void logProcessingTime(String operation, long startTime) {
+        if (!isEnabled(Level.INFO)) return;
         long duration = System.currentTimeMillis() - startTime;
-        info(String.format("%s completed in %d ms", operation, duration));
+        info(operation + " completed in " + duration + " ms");
     }
-    
-    private static void log(String level, String message) {
-        String timestamp = DATE_FORMAT.format(new Date());
-        String logMessage = String.format("[%s] %s: %s", timestamp, level, message);
-        
+
+    private static void log(Level messageLevel, String message, Throwable error) {
+        if (!isEnabled(messageLevel)) return;
+        long time = System.currentTimeMillis();
+        AsyncWriter writer = asyncWriter;
+        if (writer != null && writer.offer(messageLevel, time, message, error)) {
+            return;
+        }
+
+        String logMessage = formatLine(new StringBuilder(64 + message.length()), messageLevel, time, message).toString();
+
         // Console output
-        System.out.println(logMessage);
-        
+        if (consoleOutput) {
+            System.out.println(logMessage);
+        }
+
         // File output
-        if (initialized && logWriter != null) {
-            logWriter.println(logMessage);
-            logWriter.flush();
+        PrintWriter file = logWriter;
+        if (initialized && file != null) {
+            synchronized (file) {
+                file.println(logMessage);
+                if (error != null) {
+                    error.printStackTrace(file);
+                }
+                file.flush();
+            }
         }
     }
-    
-    public static void close() {
+
+    // "[yyyy-MM-dd HH:mm:ss.SSS] LEVEL: message"
+    private static StringBuilder formatLine(StringBuilder line, Level messageLevel, long time, String message) {
+        line.append('[');
+        formatTime(time, line);
+        return line.append("] ").append(messageLevel.name()).append(": ").append(message);
+    }
+
+    private static StringBuilder formatTime(long time, StringBuilder out) {
+        SECOND_FORMAT.formatTo(Instant.ofEpochMilli(time - Math.floorMod(time, 1000L)), out);
+        int millis = (int) Math.floorMod(time, 1000L);
+        out.append('.');
+        if (millis < 100) out.append('0');
+        if (millis < 10) out.append('0');
+        return out.append(millis);
+    }
+
+    private static Level parseLevel(String name) {
+        if (name == null) return Level.DEBUG;
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + name + ", logging everything");
+            return Level.DEBUG;
+        }
+    }
+
+    public static synchronized void close() {
         if (initialized && logWriter != null) {
             info("MUSE2 Processing Session Ended");
+        }
+        setAsync(false);
+        if (logWriter != null) {
             logWriter.close();
+            logWriter = null;
+        }
+        initialized = false;
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring (sequence-numbered slots) drained by
+     * one daemon thread.
+     */
+    private static class AsyncWriter extends Thread {
+        private final int mask = RING_CAPACITY - 1;
+        // A slot may be written when its sequence equals the claim position and read
+        // when it equals the position plus one
+        private final AtomicLongArray sequence = new AtomicLongArray(RING_CAPACITY);
+        private final Level[] levels = new Level[RING_CAPACITY];
+        private final long[] times = new long[RING_CAPACITY];
+        private final String[] messages = new String[RING_CAPACITY];
+        private final Throwable[] errors = new Throwable[RING_CAPACITY];
+        private final AtomicLong tail = new AtomicLong();
+        private long head = 0;
+
+        private volatile boolean running = true;
+        private volatile boolean sleeping = false;
+        private final StringBuilder console = new StringBuilder(1 << 14);
+        private final StringBuilder line = new StringBuilder(256);
+        // Formatted second of the last line, reused while the second does not change
+        private long cachedSecond = Long.MIN_VALUE;
+        private final StringBuilder cachedPrefix = new StringBuilder(32);
+
+        AsyncWriter() {
+            super("muse2-logger");
+            setDaemon(true);
+            for (int i = 0; i < RING_CAPACITY; i++) {
+                sequence.set(i, i);
+            }
+        }
+
+        /**
+         * Queues a message; false once the writer has stopped
+         */
+        boolean offer(Level messageLevel, long time, String message, Throwable error) {
+            long position;
+            int slot;
+            while (true) {
+                if (!running) return false;
+                position = tail.get();
+                slot = (int) position & mask;
+                long available = sequence.get(slot) - position;
+                if (available == 0) {
+                    if (tail.compareAndSet(position, position + 1)) break;
+                } else if (available < 0) {
+                    // Full: let the writer catch up
+                    LockSupport.unpark(this);
+                    Thread.yield();
+                }
+            }
+            levels[slot] = messageLevel;
+            times[slot] = time;
+            messages[slot] = message;
+            errors[slot] = error;
+            sequence.set(slot, position + 1);
+            if (sleeping) {
+                LockSupport.unpark(this);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (running || tail.get() != head) {
+                if (!drain()) {
+                    sleeping = true;
+                    // Re-check after announcing sleep so a concurrent offer is never missed
+                    if (running && sequence.get((int) head & mask) != head + 1) {
+                        LockSupport.parkNanos(this, 10_000_000L);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        // Writes out everything that is ready; false when nothing was
+        private boolean drain() {
+            boolean any = false;
+            PrintWriter file = initialized ? logWriter : null;
+            while (true) {
+                int slot = (int) head & mask;
+                if (sequence.get(slot) != head + 1) break;
+                Level messageLevel = levels[slot];
+                long time = times[slot];
+                String message = messages[slot];
+                Throwable error = errors[slot];
+                messages[slot] = null;
+                errors[slot] = null;
+                sequence.set(slot, head + RING_CAPACITY);
+                head++;
+                any = true;
+
+                line.setLength(0);
+                appendTime(time);
+                line.append("] ").append(messageLevel.name()).append(": ").append(message);
+                if (consoleOutput) {
+                    console.append(line).append(System.lineSeparator());
+                }
+                if (file != null) {
+                    synchronized (file) {
+                        file.println(line);
+                        if (error != null) {
+                            error.printStackTrace(file);
+                        }
+                    }
+                }
+                if (console.length() > (1 << 14)) {
+                    flushConsole();
+                }
+            }
+            if (any) {
+                flushConsole();
+                if (file != null) {
+                    synchronized (file) {
+                        file.flush();
+                    }
+                }
+            }
+            return any;
+        }
+
+        private void appendTime(long time) {
+            long second = Math.floorDiv(time, 1000L);
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                cachedPrefix.setLength(0);
+                cachedPrefix.append('[');
+                SECOND_FORMAT.formatTo(Instant.ofEpochSecond(second), cachedPrefix);
+            }
+            int millis = (int) Math.floorMod(time, 1000L);
+            line.append(cachedPrefix).append('.');
+            if (millis < 100) line.append('0');
+            if (millis < 10) line.append('0');
+            line.append(millis);
+        }
+
+        private void flushConsole() {
+            if (console.length() > 0) {
+                System.out.print(console);
+                System.out.flush();
+                console.setLength(0);
+            }
+        }
+
+        // Stops accepting messages, then waits until the queued ones are written
+        void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+            if (Thread.currentThread() != this) {
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // Messages claimed just before running was cleared
+                drain();
+            }
         }
     }
-} 
\ No newline at end of file
+}
@@ -1,15 +1,96 @@
 package muse2;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
     public static void main(String[] args) {
+        // Options may appear anywhere; the rest are positional
+        boolean incremental = false;
+        boolean nativeRate = false;
+        int[] ears = null;
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--incremental")) {
+                incremental = true;
+            } else if (arg.equals("--native-rate")) {
+                nativeRate = true;
+            } else if (arg.startsWith("--ears=")) {
+                ears = parseEars(arg.substring("--ears=".length()));
+                if (ears == null) {
+                    System.out.println("Invalid ear channels, expected two channel numbers: " + arg);
+                    printUsage();
+                    return;
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+        args = positional.toArray(new String[0]);
         if (args.length < 2) {
-            System.out.println("Usage: java -cp <classpath> muse2.Main <input_wav_directory> <output_csv_file>");
+            printUsage();
             return;
         }
         String inputDir = args[0];
         String csvOut = args[1];
-        BatchProcessor processor = new BatchProcessor();
+        int threads = 1;
+        if (args.length > 2) {
+            try {
+                threads = Integer.parseInt(args[2].trim());
+            } catch (NumberFormatException e) {
+                threads = 0;
+            }
+            if (threads < 1) {
+                System.out.println("Invalid thread count: " + args[2]);
+                printUsage();
+                return;
+            }
+        }
+        BatchProcessor processor = new BatchProcessor(threads, BatchProcessor.ExecutorKind.FORK_JOIN,
+                BatchProcessor.DEFAULT_MAX_BYTES_IN_FLIGHT);
+        processor.setIncremental(incremental);
+        if (nativeRate) {
+            processor.setSampleRate(AudioProcessor.NATIVE_RATE);
+        }
+        if (ears != null) {
+            processor.setEarChannels(ears[0], ears[1]);
+        }
+        if (args.length > 3) {
+            String[] parts = args[3].split(",", -1);
+            float[] shifts = new float[parts.length];
+            try {
+                for (int i = 0; i < parts.length; i++) {
+                    shifts[i] = Float.parseFloat(parts[i].trim());
+                }
+                processor.setShifts(shifts);
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException included
+                System.out.println("Invalid shifts " + args[3] + ": " + e.getMessage());
+                printUsage();
+                return;
+            }
+        }
+        if (args.length > 4) {
+            processor.setMetricsOutput(new java.io.File(args[4]));
+        }
         processor.processDirectory(inputDir, csvOut);
         System.out.println("Processing complete. Results written to " + csvOut);
     }
+
+    // Exactly two non-negative channel numbers separated by a comma, or null
+    private static int[] parseEars(String value) {
+        String[] pair = value.split(",", -1);
+        if (pair.length != 2) return null;
+        try {
+            int left = Integer.parseInt(pair[0].trim());
+            int right = Integer.parseInt(pair[1].trim());
+            return left >= 0 && right >= 0 ? new int[] {left, right} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java -cp <classpath> muse2.Main [--incremental] [--native-rate] [--ears=left,right] <input_wav_directory> <output_csv_file> [threads] [shifts_hz,...] [metrics.json|metrics.csv]");
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,170 @@
+package muse2;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random-access view of a WAV file's samples through a memory-mapped data chunk.
+ * Opening only parses the header and maps the data, so the cost does not depend on
+ * file length; samples are decoded on access, a window at a time.
+ *
+ * Supports 8/16/24/32-bit PCM and 32-bit float, little or big-endian, with any number
+ * of channels; only the channels that are read are decoded.
+ * The mapping is released by the garbage collector, not by close().
+ */
+public class MappedWavFile implements AutoCloseable {
+    // Keep each mapping well below the 2 GB limit of a single MappedByteBuffer
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final WavHeader header;
+    private final MappedByteBuffer[] segments;
+    private final long framesPerSegment;
+    private final int blockAlign;
+    private final int bytesPerSample;
+    private final SampleDecoder decoder;
+
+    public MappedWavFile(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            header = WavHeader.read(channel);
+            blockAlign = header.getBlockAlign();
+            bytesPerSample = header.getBytesPerSample();
+            try {
+                decoder = SampleDecoder.forHeader(header);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported WAV format: " + header);
+            }
+
+            // Segments hold whole frames so a frame never straddles two mappings
+            framesPerSegment = Math.max(1, MAX_SEGMENT_BYTES / blockAlign);
+            long frames = header.getFrameCount();
+            int count = (int) ((frames + framesPerSegment - 1) / framesPerSegment);
+            segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long firstFrame = i * framesPerSegment;
+                long segmentFrames = Math.min(framesPerSegment, frames - firstFrame);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    header.getDataOffset() + firstFrame * blockAlign, segmentFrames * blockAlign);
+                segments[i].order(header.getByteOrder());
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public WavHeader getHeader() {
+        return header;
+    }
+
+    public int getSampleRate() {
+        return header.getSampleRate();
+    }
+
+    public int getChannels() {
+        return header.getChannels();
+    }
+
+    public long getFrameCount() {
+        return header.getFrameCount();
+    }
+
+    /**
+     * Single sample scaled to [-1, 1)
+     * @param frame Frame index
+     * @param channelIndex Channel index (0 = left, 1 = right)
+     */
+    public float getSample(long frame, int channelIndex) {
+        checkRange(frame, 1, channelIndex);
+        int segment = (int) (frame / framesPerSegment);
+        int offset = (int) ((frame - segment * framesPerSegment) * blockAlign) + channelIndex * bytesPerSample;
+        return decoder.decodeSample(segments[segment], offset);
+    }
+
+    /**
+     * Copies a window of one channel into dst
+     * @param channelIndex Channel index (0 = left, 1 = right)
+     * @param startFrame First frame of the window
+     * @param dst Destination array
+     * @param dstOffset First index written in dst
+     * @param length Number of frames
+     */
+    public void read(int channelIndex, long startFrame, float[] dst, int dstOffset, int length) {
+        checkRange(startFrame, length, channelIndex);
+        long frame = startFrame;
+        int written = 0;
+        while (written < length) {
+            int segment = (int) (frame / framesPerSegment);
+            long inSegment = frame - segment * framesPerSegment;
+            int n = (int) Math.min(length - written, framesPerSegment - inSegment);
+            int offset = (int) (inSegment * blockAlign) + channelIndex * bytesPerSample;
+            decoder.decode(segments[segment], offset, n, getChannels(), dst, dstOffset + written);
+            written += n;
+            frame += n;
+        }
+    }
+
+    /**
+     * Left/right window starting at startFrame
+     * @return Stereo audio data [left, right]
+     */
+    public float[][] readStereoWindow(long startFrame, int length) {
+        if (getChannels() < 2) {
+            throw new IllegalStateException("File is not stereo: " + header);
+        }
+        float[][] window = new float[2][length];
+        read(0, startFrame, window[0], 0, length);
+        read(1, startFrame, window[1], 0, length);
+        return window;
+    }
+
+    /**
+     * Fills dst with the left/right frames starting at startFrame
+     */
+    public void readStereo(long startFrame, StereoBuffer dst) {
+        if (getChannels() < 2) {
+            throw new IllegalStateException("File is not stereo: " + header);
+        }
+        readPair(0, 1, startFrame, dst);
+    }
+
+    /**
+     * Fills dst with an ear pair of a multi-channel file, starting at startFrame
+     * @param leftChannel Channel read as the left ear
+     * @param rightChannel Channel read as the right ear
+     */
+    public void readPair(int leftChannel, int rightChannel, long startFrame, StereoBuffer dst) {
+        int length = dst.frames();
+        if (dst.hasArray()) {
+            read(leftChannel, startFrame, dst.leftArray(), dst.arrayOffset(), length);
+            read(rightChannel, startFrame, dst.rightArray(), dst.arrayOffset(), length);
+            return;
+        }
+        float[] left = new float[Math.min(length, 4096)];
+        float[] right = new float[left.length];
+        for (int done = 0; done < length; done += left.length) {
+            int n = Math.min(left.length, length - done);
+            read(leftChannel, startFrame + done, left, 0, n);
+            read(rightChannel, startFrame + done, right, 0, n);
+            dst.put(done, left, right, 0, n);
+        }
+    }
+
+    private void checkRange(long startFrame, int length, int channelIndex) {
+        if (channelIndex < 0 || channelIndex >= getChannels()) {
+            throw new IndexOutOfBoundsException("Channel " + channelIndex + " of " + getChannels());
+        }
+        if (startFrame < 0 || length < 0 || startFrame + length > getFrameCount()) {
+            throw new IndexOutOfBoundsException("Frames " + startFrame + "+" + length + " of " + getFrameCount());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
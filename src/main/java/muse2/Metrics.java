@@ -0,0 +1,264 @@
+package muse2;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and nanosecond timers for the processing pipeline.
+ *
+ * Stages look their metrics up once and keep them in static fields; recording is then
+ * a LongAdder increment or a histogram bucket increment, safe from any thread. Timer
+ * histograms use log-linear buckets (HdrHistogram style): 32 buckets per power of two,
+ * so percentiles are within about 3% of the recorded values.
+ *
+ * Recording can be switched off with setEnabled(false) or -Dmuse2.metrics=false.
+ */
+public final class Metrics {
+    // Stage timers
+    public static final String AUDIO_LOAD = "audio.load";
+    public static final String CUE_ANALYSIS = "analysis.spatial_cues";
+    public static final String SHIFT_BLOCK = "shift.block";
+    public static final String WAV_WRITE = "wav.write";
+    public static final String CSV_WRITE = "csv.write";
+    public static final String FILE_TOTAL = "file.total";
+
+    // Counters
+    public static final String FILES_PROCESSED = "files.processed";
+    public static final String FILES_FAILED = "files.failed";
+    public static final String FILES_SKIPPED = "files.skipped";
+    public static final String FRAMES_DECODED = "frames.decoded";
+    public static final String FRAMES_SHIFTED = "frames.shifted";
+    public static final String SHIFTS_PRODUCED = "shifts.produced";
+    public static final String BYTES_READ = "bytes.read";
+    public static final String BYTES_WRITTEN = "bytes.written";
+    public static final String CSV_ROWS = "csv.rows";
+    public static final String SWEEP_POINTS = "sweep.points";
+    public static final String CACHE_HITS = "cache.hits";
+    public static final String CACHE_MISSES = "cache.misses";
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty("muse2.metrics"));
+
+    private Metrics() {
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, n -> new Timer());
+    }
+
+    /** Clears every value; metrics already looked up stay registered */
+    public static void reset() {
+        for (Counter c : COUNTERS.values()) c.count.reset();
+        for (Timer t : TIMERS.values()) t.reset();
+    }
+
+    /**
+     * Unregisters the counter and timer of that name, so they no longer appear in dumps;
+     * instances already looked up keep recording but are not reported
+     */
+    public static void remove(String name) {
+        COUNTERS.remove(name);
+        TIMERS.remove(name);
+    }
+
+    /**
+     * Monotonic count
+     */
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            if (enabled) count.increment();
+        }
+
+        public void add(long amount) {
+            if (enabled) count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Durations in nanoseconds. Typical use:
+     * long start = timer.start(); ... timer.stop(start);
+     */
+    public static final class Timer {
+        private static final int SUB_BITS = 5;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = SUB + (64 - SUB_BITS) * SUB;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+        /** Start time for stop(), or 0 when recording is off */
+        public long start() {
+            return enabled ? System.nanoTime() : 0L;
+        }
+
+        public void stop(long start) {
+            if (start != 0L) record(System.nanoTime() - start);
+        }
+
+        public void record(long nanos) {
+            if (!enabled) return;
+            long value = Math.max(0L, nanos);
+            buckets.incrementAndGet(bucketIndex(value));
+            count.increment();
+            total.add(value);
+            min.accumulate(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return total.sum();
+        }
+
+        public long getMinNanos() {
+            return getCount() == 0 ? 0L : min.get();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        public double getMeanNanos() {
+            long n = getCount();
+            return n == 0 ? 0.0 : (double) getTotalNanos() / n;
+        }
+
+        /**
+         * Value at the given percentile (0-100): the midpoint of the bucket holding it,
+         * clamped to the recorded range
+         */
+        public long getPercentileNanos(double percentile) {
+            long n = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) return 0L;
+            long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    long mid = bucketLow(i) + (bucketHigh(i) - bucketLow(i)) / 2;
+                    return Math.max(getMinNanos(), Math.min(getMaxNanos(), mid));
+                }
+            }
+            return getMaxNanos();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0L);
+            count.reset();
+            total.reset();
+            min.reset();
+            max.reset();
+        }
+
+        // Values below 2 * SUB get a bucket each; above that each power of two is split in SUB
+        static int bucketIndex(long value) {
+            if (value < SUB) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            int top = (int) (value >>> shift);
+            return SUB + shift * SUB + (top - SUB);
+        }
+
+        static long bucketLow(int index) {
+            if (index < SUB) return index;
+            int shift = (index - SUB) / SUB;
+            long top = SUB + (index - SUB) % SUB;
+            return top << shift;
+        }
+
+        static long bucketHigh(int index) {
+            if (index < SUB) return index;
+            int shift = (index - SUB) / SUB;
+            long top = SUB + (index - SUB) % SUB;
+            return ((top + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Writes every metric, as JSON when the file name ends in .json and as CSV otherwise
+     */
+    public static void dump(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".json")) {
+                writeJson(out);
+            } else {
+                writeCsv(out);
+            }
+        }
+    }
+
+    public static void writeJson(PrintWriter out) {
+        out.println("{");
+        out.println("  \"counters\": {");
+        Map<String, Counter> counters = new TreeMap<>(COUNTERS);
+        int i = 0;
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            out.printf(Locale.ROOT, "    \"%s\": %d%s%n", e.getKey(), e.getValue().get(), ++i < counters.size() ? "," : "");
+        }
+        out.println("  },");
+        out.println("  \"timers\": {");
+        Map<String, Timer> timers = new TreeMap<>(TIMERS);
+        i = 0;
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            Timer t = e.getValue();
+            out.printf(Locale.ROOT, "    \"%s\": {\"count\": %d, \"total_ns\": %d, \"mean_ns\": %.1f, \"min_ns\": %d, "
+                    + "\"p50_ns\": %d, \"p90_ns\": %d, \"p99_ns\": %d, \"max_ns\": %d}%s%n",
+                e.getKey(), t.getCount(), t.getTotalNanos(), t.getMeanNanos(), t.getMinNanos(),
+                t.getPercentileNanos(50), t.getPercentileNanos(90), t.getPercentileNanos(99), t.getMaxNanos(),
+                ++i < timers.size() ? "," : "");
+        }
+        out.println("  }");
+        out.println("}");
+    }
+
+    public static void writeCsv(PrintWriter out) {
+        out.println("metric,type,count,total_ns,mean_ns,min_ns,p50_ns,p90_ns,p99_ns,max_ns");
+        for (Map.Entry<String, Counter> e : new TreeMap<>(COUNTERS).entrySet()) {
+            out.printf(Locale.ROOT, "%s,counter,%d,,,,,,,%n", e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String, Timer> e : new TreeMap<>(TIMERS).entrySet()) {
+            Timer t = e.getValue();
+            out.printf(Locale.ROOT, "%s,timer,%d,%d,%.1f,%d,%d,%d,%d,%d%n",
+                e.getKey(), t.getCount(), t.getTotalNanos(), t.getMeanNanos(), t.getMinNanos(),
+                t.getPercentileNanos(50), t.getPercentileNanos(90), t.getPercentileNanos(99), t.getMaxNanos());
+        }
+    }
+}
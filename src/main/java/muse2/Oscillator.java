@@ -0,0 +1,112 @@
+package muse2;
+
+/**
+ * Sine oscillators for the synthetic signal generators.
+ *
+ * RECURRENCE rotates a unit phasor by a fixed step each sample (two multiplies and two
+ * adds) and re-anchors it to an exact Math.sin/Math.cos pair every RESYNC_INTERVAL
+ * samples, so rounding never accumulates past one interval; samples stay within about
+ * 1e-12 of Math.sin. WAVETABLE reads a shared one-cycle table with a 64-bit phase
+ * accumulator and linear interpolation, within about 1e-6 of Math.sin; it is the
+ * cheapest per sample but coarser.
+ */
+public final class Oscillator {
+    /**
+     * How sine samples are produced
+     */
+    public enum Mode {
+        RECURRENCE, WAVETABLE
+    }
+
+    static final int RESYNC_INTERVAL = 1024;
+    private static final int TABLE_BITS = 12;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    // Accumulator bits below the table index; the top FRACTION_BITS of them interpolate
+    private static final int INDEX_SHIFT = 64 - TABLE_BITS;
+    private static final int FRACTION_BITS = 24;
+    private static final float FRACTION_SCALE = 1.0f / (1 << FRACTION_BITS);
+    // One cycle plus a guard entry so interpolation never wraps
+    private static final float[] TABLE = new float[TABLE_SIZE + 1];
+
+    static {
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            TABLE[i] = (float) Math.sin(2 * Math.PI * i / TABLE_SIZE);
+        }
+    }
+
+    private Oscillator() {
+    }
+
+    /**
+     * Writes amplitude * sin(2 pi f n / sampleRate + phase) for n in [0, count)
+     * into dst[offset + n]
+     */
+    public static void fill(Mode mode, float[] dst, int offset, int count, double freqHz, double sampleRate,
+                            double phase, double amplitude) {
+        generate(mode, dst, offset, count, freqHz, sampleRate, phase, amplitude, false);
+    }
+
+    /**
+     * Adds amplitude * sin(2 pi f n / sampleRate + phase) for n in [0, count)
+     * to dst[offset + n]
+     */
+    public static void add(Mode mode, float[] dst, int offset, int count, double freqHz, double sampleRate,
+                           double phase, double amplitude) {
+        generate(mode, dst, offset, count, freqHz, sampleRate, phase, amplitude, true);
+    }
+
+    private static void generate(Mode mode, float[] dst, int offset, int count, double freqHz, double sampleRate,
+                                 double phase, double amplitude, boolean accumulate) {
+        double step = 2 * Math.PI * freqHz / sampleRate;
+        if (mode == Mode.WAVETABLE) {
+            wavetable(dst, offset, count, step, phase, amplitude, accumulate);
+        } else {
+            recurrence(dst, offset, count, step, phase, amplitude, accumulate);
+        }
+    }
+
+    private static void recurrence(float[] dst, int offset, int count, double step, double phase,
+                                   double amplitude, boolean accumulate) {
+        double cosStep = Math.cos(step);
+        double sinStep = Math.sin(step);
+        for (int start = 0; start < count; start += RESYNC_INTERVAL) {
+            // Exact phasor at the start of each interval; phase computed from the index, not summed
+            double angle = phase + step * start;
+            double re = amplitude * Math.cos(angle);
+            double im = amplitude * Math.sin(angle);
+            int end = Math.min(count, start + RESYNC_INTERVAL);
+            for (int i = offset + start, last = offset + end; i < last; i++) {
+                dst[i] = accumulate ? (float) (dst[i] + im) : (float) im;
+                double nextRe = re * cosStep - im * sinStep;
+                im = re * sinStep + im * cosStep;
+                re = nextRe;
+            }
+        }
+    }
+
+    private static void wavetable(float[] dst, int offset, int count, double step, double phase,
+                                  double amplitude, boolean accumulate) {
+        // Phase as a fraction of a cycle in 64-bit fixed point; long overflow wraps the cycle
+        long increment = toFixed(step);
+        long acc = toFixed(phase);
+        float gain = (float) amplitude;
+        int fractionMask = (1 << FRACTION_BITS) - 1;
+        for (int i = offset, end = offset + count; i < end; i++) {
+            int index = (int) (acc >>> INDEX_SHIFT);
+            float fraction = ((int) (acc >>> (INDEX_SHIFT - FRACTION_BITS)) & fractionMask) * FRACTION_SCALE;
+            float a = TABLE[index];
+            float sample = gain * (a + (TABLE[index + 1] - a) * fraction);
+            dst[i] = accumulate ? dst[i] + sample : sample;
+            acc += increment;
+        }
+    }
+
+    // Radians to a fraction of a cycle scaled by 2^64, reduced modulo one cycle
+    private static long toFixed(double radians) {
+        double cycles = radians / (2 * Math.PI);
+        cycles -= Math.floor(cycles);
+        // Values in [0.5, 1) do not fit a signed long directly, so they are taken one cycle down
+        if (cycles >= 0.5) cycles -= 1.0;
+        return (long) (cycles * 18446744073709551616.0);
+    }
+}
@@ -0,0 +1,409 @@
+package muse2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Measures ITD/ILD accuracy over a grid of synthetic signals.
+ *
+ * The grid is frequencies x ITDs x ILDs x noise levels x shifts. Each combination of the
+ * first four is one signal: it is generated once, its cues are measured, and every
+ * non-zero shift is produced and measured in a single ShiftLadder pass. Signals are
+ * spread over a ForkJoinPool, so a sweep scales with the number of cores. Each signal's
+ * noise is seeded from the sweep seed and its grid position, so a sweep gives the same
+ * results at any parallelism.
+ *
+ * Points go to the sink as they finish, in completion order (Point.getIndex() gives
+ * the grid position); sink calls are serialised, so a sink need not be thread-safe.
+ * The returned Result keeps the errors of every point and builds accuracy surfaces
+ * over any two axes.
+ */
+public class ParameterSweep {
+    public static final int SAMPLE_RATE = AudioProcessor.TARGET_SAMPLE_RATE;
+    public static final double DEFAULT_DURATION_SEC = 0.5;
+    public static final long DEFAULT_SEED = 1L;
+
+    private static final Metrics.Counter POINTS = Metrics.counter(Metrics.SWEEP_POINTS);
+
+    /**
+     * Dimensions of the grid, in index order
+     */
+    public enum Axis {
+        FREQUENCY, ITD, ILD, NOISE, SHIFT
+    }
+
+    /**
+     * Receives each point as soon as it is measured
+     */
+    public interface Sink {
+        void accept(Point point) throws IOException;
+    }
+
+    /**
+     * One measured grid point
+     */
+    public static final class Point {
+        final int index;
+        final double frequencyHz;
+        final double itdUs;
+        final double ildDb;
+        final double noiseLevel;
+        final float shiftHz;
+        final double measuredItdUs;
+        final double measuredIldDb;
+
+        Point(int index, double frequencyHz, double itdUs, double ildDb, double noiseLevel, float shiftHz,
+              double measuredItdUs, double measuredIldDb) {
+            this.index = index;
+            this.frequencyHz = frequencyHz;
+            this.itdUs = itdUs;
+            this.ildDb = ildDb;
+            this.noiseLevel = noiseLevel;
+            this.shiftHz = shiftHz;
+            this.measuredItdUs = measuredItdUs;
+            this.measuredIldDb = measuredIldDb;
+        }
+
+        /** Position in the grid, with the shift varying fastest and the frequency slowest */
+        public int getIndex() { return index; }
+        public double getFrequencyHz() { return frequencyHz; }
+        public double getItdMicroseconds() { return itdUs; }
+        public double getIldDecibels() { return ildDb; }
+        public double getNoiseLevel() { return noiseLevel; }
+        public float getShiftHz() { return shiftHz; }
+        public double getMeasuredItdMicroseconds() { return measuredItdUs; }
+        public double getMeasuredIldDecibels() { return measuredIldDb; }
+        /** Measured minus generated ITD */
+        public double getItdError() { return measuredItdUs - itdUs; }
+        /** Measured minus generated ILD */
+        public double getIldError() { return measuredIldDb - ildDb; }
+
+        public String toCsvRow() {
+            return String.format(Locale.ROOT, "%d,%.1f,%.1f,%.2f,%.3f,%.1f,%.2f,%.3f",
+                index, frequencyHz, itdUs, ildDb, noiseLevel, shiftHz, measuredItdUs, measuredIldDb);
+        }
+
+        public static String csvHeader() {
+            return "index,frequency_hz,itd_us,ild_db,noise,shift_hz,measured_itd_us,measured_ild_db";
+        }
+    }
+
+    private final int parallelism;
+    private double[] frequenciesHz = {500, 1000, 2000, 4000};
+    private double[] itdsUs = {0};
+    private double[] ildsDb = {0};
+    private double[] noiseLevels = {0};
+    private float[] shiftsHz = {0};
+    private double durationSec = DEFAULT_DURATION_SEC;
+    private long seed = DEFAULT_SEED;
+
+    /**
+     * @param parallelism Worker threads; 1 runs the sweep on the calling thread
+     */
+    public ParameterSweep(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public void setFrequencies(double... frequenciesHz) {
+        this.frequenciesHz = checked(frequenciesHz, "frequency");
+    }
+
+    /** ITDs in microseconds; positive delays the right ear */
+    public void setItds(double... itdsUs) {
+        this.itdsUs = checked(itdsUs, "ITD");
+    }
+
+    /** ILDs in dB; positive makes the left ear louder */
+    public void setIlds(double... ildsDb) {
+        this.ildsDb = checked(ildsDb, "ILD");
+    }
+
+    /** Noise levels from 0 (a clean sine) to 1 */
+    public void setNoiseLevels(double... noiseLevels) {
+        this.noiseLevels = checked(noiseLevels, "noise level");
+    }
+
+    /** Frequency shifts in Hz, each in [0, 1 kHz); 0 measures the unshifted signal */
+    public void setShifts(float... shiftsHz) {
+        if (shiftsHz.length == 0) {
+            throw new IllegalArgumentException("At least one shift amount is required");
+        }
+        // Checked here so a bad grid fails before the sweep starts, not inside the pool
+        for (float hz : shiftsHz) {
+            if (!(hz < FrequencyShifter.CENTER_FREQ)) {
+                throw new IllegalArgumentException("Shift must be below " + FrequencyShifter.CENTER_FREQ + " Hz: " + hz);
+            }
+            if (hz < 0) {
+                throw new IllegalArgumentException("Shift must not be negative: " + hz);
+            }
+        }
+        this.shiftsHz = shiftsHz.clone();
+    }
+
+    public void setDuration(double durationSec) {
+        if (!(durationSec > 0)) {
+            throw new IllegalArgumentException("Invalid duration: " + durationSec);
+        }
+        this.durationSec = durationSec;
+    }
+
+    /** Seed the noise of every signal is derived from */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    private static double[] checked(double[] values, String name) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("At least one " + name + " is required");
+        }
+        return values.clone();
+    }
+
+    /** Number of grid points */
+    public int size() {
+        long size = (long) frequenciesHz.length * itdsUs.length * ildsDb.length * noiseLevels.length * shiftsHz.length;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Grid too large: " + size + " points");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Measures every grid point
+     * @param sink Receives the points as they finish, or null
+     * @return Errors of every point
+     */
+    public Result run(Sink sink) throws IOException {
+        Result result = new Result(this);
+        int signals = result.points / shiftsHz.length;
+        // One independent noise stream per signal, fixed before any work is scheduled
+        long[] seeds = new long[signals];
+        SplittableRandom root = new SplittableRandom(seed);
+        for (int s = 0; s < signals; s++) {
+            seeds[s] = root.nextLong();
+        }
+        long start = System.nanoTime();
+        if (parallelism == 1) {
+            for (int s = 0; s < signals; s++) {
+                measureSignal(s, seeds[s], result, sink);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                // A parallel stream started inside the pool runs on its workers
+                pool.submit(() -> IntStream.range(0, signals).parallel().forEach(s -> {
+                    try {
+                        measureSignal(s, seeds[s], result, sink);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Sweep interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IOException("Sweep failed", cause);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // Generates one signal and measures it unshifted and at every shift
+    private void measureSignal(int signal, long noiseSeed, Result result, Sink sink) throws IOException {
+        int n = signal;
+        int noiseIndex = n % noiseLevels.length;
+        n /= noiseLevels.length;
+        int ildIndex = n % ildsDb.length;
+        n /= ildsDb.length;
+        int itdIndex = n % itdsUs.length;
+        int frequencyIndex = n / itdsUs.length;
+
+        double frequency = frequenciesHz[frequencyIndex];
+        double itd = itdsUs[itdIndex];
+        double ild = ildsDb[ildIndex];
+        double noise = noiseLevels[noiseIndex];
+        float[][] stereo = noise > 0
+            ? SyntheticSignalGenerator.generateNoisySignal(durationSec, SAMPLE_RATE, (float) frequency, itd, ild, noise, noiseSeed)
+            : SyntheticSignalGenerator.generateSineStereo(durationSec, SAMPLE_RATE, (float) frequency, itd, ild);
+
+        SpatialCueAnalyzer.SpatialCues[] cues = new SpatialCueAnalyzer.SpatialCues[shiftsHz.length];
+        float[] shifted = new float[shiftsHz.length];
+        int[] targets = new int[shiftsHz.length];
+        int count = 0;
+        SpatialCueAnalyzer.SpatialCues unshifted = null;
+        for (int s = 0; s < shiftsHz.length; s++) {
+            if (shiftsHz[s] == 0.0f) {
+                if (unshifted == null) {
+                    unshifted = SpatialCueAnalyzer.analyzeSpatialCues(stereo[0], stereo[1], SAMPLE_RATE);
+                }
+                cues[s] = unshifted;
+            } else {
+                shifted[count] = shiftsHz[s];
+                targets[count++] = s;
+            }
+        }
+        if (count > 0) {
+            ShiftLadder ladder = new ShiftLadder(Arrays.copyOf(shifted, count), null);
+            ladder.accept(stereo[0], stereo[1], 0, Math.min(stereo[0].length, stereo[1].length));
+            ladder.finish();
+            for (int t = 0; t < count; t++) {
+                cues[targets[t]] = ladder.getCues(t, SAMPLE_RATE);
+            }
+        }
+
+        for (int s = 0; s < shiftsHz.length; s++) {
+            int index = signal * shiftsHz.length + s;
+            Point point = new Point(index, frequency, itd, ild, noise, shiftsHz[s],
+                cues[s].getItdMicroseconds(), cues[s].getIldDecibels());
+            result.itdErrors[index] = point.getItdError();
+            result.ildErrors[index] = point.getIldError();
+            POINTS.increment();
+            if (sink != null) {
+                synchronized (sink) {
+                    sink.accept(point);
+                }
+            }
+        }
+    }
+
+    /**
+     * Errors of every point of a finished sweep
+     */
+    public static final class Result {
+        final double[][] axes;
+        final int points;
+        final double[] itdErrors;
+        final double[] ildErrors;
+        long elapsedNanos;
+
+        Result(ParameterSweep sweep) {
+            double[] shifts = new double[sweep.shiftsHz.length];
+            for (int i = 0; i < shifts.length; i++) {
+                shifts[i] = sweep.shiftsHz[i];
+            }
+            axes = new double[][] {sweep.frequenciesHz, sweep.itdsUs, sweep.ildsDb, sweep.noiseLevels, shifts};
+            points = sweep.size();
+            itdErrors = new double[points];
+            ildErrors = new double[points];
+        }
+
+        public int getPointCount() { return points; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        /** Measured minus generated ITD of a point, by grid index */
+        public double getItdError(int index) { return itdErrors[index]; }
+
+        /** Measured minus generated ILD of a point, by grid index */
+        public double getIldError(int index) { return ildErrors[index]; }
+
+        /** Grid values along one axis */
+        public double[] getValues(Axis axis) {
+            return axes[axis.ordinal()].clone();
+        }
+
+        /**
+         * Mean and maximum absolute errors for each pair of values of two axes, over all
+         * values of the other three
+         */
+        public AccuracySurface surface(Axis rows, Axis columns) {
+            if (rows == columns) {
+                throw new IllegalArgumentException("Surface needs two different axes: " + rows);
+            }
+            AccuracySurface surface = new AccuracySurface(rows, columns, axes[rows.ordinal()], axes[columns.ordinal()]);
+            int[] position = new int[axes.length];
+            for (int index = 0; index < points; index++) {
+                // Decode the index, last axis fastest
+                int n = index;
+                for (int a = axes.length - 1; a >= 0; a--) {
+                    position[a] = n % axes[a].length;
+                    n /= axes[a].length;
+                }
+                surface.add(position[rows.ordinal()], position[columns.ordinal()], itdErrors[index], ildErrors[index]);
+            }
+            return surface;
+        }
+    }
+
+    /**
+     * Absolute ITD and ILD errors aggregated over a two-axis slice of the grid
+     */
+    public static final class AccuracySurface {
+        final Axis rowAxis;
+        final Axis columnAxis;
+        final double[] rowValues;
+        final double[] columnValues;
+        final int[][] counts;
+        final double[][] itdSum;
+        final double[][] itdMax;
+        final double[][] ildSum;
+        final double[][] ildMax;
+
+        AccuracySurface(Axis rowAxis, Axis columnAxis, double[] rowValues, double[] columnValues) {
+            this.rowAxis = rowAxis;
+            this.columnAxis = columnAxis;
+            this.rowValues = rowValues.clone();
+            this.columnValues = columnValues.clone();
+            counts = new int[rowValues.length][columnValues.length];
+            itdSum = new double[rowValues.length][columnValues.length];
+            itdMax = new double[rowValues.length][columnValues.length];
+            ildSum = new double[rowValues.length][columnValues.length];
+            ildMax = new double[rowValues.length][columnValues.length];
+        }
+
+        void add(int row, int column, double itdError, double ildError) {
+            counts[row][column]++;
+            itdSum[row][column] += Math.abs(itdError);
+            itdMax[row][column] = Math.max(itdMax[row][column], Math.abs(itdError));
+            ildSum[row][column] += Math.abs(ildError);
+            ildMax[row][column] = Math.max(ildMax[row][column], Math.abs(ildError));
+        }
+
+        public Axis getRowAxis() { return rowAxis; }
+        public Axis getColumnAxis() { return columnAxis; }
+        public double[] getRowValues() { return rowValues.clone(); }
+        public double[] getColumnValues() { return columnValues.clone(); }
+        public int getCount(int row, int column) { return counts[row][column]; }
+        public double getMeanItdError(int row, int column) { return itdSum[row][column] / counts[row][column]; }
+        public double getMaxItdError(int row, int column) { return itdMax[row][column]; }
+        public double getMeanIldError(int row, int column) { return ildSum[row][column] / counts[row][column]; }
+        public double getMaxIldError(int row, int column) { return ildMax[row][column]; }
+
+        /**
+         * One line per cell: both axis values, point count, then mean and maximum
+         * absolute ITD (us) and ILD (dB) errors. Lines end in '\n' and numbers use '.'
+         * whatever the platform and locale.
+         */
+        public String toCsv() {
+            StringBuilder csv = new StringBuilder();
+            csv.append(rowAxis.name().toLowerCase(Locale.ROOT)).append(',').append(columnAxis.name().toLowerCase(Locale.ROOT))
+                .append(",points,mean_itd_error_us,max_itd_error_us,mean_ild_error_db,max_ild_error_db\n");
+            for (int r = 0; r < rowValues.length; r++) {
+                for (int c = 0; c < columnValues.length; c++) {
+                    csv.append(String.format(Locale.ROOT, "%s,%s,%d,%.2f,%.2f,%.3f,%.3f\n", format(rowValues[r]), format(columnValues[c]),
+                        counts[r][c], getMeanItdError(r, c), itdMax[r][c], getMeanIldError(r, c), ildMax[r][c]));
+                }
+            }
+            return csv.toString();
+        }
+
+        private static String format(double value) {
+            return value == Math.rint(value) ? String.valueOf((long) value) : String.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package muse2;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming polyphase resampler for stereo audio.
+ *
+ * The rate change is reduced to a ratio up/down (48 kHz to 44.1 kHz is 147/160) and each
+ * output sample is a dot product of the input around its position with one phase of a
+ * Kaiser-windowed sinc filter. The up phases are computed once per ratio and shared by
+ * every resampler with that ratio. The filter is centred on each output sample, so the
+ * output is aligned with the input and has ceil(inputFrames * up / down) frames.
+ *
+ * With the default 32 zero crossings each side the stopband starts at the Nyquist
+ * frequency of the lower rate with about 90 dB of attenuation; at 44.1 kHz the passband
+ * is flat to about 18 kHz.
+ * Not thread-safe; use one resampler per stream.
+ */
+public class Resampler {
+    public static final int DEFAULT_HALF_TAPS = 32;
+    public static final int BLOCK_FRAMES = 4096;
+
+    // Half-amplitude point relative to the lower Nyquist frequency, and the Kaiser window shape
+    private static final double ROLLOFF = 0.91;
+    private static final double KAISER_BETA = 9.0;
+
+    private static final Map<String, float[][]> BANKS = new ConcurrentHashMap<>();
+
+    /**
+     * Receives resampled audio as it is produced
+     */
+    public interface Sink {
+        /**
+         * @param left Left samples; only the first count are valid and the array is reused
+         * @param right Right samples; only the first count are valid and the array is reused
+         * @param count Number of frames
+         */
+        void write(float[] left, float[] right, int count) throws IOException;
+    }
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int up;
+    private final int down;
+    private final int half;
+    private final int taps;
+    private final float[][] bank;
+    private final Sink sink;
+
+    // Input history: work[k] holds input frame base + k
+    private final float[] workLeft;
+    private final float[] workRight;
+    private long base;
+    private int available;
+    // Next output frame sits at input position center + phase / up
+    private long center = 0;
+    private int phase = 0;
+    private long framesIn = 0;
+    private long framesOut = 0;
+    private boolean finished = false;
+
+    private final float[] outLeft = new float[BLOCK_FRAMES];
+    private final float[] outRight = new float[BLOCK_FRAMES];
+    private int pending = 0;
+
+    public Resampler(int inputRate, int outputRate, Sink sink) {
+        this(inputRate, outputRate, DEFAULT_HALF_TAPS, sink);
+    }
+
+    /**
+     * @param inputRate Input sample rate in Hz
+     * @param outputRate Output sample rate in Hz
+     * @param halfTaps Zero crossings of the filter on each side; more is sharper and slower
+     * @param sink Receives the resampled audio
+     */
+    public Resampler(int inputRate, int outputRate, int halfTaps, Sink sink) {
+        if (inputRate <= 0 || outputRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rates: " + inputRate + " -> " + outputRate);
+        }
+        if (halfTaps < 2) {
+            throw new IllegalArgumentException("Filter needs at least 2 zero crossings each side: " + halfTaps);
+        }
+        int gcd = gcd(inputRate, outputRate);
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.up = outputRate / gcd;
+        this.down = inputRate / gcd;
+        // Downsampling stretches the filter so its cutoff follows the output Nyquist frequency
+        this.half = (int) Math.ceil(halfTaps * Math.max(1.0, (double) down / up));
+        this.taps = 2 * half;
+        this.bank = BANKS.computeIfAbsent(up + "/" + down + "/" + halfTaps, k -> designBank(up, down, half, halfTaps));
+        this.sink = sink;
+        workLeft = new float[taps + BLOCK_FRAMES];
+        workRight = new float[taps + BLOCK_FRAMES];
+        // The first outputs look back half frames before the start; treat those as silence
+        base = -(half - 1);
+        available = half - 1;
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    /** Filter length in input frames */
+    public int getTaps() {
+        return taps;
+    }
+
+    /** Frames the whole stream of inputFrames frames produces */
+    public static long outputFrames(long inputFrames, int inputRate, int outputRate) {
+        int gcd = gcd(inputRate, outputRate);
+        long up = outputRate / gcd;
+        long down = inputRate / gcd;
+        return (inputFrames * up + down - 1) / down;
+    }
+
+    /**
+     * Resamples the next frames of the stream
+     */
+    public void accept(float[] left, float[] right, int offset, int count) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Resampler already finished");
+        }
+        int done = 0;
+        while (done < count) {
+            int n = Math.min(count - done, workLeft.length - available);
+            System.arraycopy(left, offset + done, workLeft, available, n);
+            System.arraycopy(right, offset + done, workRight, available, n);
+            available += n;
+            done += n;
+            framesIn += n;
+            produce(Long.MAX_VALUE);
+            compact();
+        }
+    }
+
+    /**
+     * Resamples a whole buffer, read in place when it is heap planar
+     */
+    public void accept(StereoBuffer audio) throws IOException {
+        if (audio.hasArray()) {
+            accept(audio.leftArray(), audio.rightArray(), audio.arrayOffset(), audio.frames());
+            return;
+        }
+        float[] left = new float[Math.min(BLOCK_FRAMES, audio.frames())];
+        float[] right = new float[left.length];
+        for (int done = 0; done < audio.frames(); done += left.length) {
+            int n = Math.min(left.length, audio.frames() - done);
+            audio.getLeft(done, left, 0, n);
+            audio.getRight(done, right, 0, n);
+            accept(left, right, 0, n);
+        }
+    }
+
+    /**
+     * Produces the remaining output, treating the input as silent after its end. No
+     * more input is accepted afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        finished = true;
+        long total = outputFrames(framesIn, inputRate, outputRate);
+        while (framesOut < total) {
+            // Pad with silence for the lookahead of the last outputs
+            int n = Math.min(half + 1, workLeft.length - available);
+            java.util.Arrays.fill(workLeft, available, available + n, 0.0f);
+            java.util.Arrays.fill(workRight, available, available + n, 0.0f);
+            available += n;
+            produce(total);
+            compact();
+        }
+        flush();
+    }
+
+    // Emits every output whose filter span is inside the history, up to limit frames in total
+    private void produce(long limit) throws IOException {
+        int step = down / up;
+        int stepPhase = down % up;
+        while (framesOut < limit) {
+            // Span is center - half + 1 .. center + half
+            int start = (int) (center - half + 1 - base);
+            if (start + taps > available) break;
+            float[] coefficients = bank[phase];
+            outLeft[pending] = (float) SignalKernels.dot(workLeft, start, coefficients, 0, taps);
+            outRight[pending] = (float) SignalKernels.dot(workRight, start, coefficients, 0, taps);
+            framesOut++;
+            if (++pending == BLOCK_FRAMES) flush();
+            center += step;
+            phase += stepPhase;
+            if (phase >= up) {
+                phase -= up;
+                center++;
+            }
+        }
+    }
+
+    // Drops history the next output no longer needs
+    private void compact() {
+        int drop = (int) Math.min(available, Math.max(0, center - half + 1 - base));
+        if (drop == 0) return;
+        System.arraycopy(workLeft, drop, workLeft, 0, available - drop);
+        System.arraycopy(workRight, drop, workRight, 0, available - drop);
+        available -= drop;
+        base += drop;
+    }
+
+    private void flush() throws IOException {
+        if (pending > 0) {
+            sink.write(outLeft, outRight, pending);
+            pending = 0;
+        }
+    }
+
+    /**
+     * Resamples a whole buffer into a new one
+     * @param pool Pool for the output, or null to allocate it
+     */
+    public static StereoBuffer resample(StereoBuffer audio, int inputRate, int outputRate,
+                                        StereoBuffer.Pool pool) throws IOException {
+        int frames = (int) outputFrames(audio.frames(), inputRate, outputRate);
+        StereoBuffer out = pool != null ? pool.acquire(frames) : StereoBuffer.allocate(frames);
+        int[] written = {0};
+        Resampler resampler = new Resampler(inputRate, outputRate, (left, right, count) -> {
+            out.put(written[0], left, right, 0, count);
+            written[0] += count;
+        });
+        resampler.accept(audio);
+        resampler.finish();
+        return out;
+    }
+
+    // Phase p holds the taps for an output p / up of an input frame after the centre frame
+    private static float[][] designBank(int up, int down, int half, int halfTaps) {
+        double cutoff = 0.5 * ROLLOFF * Math.min(1.0, (double) up / down); // cycles per input frame
+        double width = half; // window half-width in input frames
+        double i0Beta = besselI0(KAISER_BETA);
+        float[][] bank = new float[up][2 * half];
+        for (int p = 0; p < up; p++) {
+            double offset = (double) p / up;
+            double sum = 0.0;
+            double[] h = new double[2 * half];
+            for (int k = 0; k < h.length; k++) {
+                // Distance from the output position to input frame center - half + 1 + k
+                double t = (k - half + 1) - offset;
+                double x = t / width;
+                if (Math.abs(x) >= 1.0) continue;
+                double window = besselI0(KAISER_BETA * Math.sqrt(1.0 - x * x)) / i0Beta;
+                double arg = 2.0 * cutoff * t;
+                double sinc = arg == 0.0 ? 1.0 : Math.sin(Math.PI * arg) / (Math.PI * arg);
+                h[k] = 2.0 * cutoff * sinc * window;
+                sum += h[k];
+            }
+            // Unity gain at DC for every phase
+            for (int k = 0; k < h.length; k++) {
+                bank[p][k] = (float) (h[k] / sum);
+            }
+        }
+        return bank;
+    }
+
+    // Modified Bessel function of the first kind, order 0
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        double q = x * x / 4.0;
+        for (int k = 1; k < 50; k++) {
+            term *= q / ((double) k * k);
+            sum += term;
+            if (term < sum * 1e-17) break;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,360 @@
+package muse2;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Batch results in a columnar binary file, read through a memory mapping.
+ *
+ * Holds the same columns as the CSV written by CsvExporter. Each column is stored as one
+ * contiguous little-endian array (filenames as int indices into a dictionary), so a
+ * column can be scanned as a DoubleBuffer/FloatBuffer/IntBuffer view without parsing.
+ *
+ * Layout: a 32-byte header (magic "M2RS", version, row count, column count, dictionary
+ * offset), a directory of (type, data offset) per column in COLUMNS order, the column
+ * arrays each starting on an 8-byte boundary, then the dictionary as a count followed by
+ * length-prefixed UTF-8 names. Files are limited to 2 GB (one mapping).
+ */
+public class ResultsTable implements AutoCloseable {
+    public static final String FILE_EXTENSION = ".m2r";
+    public static final String[] COLUMNS = {
+        "filename", "shift_amount_hz", "original_itd", "original_ild",
+        "shifted_itd", "shifted_ild", "itd_change", "ild_change"
+    };
+
+    private static final int MAGIC = 0x5352324D; // "M2RS" little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int TYPE_DICTIONARY = 0;
+    private static final int TYPE_FLOAT32 = 1;
+    private static final int TYPE_FLOAT64 = 2;
+    private static final int[] COLUMN_TYPES = {
+        TYPE_DICTIONARY, TYPE_FLOAT32, TYPE_FLOAT64, TYPE_FLOAT64,
+        TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64, TYPE_FLOAT64
+    };
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int rowCount;
+    private final long[] columnOffsets = new long[COLUMNS.length];
+    private final String[] filenames;
+
+    /**
+     * Maps an existing results file; only the header and dictionary are decoded
+     */
+    public ResultsTable(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Results file too large to map: " + filename);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a results table: " + filename);
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported results table version " + buffer.getInt(4));
+            }
+            long rows = buffer.getLong(8);
+            int columns = buffer.getInt(16);
+            long dictionaryOffset = buffer.getLong(24);
+            if (rows > Integer.MAX_VALUE || columns != COLUMNS.length) {
+                throw new IOException("Corrupt results table header: " + filename);
+            }
+            rowCount = (int) rows;
+            for (int c = 0; c < columns; c++) {
+                int at = HEADER_BYTES + c * 16;
+                if (buffer.getInt(at) != COLUMN_TYPES[c]) {
+                    throw new IOException("Unexpected type for column " + COLUMNS[c]);
+                }
+                columnOffsets[c] = buffer.getLong(at + 8);
+                if (columnOffsets[c] + (long) rowCount * width(COLUMN_TYPES[c]) > dictionaryOffset) {
+                    throw new IOException("Column " + COLUMNS[c] + " runs past the end of the data");
+                }
+            }
+
+            ByteBuffer dictionary = slice((int) dictionaryOffset, buffer.limit() - (int) dictionaryOffset);
+            filenames = new String[dictionary.getInt()];
+            for (int i = 0; i < filenames.length; i++) {
+                byte[] bytes = new byte[dictionary.getInt()];
+                dictionary.get(bytes);
+                filenames[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /** Position of a column in COLUMNS, or -1 */
+    public static int columnIndex(String name) {
+        return Arrays.asList(COLUMNS).indexOf(name);
+    }
+
+    /**
+     * Read-only view of a float64 column (all columns except filename and shift_amount_hz)
+     */
+    public DoubleBuffer getDoubleColumn(String name) {
+        return slice(column(name, TYPE_FLOAT64), rowCount * 8).asDoubleBuffer();
+    }
+
+    /**
+     * Read-only view of the shift_amount_hz column
+     */
+    public FloatBuffer getShiftColumn() {
+        return slice(column(COLUMNS[1], TYPE_FLOAT32), rowCount * 4).asFloatBuffer();
+    }
+
+    /**
+     * Read-only view of the filename column as indices into getFilenames()
+     */
+    public IntBuffer getFilenameIndexColumn() {
+        return slice(column(COLUMNS[0], TYPE_DICTIONARY), rowCount * 4).asIntBuffer();
+    }
+
+    /** Distinct filenames in order of first appearance */
+    public String[] getFilenames() {
+        return filenames.clone();
+    }
+
+    public String getFilename(int row) {
+        return filenames[buffer.getInt((int) columnOffsets[0] + checkRow(row) * 4)];
+    }
+
+    public float getShiftHz(int row) {
+        return buffer.getFloat((int) columnOffsets[1] + checkRow(row) * 4);
+    }
+
+    public double getDouble(String name, int row) {
+        return buffer.getDouble(column(name, TYPE_FLOAT64) + checkRow(row) * 8);
+    }
+
+    private int column(String name, int type) {
+        int c = columnIndex(name);
+        if (c < 0 || COLUMN_TYPES[c] != type) {
+            throw new IllegalArgumentException("No " + typeName(type) + " column named " + name);
+        }
+        return (int) columnOffsets[c];
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+        }
+        return row;
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int width(int type) {
+        return type == TYPE_FLOAT64 ? 8 : 4;
+    }
+
+    private static String typeName(int type) {
+        return type == TYPE_FLOAT64 ? "float64" : type == TYPE_FLOAT32 ? "float32" : "filename";
+    }
+
+    /**
+     * Collects result rows and writes the table on close(). Same row signature as
+     * CsvExporter.appendRow, so both can be fed side by side. Thread-safe.
+     */
+    public static class Writer implements AutoCloseable {
+        private final String filename;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private String[] names = new String[16];
+        private int[] nameIndex = new int[1024];
+        private float[] shifts = new float[1024];
+        private double[][] values = new double[COLUMNS.length - 2][1024];
+        private int rows = 0;
+        private boolean closed = false;
+
+        public Writer(String filename) {
+            this.filename = filename;
+        }
+
+        public void appendRow(String name, float shiftAmountHz, double originalItd, double originalIld,
+                              double shiftedItd, double shiftedIld) {
+            appendRow(name, shiftAmountHz, originalItd, originalIld, shiftedItd, shiftedIld,
+                shiftedItd - originalItd, shiftedIld - originalIld);
+        }
+
+        /**
+         * Appends one data row of a results CSV, values as written there
+         */
+        void appendCsvRow(String line) throws IOException {
+            // The filename may itself contain commas; the numeric fields never do
+            String[] parts = line.split(",");
+            if (parts.length < COLUMNS.length) {
+                throw new IOException("Malformed results row: " + line);
+            }
+            int first = parts.length - (COLUMNS.length - 1);
+            String name = String.join(",", Arrays.copyOfRange(parts, 0, first));
+            appendRow(name, Float.parseFloat(parts[first]),
+                Double.parseDouble(parts[first + 1]), Double.parseDouble(parts[first + 2]),
+                Double.parseDouble(parts[first + 3]), Double.parseDouble(parts[first + 4]),
+                Double.parseDouble(parts[first + 5]), Double.parseDouble(parts[first + 6]));
+        }
+
+        // Changes passed in, so converted CSV rows keep the rounded values they were written with
+        synchronized void appendRow(String name, float shiftAmountHz, double originalItd, double originalIld,
+                                    double shiftedItd, double shiftedIld, double itdChange, double ildChange) {
+            if (closed) {
+                throw new IllegalStateException("Results table already written");
+            }
+            if (rows == nameIndex.length) {
+                int grown = rows * 2;
+                nameIndex = Arrays.copyOf(nameIndex, grown);
+                shifts = Arrays.copyOf(shifts, grown);
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = Arrays.copyOf(values[c], grown);
+                }
+            }
+            Integer id = dictionary.get(name);
+            if (id == null) {
+                id = dictionary.size();
+                dictionary.put(name, id);
+                if (id == names.length) names = Arrays.copyOf(names, id * 2);
+                names[id] = name;
+            }
+            nameIndex[rows] = id;
+            shifts[rows] = shiftAmountHz;
+            values[0][rows] = originalItd;
+            values[1][rows] = originalIld;
+            values[2][rows] = shiftedItd;
+            values[3][rows] = shiftedIld;
+            values[4][rows] = itdChange;
+            values[5][rows] = ildChange;
+            rows++;
+        }
+
+        public synchronized int getRowCount() {
+            return rows;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) return;
+            closed = true;
+
+            long[] offsets = new long[COLUMNS.length];
+            long at = align(HEADER_BYTES + COLUMNS.length * 16L);
+            for (int c = 0; c < COLUMNS.length; c++) {
+                offsets[c] = at;
+                at = align(at + (long) rows * width(COLUMN_TYPES[c]));
+            }
+            long dictionaryOffset = at;
+
+            try (FileChannel out = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+                block.putInt(MAGIC).putInt(VERSION).putLong(rows).putInt(COLUMNS.length).putInt(0).putLong(dictionaryOffset);
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    block.putInt(COLUMN_TYPES[c]).putInt(0).putLong(offsets[c]);
+                }
+                long written = HEADER_BYTES + COLUMNS.length * 16L;
+                for (int c = 0; c < COLUMNS.length; c++) {
+                    written = pad(out, block, written, offsets[c]);
+                    for (int r = 0; r < rows; r++) {
+                        if (block.remaining() < 8) drain(out, block);
+                        if (c == 0) block.putInt(nameIndex[r]);
+                        else if (c == 1) block.putFloat(shifts[r]);
+                        else block.putDouble(values[c - 2][r]);
+                    }
+                    written += (long) rows * width(COLUMN_TYPES[c]);
+                }
+                pad(out, block, written, dictionaryOffset);
+
+                if (block.remaining() < 4) drain(out, block);
+                block.putInt(dictionary.size());
+                for (int i = 0; i < dictionary.size(); i++) {
+                    byte[] bytes = names[i].getBytes(StandardCharsets.UTF_8);
+                    if (block.remaining() < 4) drain(out, block);
+                    block.putInt(bytes.length);
+                    for (int done = 0; done < bytes.length; ) {
+                        if (!block.hasRemaining()) drain(out, block);
+                        int n = Math.min(block.remaining(), bytes.length - done);
+                        block.put(bytes, done, n);
+                        done += n;
+                    }
+                }
+                drain(out, block);
+            }
+        }
+
+        private static long pad(FileChannel out, ByteBuffer block, long position, long target) throws IOException {
+            for (; position < target; position++) {
+                if (!block.hasRemaining()) drain(out, block);
+                block.put((byte) 0);
+            }
+            return position;
+        }
+
+        private static void drain(FileChannel out, ByteBuffer block) throws IOException {
+            block.flip();
+            while (block.hasRemaining()) {
+                out.write(block);
+            }
+            block.clear();
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+    }
+
+    /**
+     * Converts a results CSV (CsvExporter layout) into a results table
+     * @return Number of rows converted
+     */
+    public static int convertCsv(String csvFile, String tableFile) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFile));
+             Writer writer = new Writer(tableFile)) {
+            String line = reader.readLine(); // Skip header
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                writer.appendCsvRow(line);
+            }
+            return writer.getRowCount();
+        }
+    }
+
+    /**
+     * Converts a results CSV: ResultsTable <results.csv> <results.m2r>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java -cp <classpath> muse2.ResultsTable <results.csv> <results" + FILE_EXTENSION + ">");
+            return;
+        }
+        int rows = convertCsv(args[0], args[1]);
+        System.out.println("Converted " + rows + " rows to " + args[1]);
+    }
+}
@@ -0,0 +1,227 @@
+package muse2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Converts interleaved WAV sample data to floats in [-1, 1).
+ *
+ * There is one kernel per sample format, chosen once when a file is opened, so the
+ * decode loops never branch on the format. 16 and 32-bit integer and 32-bit float
+ * kernels read through ShortBuffer/IntBuffer/FloatBuffer views in the file's byte order;
+ * 24-bit kernels assemble each sample from bytes in a fixed order.
+ *
+ * decode() reads one channel of an interleaved block, stepping over the other
+ * channels, so extracting an ear pair from a multi-channel file never converts the
+ * channels that are not used.
+ */
+public abstract class SampleDecoder {
+    private final int bytesPerSample;
+    private final ByteOrder order;
+
+    private SampleDecoder(int bytesPerSample, ByteOrder order) {
+        this.bytesPerSample = bytesPerSample;
+        this.order = order;
+    }
+
+    /**
+     * Decoder for a file's sample format
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static SampleDecoder forHeader(WavHeader header) {
+        if (header.getFormatTag() != WavHeader.FORMAT_PCM && !header.isFloat()) {
+            throw new IllegalArgumentException("Unsupported WAV format tag: " + header.getFormatTag());
+        }
+        return forFormat(header.getBytesPerSample(), header.isFloat(), header.getByteOrder());
+    }
+
+    /**
+     * @param bytesPerSample Sample container size: 1 to 4 bytes, 4 for float
+     * @param isFloat IEEE float rather than integer PCM
+     * @param order Byte order of the samples
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static SampleDecoder forFormat(int bytesPerSample, boolean isFloat, ByteOrder order) {
+        boolean little = order == ByteOrder.LITTLE_ENDIAN;
+        if (isFloat) {
+            if (bytesPerSample == 4) return new Float32(order);
+        } else {
+            switch (bytesPerSample) {
+                case 1: return new Unsigned8(order);
+                case 2: return new Pcm16(order);
+                case 3: return little ? new Pcm24LE() : new Pcm24BE();
+                case 4: return new Pcm32(order);
+                default: break;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported sample format: " + bytesPerSample * 8 + "-bit "
+            + (isFloat ? "float" : "PCM"));
+    }
+
+    public int getBytesPerSample() {
+        return bytesPerSample;
+    }
+
+    public ByteOrder getByteOrder() {
+        return order;
+    }
+
+    /**
+     * Decodes one channel of interleaved frames
+     * @param data Sample data; its position, limit and byte order are not used or changed
+     * @param offset Byte offset of the channel's sample in the first frame
+     * @param frames Number of frames
+     * @param stride Samples per frame, i.e. the file's channel count
+     * @param dst Destination array
+     * @param dstOffset First index written in dst
+     */
+    public abstract void decode(ByteBuffer data, int offset, int frames, int stride, float[] dst, int dstOffset);
+
+    /**
+     * Decodes two channels of interleaved frames, skipping all others
+     * @param data Sample data starting at offset; its state is not used or changed
+     * @param offset Byte offset of the first frame
+     * @param frames Number of frames
+     * @param channels Channels in the file
+     * @param leftChannel Channel decoded into left
+     * @param rightChannel Channel decoded into right
+     */
+    public void decodePair(ByteBuffer data, int offset, int frames, int channels, int leftChannel, int rightChannel,
+                           float[] left, float[] right, int dstOffset) {
+        decode(data, offset + leftChannel * bytesPerSample, frames, channels, left, dstOffset);
+        decode(data, offset + rightChannel * bytesPerSample, frames, channels, right, dstOffset);
+    }
+
+    /**
+     * Single sample at an absolute byte offset; data must already be in getByteOrder()
+     */
+    public abstract float decodeSample(ByteBuffer data, int offset);
+
+    // Independent view of data from offset on, in this decoder's byte order
+    final ByteBuffer view(ByteBuffer data, int offset) {
+        ByteBuffer view = data.duplicate();
+        view.limit(view.capacity()).position(offset);
+        return view.slice().order(order);
+    }
+
+    private static final class Unsigned8 extends SampleDecoder {
+        Unsigned8(ByteOrder order) {
+            super(1, order);
+        }
+
+        @Override
+        public void decode(ByteBuffer data, int offset, int frames, int stride, float[] dst, int dstOffset) {
+            for (int i = 0, j = offset; i < frames; i++, j += stride) {
+                dst[dstOffset + i] = (data.get(j) & 0xFF) / 128.0f - 1.0f;
+            }
+        }
+
+        @Override
+        public float decodeSample(ByteBuffer data, int offset) {
+            return (data.get(offset) & 0xFF) / 128.0f - 1.0f;
+        }
+    }
+
+    private static final class Pcm16 extends SampleDecoder {
+        Pcm16(ByteOrder order) {
+            super(2, order);
+        }
+
+        @Override
+        public void decode(ByteBuffer data, int offset, int frames, int stride, float[] dst, int dstOffset) {
+            ShortBuffer samples = view(data, offset).asShortBuffer();
+            for (int i = 0, j = 0; i < frames; i++, j += stride) {
+                dst[dstOffset + i] = samples.get(j) / 32768.0f;
+            }
+        }
+
+        @Override
+        public float decodeSample(ByteBuffer data, int offset) {
+            return data.getShort(offset) / 32768.0f;
+        }
+    }
+
+    private static final class Pcm24LE extends SampleDecoder {
+        Pcm24LE() {
+            super(3, ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public void decode(ByteBuffer data, int offset, int frames, int stride, float[] dst, int dstOffset) {
+            int step = stride * 3;
+            for (int i = 0, j = offset; i < frames; i++, j += step) {
+                dst[dstOffset + i] = ((data.get(j) & 0xFF) | ((data.get(j + 1) & 0xFF) << 8) | (data.get(j + 2) << 16)) / 8388608.0f;
+            }
+        }
+
+        @Override
+        public float decodeSample(ByteBuffer data, int offset) {
+            return ((data.get(offset) & 0xFF) | ((data.get(offset + 1) & 0xFF) << 8) | (data.get(offset + 2) << 16)) / 8388608.0f;
+        }
+    }
+
+    private static final class Pcm24BE extends SampleDecoder {
+        Pcm24BE() {
+            super(3, ByteOrder.BIG_ENDIAN);
+        }
+
+        @Override
+        public void decode(ByteBuffer data, int offset, int frames, int stride, float[] dst, int dstOffset) {
+            int step = stride * 3;
+            for (int i = 0, j = offset; i < frames; i++, j += step) {
+                dst[dstOffset + i] = ((data.get(j) << 16) | ((data.get(j + 1) & 0xFF) << 8) | (data.get(j + 2) & 0xFF)) / 8388608.0f;
+            }
+        }
+
+        @Override
+        public float decodeSample(ByteBuffer data, int offset) {
+            return ((data.get(offset) << 16) | ((data.get(offset + 1) & 0xFF) << 8) | (data.get(offset + 2) & 0xFF)) / 8388608.0f;
+        }
+    }
+
+    private static final class Pcm32 extends SampleDecoder {
+        Pcm32(ByteOrder order) {
+            super(4, order);
+        }
+
+        @Override
+        public void decode(ByteBuffer data, int offset, int frames, int stride, float[] dst, int dstOffset) {
+            IntBuffer samples = view(data, offset).asIntBuffer();
+            for (int i = 0, j = 0; i < frames; i++, j += stride) {
+                dst[dstOffset + i] = samples.get(j) / 2147483648.0f;
+            }
+        }
+
+        @Override
+        public float decodeSample(ByteBuffer data, int offset) {
+            return data.getInt(offset) / 2147483648.0f;
+        }
+    }
+
+    private static final class Float32 extends SampleDecoder {
+        Float32(ByteOrder order) {
+            super(4, order);
+        }
+
+        @Override
+        public void decode(ByteBuffer data, int offset, int frames, int stride, float[] dst, int dstOffset) {
+            FloatBuffer samples = view(data, offset).asFloatBuffer();
+            if (stride == 1) {
+                // Mono data is already contiguous floats
+                samples.get(dst, dstOffset, frames);
+                return;
+            }
+            for (int i = 0, j = 0; i < frames; i++, j += stride) {
+                dst[dstOffset + i] = samples.get(j);
+            }
+        }
+
+        @Override
+        public float decodeSample(ByteBuffer data, int offset) {
+            return data.getFloat(offset);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package muse2;
+
+import java.io.IOException;
+
+/**
+ * Produces a whole ladder of frequency shifts in one pass over the input.
+ * One multi-target FrequencyShifter analyses each frame once for every shift, and each
+ * shifted stream is measured by its own SpatialCueAccumulator as it is produced, so the
+ * cost of adding a shift is one synthesis per frame rather than a full re-analysis.
+ *
+ * Output handed to the sink is aligned with the input (the shifter latency is removed).
+ * Not thread-safe; use one ladder per stream.
+ */
+public class ShiftLadder {
+    public static final int BLOCK_FRAMES = 4096;
+
+    /**
+     * Receives shifted audio as it is produced
+     */
+    public interface Sink {
+        /**
+         * @param target Index into the shift amounts
+         * @param left Left samples; only the first count are valid and the array is reused
+         * @param right Right samples; only the first count are valid and the array is reused
+         * @param count Number of frames
+         */
+        void write(int target, float[] left, float[] right, int count) throws IOException;
+    }
+
+    private final float[] shiftsHz;
+    private final FrequencyShifter shifter;
+    private final SpatialCueAccumulator[] cues;
+    private final Sink sink;
+
+    private final float[][] blockLeft;
+    private final float[][] blockRight;
+    private final float[] silence = new float[BLOCK_FRAMES];
+    // Blocks copied out of buffers that are not heap planar, allocated on first use
+    private float[] copyLeft;
+    private float[] copyRight;
+    // Leading output samples still to drop to cancel the shifter latency
+    private int skip;
+    private long frames = 0;
+    private long emitted = 0;
+    private boolean finished = false;
+
+    /**
+     * @param shiftsHz Shift amounts, each relative to 1 kHz
+     * @param sink Receives the shifted audio, or null to only measure cues
+     */
+    public ShiftLadder(float[] shiftsHz, Sink sink) {
+        this.shiftsHz = shiftsHz.clone();
+        this.shifter = new FrequencyShifter(shiftsHz);
+        this.sink = sink;
+        this.skip = shifter.getLatency();
+        cues = new SpatialCueAccumulator[shiftsHz.length];
+        for (int t = 0; t < cues.length; t++) {
+            cues[t] = new SpatialCueAccumulator();
+        }
+        blockLeft = new float[shiftsHz.length][BLOCK_FRAMES];
+        blockRight = new float[shiftsHz.length][BLOCK_FRAMES];
+    }
+
+    public int getTargetCount() {
+        return shiftsHz.length;
+    }
+
+    public float getShiftHz(int target) {
+        return shiftsHz[target];
+    }
+
+    /**
+     * Shifts and measures the next frames of the stream
+     */
+    public void accept(float[] left, float[] right, int offset, int count) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Ladder already finished");
+        }
+        int done = 0;
+        while (done < count) {
+            int n = Math.min(count - done, BLOCK_FRAMES);
+            runBlock(left, right, offset + done, n);
+            done += n;
+        }
+        frames += count;
+    }
+
+    /**
+     * Shifts and measures a buffer of the stream, read in place when it is heap planar
+     */
+    public void accept(StereoBuffer audio) throws IOException {
+        if (audio.hasArray()) {
+            accept(audio.leftArray(), audio.rightArray(), audio.arrayOffset(), audio.frames());
+            return;
+        }
+        if (copyLeft == null) {
+            copyLeft = new float[BLOCK_FRAMES];
+            copyRight = new float[BLOCK_FRAMES];
+        }
+        for (int done = 0; done < audio.frames(); done += BLOCK_FRAMES) {
+            int n = Math.min(BLOCK_FRAMES, audio.frames() - done);
+            audio.getLeft(done, copyLeft, 0, n);
+            audio.getRight(done, copyRight, 0, n);
+            accept(copyLeft, copyRight, 0, n);
+        }
+    }
+
+    /**
+     * Flushes the shifter so every input frame has produced its output. No more input
+     * is accepted afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        // Feed silence until the last real frame has come out, then stop
+        while (emitted < frames) {
+            int n = (int) Math.min(BLOCK_FRAMES, frames - emitted + skip);
+            runBlock(silence, silence, 0, n);
+        }
+        finished = true;
+    }
+
+    private void runBlock(float[] left, float[] right, int offset, int n) throws IOException {
+        shifter.process(left, right, offset, n, blockLeft, blockRight, 0);
+        int start = Math.min(skip, n);
+        skip -= start;
+        int count = n - start;
+        if (count == 0) return;
+        emitted += count;
+        for (int t = 0; t < cues.length; t++) {
+            float[] l = blockLeft[t];
+            float[] r = blockRight[t];
+            if (start > 0) {
+                System.arraycopy(l, start, l, 0, count);
+                System.arraycopy(r, start, r, 0, count);
+            }
+            cues[t].accept(l, r, count);
+            if (sink != null) {
+                sink.write(t, l, r, count);
+            }
+        }
+    }
+
+    /**
+     * Cues of one shifted stream; call after finish()
+     * @param target Index into the shift amounts
+     * @param sampleRate Sample rate of the stream
+     */
+    public SpatialCueAnalyzer.SpatialCues getCues(int target, int sampleRate) {
+        if (!finished) {
+            throw new IllegalStateException("Call finish() before reading cues");
+        }
+        return cues[target].getCues(sampleRate);
+    }
+}
@@ -0,0 +1,165 @@
+package muse2;
+
+/**
+ * Inner loops shared by the cue analyzers.
+ *
+ * Callers pass exact index ranges, so the loops carry no bounds branches. The default
+ * kernels also split each reduction over four independent accumulators, which lets the
+ * JIT keep several multiply-adds in flight instead of waiting on one serial sum. The
+ * reference kernels keep the original single-accumulator order and are selected with
+ * -Dmuse2.kernels=scalar.
+ *
+ * Reordering a sum changes rounding only. The worst-case difference from the reference
+ * result grows with length, about n * 2^-53 times the sum of the absolute terms, which
+ * passes 1e-12 beyond roughly 9,000 samples. Rounding errors of random sign mostly
+ * cancel in practice: on 100,000 samples of Gaussian noise the observed difference
+ * stays within KERNEL_RELATIVE_EPSILON of the sum of the absolute terms.
+ */
+public final class SignalKernels {
+    /**
+     * Observed, not guaranteed, relative difference between the default and reference
+     * kernels on 100,000 Gaussian samples; the first-order worst case is n * 2^-53
+     */
+    public static final double KERNEL_RELATIVE_EPSILON = 1e-12;
+
+    private static final boolean REFERENCE = "scalar".equalsIgnoreCase(System.getProperty("muse2.kernels"));
+
+    private SignalKernels() {
+    }
+
+    /** True when the reference single-accumulator kernels are in use */
+    public static boolean isReference() {
+        return REFERENCE;
+    }
+
+    /**
+     * Sum of a[aOffset + i] * b[bOffset + i] for i in [0, length), products taken in float
+     */
+    public static double dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        if (REFERENCE) {
+            double sum = 0.0;
+            for (int i = 0; i < length; i++) {
+                sum += a[aOffset + i] * b[bOffset + i];
+            }
+            return sum;
+        }
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int d = bOffset - aOffset;
+        int end = aOffset + length;
+        int i = aOffset;
+        for (; i < end - 3; i += 4) {
+            s0 += a[i] * b[i + d];
+            s1 += a[i + 1] * b[i + d + 1];
+            s2 += a[i + 2] * b[i + d + 2];
+            s3 += a[i + 3] * b[i + d + 3];
+        }
+        for (; i < end; i++) {
+            s0 += a[i] * b[i + d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Sum of x[xOffset + i] * (y[yOffset + i] * (1 - fraction) + y[yOffset + i + 1] * fraction)
+     * for i in [0, length): a dot product against linearly interpolated samples of y
+     */
+    public static double interpolatedDot(float[] x, int xOffset, float[] y, int yOffset, int length, double fraction) {
+        double keep = 1 - fraction;
+        if (REFERENCE) {
+            double sum = 0.0;
+            for (int i = 0; i < length; i++) {
+                sum += x[xOffset + i] * (y[yOffset + i] * keep + y[yOffset + i + 1] * fraction);
+            }
+            return sum;
+        }
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int d = yOffset - xOffset;
+        int end = xOffset + length;
+        int i = xOffset;
+        for (; i < end - 3; i += 4) {
+            s0 += x[i] * (y[i + d] * keep + y[i + d + 1] * fraction);
+            s1 += x[i + 1] * (y[i + d + 1] * keep + y[i + d + 2] * fraction);
+            s2 += x[i + 2] * (y[i + d + 2] * keep + y[i + d + 3] * fraction);
+            s3 += x[i + 3] * (y[i + d + 3] * keep + y[i + d + 4] * fraction);
+        }
+        for (; i < end; i++) {
+            s0 += x[i] * (y[i + d] * keep + y[i + d + 1] * fraction);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Sum of x[i] * x[i] for i in [offset, offset + length), squares taken in float
+     */
+    public static double sumOfSquares(float[] x, int offset, int length) {
+        return dot(x, offset, x, offset, length);
+    }
+
+    /**
+     * Sum of (x[i] * weight)^2 for i in [offset, offset + length), taken in double
+     */
+    public static double weightedSumOfSquares(float[] x, int offset, int length, double weight) {
+        if (REFERENCE) {
+            double sum = 0.0;
+            for (int i = offset; i < offset + length; i++) {
+                sum += (x[i] * weight) * (x[i] * weight);
+            }
+            return sum;
+        }
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 3 < end; i += 4) {
+            double v0 = x[i] * weight, v1 = x[i + 1] * weight, v2 = x[i + 2] * weight, v3 = x[i + 3] * weight;
+            s0 += v0 * v0;
+            s1 += v1 * v1;
+            s2 += v2 * v2;
+            s3 += v3 * v3;
+        }
+        for (; i < end; i++) {
+            double v = x[i] * weight;
+            s0 += v * v;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Largest absolute value among the first length samples
+     */
+    public static float maxAbs(float[] x, int length) {
+        if (REFERENCE) {
+            float max = 0.0f;
+            for (int i = 0; i < length; i++) {
+                float abs = Math.abs(x[i]);
+                if (abs > max) max = abs;
+            }
+            return max;
+        }
+        // Comparisons rather than Math.max so NaN samples are skipped as in the reference
+        float m0 = 0.0f, m1 = 0.0f, m2 = 0.0f, m3 = 0.0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            float a0 = Math.abs(x[i]), a1 = Math.abs(x[i + 1]), a2 = Math.abs(x[i + 2]), a3 = Math.abs(x[i + 3]);
+            m0 = a0 > m0 ? a0 : m0;
+            m1 = a1 > m1 ? a1 : m1;
+            m2 = a2 > m2 ? a2 : m2;
+            m3 = a3 > m3 ? a3 : m3;
+        }
+        for (; i < length; i++) {
+            float a = Math.abs(x[i]);
+            m0 = a > m0 ? a : m0;
+        }
+        m0 = m1 > m0 ? m1 : m0;
+        m2 = m3 > m2 ? m3 : m2;
+        return m2 > m0 ? m2 : m0;
+    }
+
+    /**
+     * dst[i] = src[i] / divisor for the first length samples; exact, so both kernels agree
+     */
+    public static void divide(float[] src, float[] dst, int length, float divisor) {
+        for (int i = 0; i < length; i++) {
+            dst[i] = src[i] / divisor;
+        }
+    }
+}
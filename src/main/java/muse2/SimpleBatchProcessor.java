@@ -24,7 +24,7 @@ public class SimpleBatchProcessor {
         }
     }
     
-    public static void processDirectory(String inputDir, String outputCsv) throws IOException {
+    public static void processDirectory(String inputDir, String outputCsv) throws Exception {
         File directory = new File(inputDir);
         if (!directory.exists() || !directory.isDirectory()) {
             throw new IOException("Input directory does not exist: " + inputDir);
@@ -48,15 +48,31 @@ public class SimpleBatchProcessor {
             for (File wavFile : wavFiles) {
                 System.out.println("Processing: " + wavFile.getName());
                 
-                // Load original audio
-                muse2.AudioProcessor processor = new muse2.AudioProcessor(wavFile.getPath());
-                float[] leftChannel = processor.getLeftChannel();
-                float[] rightChannel = processor.getRightChannel();
-                float sampleRate = processor.getSampleRate();
-                
-                // Measure original spatial cues
-                double originalITD = muse2.SpatialCueAnalyzer.computeITD(leftChannel, rightChannel, sampleRate);
-                double originalILD = muse2.SpatialCueAnalyzer.computeILD(leftChannel, rightChannel);
+                // Load original audio and measure its spatial cues, from the cache when one is configured
+                float[] leftChannel;
+                float[] rightChannel;
+                float sampleRate;
+                double originalITD;
+                double originalILD;
+                muse2.AnalysisCache cache = muse2.AnalysisCache.getDefault();
+                if (cache != null) {
+                    muse2.AnalysisCache.Audio audio = cache.loadAudio(wavFile);
+                    leftChannel = audio.getLeft();
+                    rightChannel = audio.getRight();
+                    sampleRate = audio.getSampleRate();
+                    muse2.SpatialCueAnalyzer.SpatialCues cues = cache.getCues(wavFile);
+                    originalITD = cues.getItdMicroseconds();
+                    originalILD = cues.getIldDecibels();
+                } else {
+                    muse2.AudioProcessor processor = new muse2.AudioProcessor(wavFile.getPath());
+                    leftChannel = processor.getLeftChannel();
+                    rightChannel = processor.getRightChannel();
+                    sampleRate = processor.getSampleRate();
+                    
+                    // Measure original spatial cues
+                    originalITD = muse2.SpatialCueAnalyzer.computeITD(leftChannel, rightChannel, sampleRate);
+                    originalILD = muse2.SpatialCueAnalyzer.computeILD(leftChannel, rightChannel);
+                }
                 
                 // Process with different shifts
                 for (float shiftAmount : shiftAmounts) {
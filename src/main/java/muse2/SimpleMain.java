@@ -10,7 +10,12 @@ public class SimpleMain {
         String inputDir = args[0];
         String csvOut = args[1];
         SimpleBatchProcessor processor = new SimpleBatchProcessor();
-        processor.processDirectory(inputDir, csvOut);
-        System.out.println("Processing complete. Results written to " + csvOut);
+        try {
+            processor.processDirectory(inputDir, csvOut);
+            System.out.println("Processing complete. Results written to " + csvOut);
+        } catch (Exception e) {
+            System.err.println("Error during batch processing: " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 } 
\ No newline at end of file
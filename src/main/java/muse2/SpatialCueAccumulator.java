@@ -0,0 +1,117 @@
+package muse2;
+
+/**
+ * Streaming ITD/ILD measurement.
+ * Stereo blocks of any size are fed in with accept(); memory use is fixed by the
+ * correlation block length, not by the signal length. getCues() gives the same
+ * result as SpatialCueAnalyzer with the FFT backend on the concatenated input.
+ *
+ * Not thread-safe; use one accumulator per stream.
+ */
+public class SpatialCueAccumulator {
+    private final int maxLag;
+    private final int block;
+    private final CrossCorrelator correlator = new CrossCorrelator();
+    private final double[] sums;
+
+    // Samples not yet correlated; rightBuf starts maxLag samples before leftBuf
+    private final float[] leftBuf;
+    private final float[] rightBuf;
+    private int leftFill = 0;
+    private int rightFill;
+
+    private long frames = 0;
+    private double leftSumSquares = 0;
+    private double rightSumSquares = 0;
+    private float leftMaxAbs = 0;
+    private float rightMaxAbs = 0;
+
+    public SpatialCueAccumulator() {
+        this(SpatialCueAnalyzer.MAX_LAG_SAMPLES);
+    }
+
+    public SpatialCueAccumulator(int maxLag) {
+        this.maxLag = maxLag;
+        this.block = CrossCorrelator.blockLength(maxLag);
+        this.sums = new double[maxLag * 2 + 1];
+        this.leftBuf = new float[block + maxLag];
+        this.rightBuf = new float[block + maxLag * 2];
+        // Positions before the start of the signal count as silence
+        this.rightFill = maxLag;
+    }
+
+    /**
+     * Adds the next frames of the stream
+     */
+    public void accept(float[] left, float[] right, int count) {
+        leftSumSquares += SignalKernels.sumOfSquares(left, 0, count);
+        rightSumSquares += SignalKernels.sumOfSquares(right, 0, count);
+        leftMaxAbs = Math.max(leftMaxAbs, SignalKernels.maxAbs(left, count));
+        rightMaxAbs = Math.max(rightMaxAbs, SignalKernels.maxAbs(right, count));
+
+        int offset = 0;
+        while (offset < count) {
+            int n = Math.min(count - offset, rightBuf.length - rightFill);
+            System.arraycopy(left, offset, leftBuf, leftFill, n);
+            System.arraycopy(right, offset, rightBuf, rightFill, n);
+            leftFill += n;
+            rightFill += n;
+            offset += n;
+            if (rightFill == rightBuf.length) {
+                flushBlock(block);
+            }
+        }
+        frames += count;
+    }
+
+    // Correlates the first len buffered left samples and slides both buffers forward
+    private void flushBlock(int len) {
+        correlator.accumulate(leftBuf, rightBuf, len, maxLag, sums);
+        System.arraycopy(leftBuf, len, leftBuf, 0, leftFill - len);
+        System.arraycopy(rightBuf, len, rightBuf, 0, rightFill - len);
+        leftFill -= len;
+        rightFill -= len;
+    }
+
+    /** Frames accepted so far */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Finishes the measurement. The accumulator cannot accept more input afterwards.
+     * @param sampleRate Sample rate of the stream
+     */
+    public SpatialCueAnalyzer.SpatialCues getCues(int sampleRate) {
+        if (frames == 0) {
+            throw new IllegalStateException("No audio accepted");
+        }
+        return new SpatialCueAnalyzer.SpatialCues(finishITD(sampleRate), getIldDecibels());
+    }
+
+    public double getIldDecibels() {
+        double leftRMS = Math.sqrt(leftSumSquares / frames);
+        double rightRMS = Math.sqrt(rightSumSquares / frames);
+        return SpatialCueAnalyzer.ildFromRms(leftRMS, rightRMS);
+    }
+
+    private double finishITD(int sampleRate) {
+        // Positions past the end of the signal count as silence
+        while (leftFill > 0) {
+            for (int i = rightFill; i < rightBuf.length; i++) rightBuf[i] = 0.0f;
+            rightFill = rightBuf.length;
+            flushBlock(Math.min(leftFill, block));
+        }
+
+        if (frames <= maxLag * 2) {
+            return 0.0;
+        }
+        double[] correlation = new double[sums.length];
+        if (leftMaxAbs > 0.000001f && rightMaxAbs > 0.000001f) {
+            for (int delay = -maxLag; delay <= maxLag; delay++) {
+                correlation[maxLag + delay] = sums[maxLag + delay] / (frames - Math.abs(delay));
+            }
+        }
+        return SpatialCueAnalyzer.peakToMicroseconds(correlation, maxLag, sampleRate);
+    }
+}
@@ -1,7 +1,6 @@
 package muse2;
 
 import javax.sound.sampled.*;
-import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.logging.Logger;
@@ -9,7 +8,30 @@ import java.util.logging.Logger;
 public class SpatialCueAnalyzer {
     private static final Logger logger = Logger.getLogger(SpatialCueAnalyzer.class.getName());
     private static final int DEFAULT_SAMPLE_RATE = 44100;
-    private static final int MAX_LAG_SAMPLES = 100; // ~2.27ms at 44.1kHz
+    static final int MAX_LAG_SAMPLES = 100; // ~2.27ms at 44.1kHz
+    
+    /**
+     * Cross-correlation backend used for ITD.
+     * FFT returns the same parabolic-interpolated peak as TIME_DOMAIN to within
+     * FFT_ITD_TOLERANCE_US (the only difference is floating-point rounding).
+     */
+    public enum CorrelationMethod {
+        TIME_DOMAIN,
+        FFT
+    }
+    
+    /** Maximum ITD difference (μs) between the FFT and TIME_DOMAIN backends */
+    public static final double FFT_ITD_TOLERANCE_US = 0.01;
+    
+    private static volatile CorrelationMethod defaultCorrelationMethod = CorrelationMethod.TIME_DOMAIN;
+    
+    private static volatile DiagnosticsListener diagnosticsListener;
+    private static final Metrics.Timer ANALYSIS_TIMER = Metrics.timer(Metrics.CUE_ANALYSIS);
+    
+    // FFT tables and scratch buffers are reused per thread
+    private static final ThreadLocal<CrossCorrelator> CORRELATORS = ThreadLocal.withInitial(CrossCorrelator::new);
+    // Normalized copies and views that are not heap planar at offset 0
+    private static final StereoBuffer.Pool SCRATCH = new StereoBuffer.Pool(StereoBuffer.Layout.PLANAR, false, 64L * 1024 * 1024);
     
     public static class SpatialCues {
         private double itdMicroseconds;
@@ -29,6 +51,66 @@ public class SpatialCueAnalyzer {
         }
     }
     
+    /**
+     * Receives the details of every analyzeSpatialCues and analyzeStream call while registered
+     */
+    public interface DiagnosticsListener {
+        /** Called on the analysing thread once the cues are known */
+        void onAnalysis(Diagnostics diagnostics);
+    }
+    
+    /**
+     * Intermediate values of one analysis; only created when a listener is registered
+     */
+    public static class Diagnostics {
+        private final CorrelationMethod method;
+        private final int length;
+        private final int sampleRate;
+        private int peakIndex = -1;
+        private double interpolationOffset = Double.NaN;
+        private boolean edgePeak;
+        private double itdMicroseconds;
+        private double ildDecibels;
+        private long itdNanos;
+        private long ildNanos;
+        
+        Diagnostics(CorrelationMethod method, int length, int sampleRate) {
+            this.method = method;
+            this.length = length;
+            this.sampleRate = sampleRate;
+        }
+        
+        public CorrelationMethod getMethod() { return method; }
+        /** Samples analysed per channel */
+        public int getLength() { return length; }
+        public int getSampleRate() { return sampleRate; }
+        /** Index of the correlation peak, MAX_LAG_SAMPLES at zero lag; -1 if the audio was too short */
+        public int getPeakIndex() { return peakIndex; }
+        /** Parabolic sub-sample offset of the peak; NaN for edge peaks and short audio */
+        public double getInterpolationOffset() { return interpolationOffset; }
+        /** True when the peak was at the end of the lag range, so the ITD may be clipped */
+        public boolean isEdgePeak() { return edgePeak; }
+        public double getItdMicroseconds() { return itdMicroseconds; }
+        public double getIldDecibels() { return ildDecibels; }
+        public long getItdNanos() { return itdNanos; }
+        public long getIldNanos() { return ildNanos; }
+        
+        @Override
+        public String toString() {
+            return String.format("%s, %d samples: ITD = %.2fμs (peak %d, offset %.4f%s) in %.3f ms, ILD = %.2fdB in %.3f ms",
+                method, length, itdMicroseconds, peakIndex, interpolationOffset, edgePeak ? ", at edge" : "",
+                itdNanos / 1e6, ildDecibels, ildNanos / 1e6);
+        }
+    }
+    
+    /**
+     * Registers a listener for per-analysis diagnostics, or removes it with null.
+     * With no listener nothing is measured or allocated.
+     */
+    public static void setDiagnosticsListener(DiagnosticsListener listener) {
+        diagnosticsListener = listener;
+    }
+    
     /**
      * Analyzes ITD and ILD from stereo audio data
      * @param leftChannel Left channel audio data
@@ -37,23 +119,80 @@ public class SpatialCueAnalyzer {
      * @return SpatialCues containing ITD and ILD measurements
      */
     public static SpatialCues analyzeSpatialCues(float[] leftChannel, float[] rightChannel, int sampleRate) {
+        return analyzeSpatialCues(leftChannel, rightChannel, sampleRate, defaultCorrelationMethod);
+    }
+    
+    /**
+     * Analyzes ITD and ILD from stereo audio data with an explicit correlation backend
+     * @param leftChannel Left channel audio data
+     * @param rightChannel Right channel audio data
+     * @param sampleRate Sample rate of the audio
+     * @param method Cross-correlation backend for ITD
+     * @return SpatialCues containing ITD and ILD measurements
+     */
+    public static SpatialCues analyzeSpatialCues(float[] leftChannel, float[] rightChannel, int sampleRate,
+                                                 CorrelationMethod method) {
         // Verify input
         if (leftChannel == null || rightChannel == null || leftChannel.length == 0 || rightChannel.length == 0) {
             throw new IllegalArgumentException("Audio channels cannot be null or empty");
         }
-        
-        // Debug channel data (first few samples)
-        logger.info("Left channel first 5 samples: " + Arrays.toString(Arrays.copyOf(leftChannel, 5)));
-        logger.info("Right channel first 5 samples: " + Arrays.toString(Arrays.copyOf(rightChannel, 5)));
+        return analyze(leftChannel, leftChannel.length, rightChannel, rightChannel.length, sampleRate, method);
+    }
+    
+    /**
+     * Analyzes ITD and ILD of a stereo buffer in any layout or storage
+     * @param audio Stereo audio data
+     * @param sampleRate Sample rate of the audio
+     * @return SpatialCues containing ITD and ILD measurements
+     */
+    public static SpatialCues analyzeSpatialCues(StereoBuffer audio, int sampleRate) {
+        return analyzeSpatialCues(audio, sampleRate, defaultCorrelationMethod);
+    }
+    
+    public static SpatialCues analyzeSpatialCues(StereoBuffer audio, int sampleRate, CorrelationMethod method) {
+        int length = audio.frames();
+        if (length == 0) {
+            throw new IllegalArgumentException("Audio channels cannot be null or empty");
+        }
+        if (audio.hasArray() && audio.arrayOffset() == 0) {
+            return analyze(audio.leftArray(), length, audio.rightArray(), length, sampleRate, method);
+        }
+        // Other layouts, off-heap storage and slices are analysed from a pooled heap copy
+        StereoBuffer copy = SCRATCH.acquire(length);
+        try {
+            copy.put(0, audio);
+            return analyze(copy.leftArray(), length, copy.rightArray(), length, sampleRate, method);
+        } finally {
+            copy.release();
+        }
+    }
+    
+    // Channels are the first leftLength and rightLength samples of the arrays
+    private static SpatialCues analyze(float[] leftChannel, int leftLength, float[] rightChannel, int rightLength,
+                                       int sampleRate, CorrelationMethod method) {
+        long analysisStart = ANALYSIS_TIMER.start();
+        int length = Math.min(leftLength, rightLength);
+        DiagnosticsListener listener = diagnosticsListener;
+        Diagnostics diagnostics = listener == null ? null : new Diagnostics(method, length, sampleRate);
+        long start = diagnostics == null ? 0 : System.nanoTime();
         
         // Calculate ITD using improved algorithm
-        double itd = calculateImprovedITD(leftChannel, rightChannel, sampleRate);
+        double itd = method == CorrelationMethod.FFT
+                ? calculateFftITD(leftChannel, rightChannel, length, sampleRate, diagnostics)
+                : calculateImprovedITD(leftChannel, rightChannel, length, sampleRate, diagnostics);
+        long itdEnd = diagnostics == null ? 0 : System.nanoTime();
         
         // Calculate ILD
-        double ild = calculateILD(leftChannel, rightChannel);
-        
-        // Debug results
-        logger.info(String.format("Analysis results: ITD = %.2fμs, ILD = %.2fdB", itd, ild));
+        double ild = calculateILD(leftChannel, leftLength, rightChannel, rightLength);
+        
+        if (diagnostics != null) {
+            diagnostics.ildNanos = System.nanoTime() - itdEnd;
+            diagnostics.itdNanos = itdEnd - start;
+            diagnostics.itdMicroseconds = itd;
+            diagnostics.ildDecibels = ild;
+            listener.onAnalysis(diagnostics);
+        }
+        ANALYSIS_TIMER.stop(analysisStart);
         
         return new SpatialCues(itd, ild);
     }
@@ -62,61 +201,89 @@ public class SpatialCueAnalyzer {
      * Improved ITD calculation using normalized cross-correlation and parabolic interpolation
      * This avoids the 0.0 problem by ensuring proper normalization and interpolation
      */
-    private static double calculateImprovedITD(float[] leftChannel, float[] rightChannel, int sampleRate) {
-        // Ensure equal length by trimming to the shorter one
-        int length = Math.min(leftChannel.length, rightChannel.length);
+    private static double calculateImprovedITD(float[] leftChannel, float[] rightChannel, int length, int sampleRate,
+                                               Diagnostics diagnostics) {
         if (length <= MAX_LAG_SAMPLES * 2) {
             logger.warning("Audio too short for accurate ITD measurement");
             return 0.0;
         }
         
         // Normalize signals to ensure proper correlation calculation
-        float[] leftNorm = normalize(Arrays.copyOf(leftChannel, length));
-        float[] rightNorm = normalize(Arrays.copyOf(rightChannel, length));
-        
+        StereoBuffer normalized = SCRATCH.acquire(length);
         double[] correlation = new double[MAX_LAG_SAMPLES * 2 + 1];
         int correlationCenter = MAX_LAG_SAMPLES;
-        
-        // Calculate cross-correlation
-        for (int delay = -MAX_LAG_SAMPLES; delay <= MAX_LAG_SAMPLES; delay++) {
-            double sum = 0.0;
-            int count = 0;
+        try {
+            float[] leftNorm = normalized.leftArray();
+            float[] rightNorm = normalized.rightArray();
+            normalize(leftChannel, leftNorm, length);
+            normalize(rightChannel, rightNorm, length);
             
-            for (int i = 0; i < length; i++) {
-                int j = i + delay;
-                if (j >= 0 && j < length) {
-                    sum += leftNorm[i] * rightNorm[j];
-                    count++;
-                }
+            // Calculate cross-correlation over the overlapping range of each delay
+            for (int delay = -MAX_LAG_SAMPLES; delay <= MAX_LAG_SAMPLES; delay++) {
+                int start = Math.max(0, -delay);
+                int count = Math.min(length, length - delay) - start;
+                double sum = SignalKernels.dot(leftNorm, start, rightNorm, start + delay, count);
+                
+                // Store normalized correlation value
+                correlation[correlationCenter + delay] = count > 0 ? sum / count : 0.0;
             }
-            
-            // Store normalized correlation value
-            correlation[correlationCenter + delay] = count > 0 ? sum / count : 0.0;
+        } finally {
+            normalized.release();
         }
         
-        // Find peak correlation
-        int maxIndex = 0;
-        double maxCorrelation = correlation[0];
+        return peakToMicroseconds(correlation, correlationCenter, sampleRate, diagnostics);
+    }
+    
+    /**
+     * Same measurement as calculateImprovedITD, with the correlation computed by FFT.
+     * Normalization is skipped because a positive scale factor moves neither the peak
+     * nor the parabolic offset; silent channels still yield an all-zero correlation.
+     */
+    private static double calculateFftITD(float[] leftChannel, float[] rightChannel, int length, int sampleRate,
+                                          Diagnostics diagnostics) {
+        if (length <= MAX_LAG_SAMPLES * 2) {
+            logger.warning("Audio too short for accurate ITD measurement");
+            return 0.0;
+        }
         
-        for (int i = 1; i < correlation.length; i++) {
-            if (correlation[i] > maxCorrelation) {
-                maxCorrelation = correlation[i];
-                maxIndex = i;
+        double[] correlation;
+        if (SignalKernels.maxAbs(leftChannel, length) > 0.000001f && SignalKernels.maxAbs(rightChannel, length) > 0.000001f) {
+            correlation = CORRELATORS.get().correlate(leftChannel, rightChannel, length, MAX_LAG_SAMPLES);
+            for (int delay = -MAX_LAG_SAMPLES; delay <= MAX_LAG_SAMPLES; delay++) {
+                correlation[MAX_LAG_SAMPLES + delay] /= length - Math.abs(delay);
             }
+        } else {
+            correlation = new double[MAX_LAG_SAMPLES * 2 + 1];
+        }
+        
+        return peakToMicroseconds(correlation, MAX_LAG_SAMPLES, sampleRate, diagnostics);
+    }
+    
+    // Peak picking with parabolic interpolation, shared by both correlation backends
+    static double peakToMicroseconds(double[] correlation, int correlationCenter, int sampleRate) {
+        return peakToMicroseconds(correlation, correlationCenter, sampleRate, null);
+    }
+    
+    private static double peakToMicroseconds(double[] correlation, int correlationCenter, int sampleRate,
+                                             Diagnostics diagnostics) {
+        // Find peak correlation
+        int maxIndex = peakIndex(correlation);
+        if (diagnostics != null) {
+            diagnostics.peakIndex = maxIndex;
         }
         
         // Handle edge cases
         if (maxIndex == 0 || maxIndex == correlation.length - 1) {
+            if (diagnostics != null) {
+                diagnostics.edgePeak = true;
+            }
             logger.warning("Peak at correlation edge - may be inaccurate");
             int delay = maxIndex - correlationCenter;
             return (delay * 1000000.0) / sampleRate; // Convert to microseconds
         }
         
         // Parabolic interpolation for sub-sample accuracy
-        double y1 = correlation[maxIndex - 1];
-        double y2 = correlation[maxIndex];
-        double y3 = correlation[maxIndex + 1];
-        double d = (y3 - y1) / (2 * (2 * y2 - y1 - y3));
+        double d = parabolicOffset(correlation, maxIndex);
         
         // Refined delay with sub-sample precision
         double refinedDelay = (maxIndex - correlationCenter) + d;
@@ -124,47 +291,64 @@ public class SpatialCueAnalyzer {
         // Convert to microseconds
         double itdMicroseconds = (refinedDelay * 1000000.0) / sampleRate;
         
-        logger.info("Calculated ITD: " + itdMicroseconds + "μs (peak at index " + maxIndex + 
-                   ", interpolated offset " + d + ")");
+        if (diagnostics != null) {
+            diagnostics.interpolationOffset = d;
+        }
         
         return itdMicroseconds;
     }
     
-    private static double calculateILD(float[] leftChannel, float[] rightChannel) {
-        double leftRMS = calculateRMS(leftChannel);
-        double rightRMS = calculateRMS(rightChannel);
+    // Index of the first maximum
+    static int peakIndex(double[] correlation) {
+        int maxIndex = 0;
+        double maxCorrelation = correlation[0];
         
+        for (int i = 1; i < correlation.length; i++) {
+            if (correlation[i] > maxCorrelation) {
+                maxCorrelation = correlation[i];
+                maxIndex = i;
+            }
+        }
+        return maxIndex;
+    }
+    
+    // Sub-sample offset of the vertex of the parabola through a peak and its neighbours
+    static double parabolicOffset(double[] correlation, int peak) {
+        double y1 = correlation[peak - 1];
+        double y2 = correlation[peak];
+        double y3 = correlation[peak + 1];
+        return (y3 - y1) / (2 * (2 * y2 - y1 - y3));
+    }
+    
+    private static double calculateILD(float[] leftChannel, int leftLength, float[] rightChannel, int rightLength) {
+        double leftRMS = calculateRMS(leftChannel, leftLength);
+        double rightRMS = calculateRMS(rightChannel, rightLength);
+        return ildFromRms(leftRMS, rightRMS);
+    }
+    
+    static double ildFromRms(double leftRMS, double rightRMS) {
         // Prevent division by zero or very small values
         if (rightRMS < 0.000001) rightRMS = 0.000001;
         
         return 20 * Math.log10(leftRMS / rightRMS);
     }
     
-    private static double calculateRMS(float[] signal) {
-        double sum = 0;
-        for (float sample : signal) {
-            sum += sample * sample;
-        }
-        return Math.sqrt(sum / signal.length);
+    private static double calculateRMS(float[] signal, int length) {
+        double sum = SignalKernels.sumOfSquares(signal, 0, length);
+        return Math.sqrt(sum / length);
     }
     
-    private static float[] normalize(float[] signal) {
+    // Writes the first length samples scaled to a peak of 1 into normalized; silence stays zero
+    private static void normalize(float[] signal, float[] normalized, int length) {
         // Find max absolute value
-        float maxAbs = 0.0f;
-        for (float sample : signal) {
-            float abs = Math.abs(sample);
-            if (abs > maxAbs) maxAbs = abs;
-        }
+        float maxAbs = SignalKernels.maxAbs(signal, length);
         
         // Normalize
-        float[] normalized = new float[signal.length];
         if (maxAbs > 0.000001f) {
-            for (int i = 0; i < signal.length; i++) {
-                normalized[i] = signal[i] / maxAbs;
-            }
+            SignalKernels.divide(signal, normalized, length, maxAbs);
+        } else {
+            Arrays.fill(normalized, 0, length, 0.0f);
         }
-        
-        return normalized;
     }
     
     /**
@@ -175,68 +359,74 @@ public class SpatialCueAnalyzer {
     public static SpatialCues analyzeStereoFile(String audioFile) throws IOException, UnsupportedAudioFileException {
         logger.info("Analyzing spatial cues in: " + audioFile);
         
-        // Load audio file
-        File file = new File(audioFile);
-        AudioInputStream audioStream = AudioSystem.getAudioInputStream(file);
-        AudioFormat format = audioStream.getFormat();
-        
-        // Verify stereo
-        if (format.getChannels() != 2) {
-            throw new IllegalArgumentException("File must be stereo (2 channels): " + audioFile);
-        }
-        
-        // Read audio data
-        byte[] audioBytes = new byte[(int)audioStream.getFrameLength() * format.getFrameSize()];
-        int bytesRead = audioStream.read(audioBytes);
-        audioStream.close();
-        
-        if (bytesRead <= 0) {
-            throw new IOException("Could not read audio data from: " + audioFile);
+        // Decode straight into a pooled buffer
+        try (WavStreamReader reader = new WavStreamReader(audioFile)) {
+            StereoBuffer audio = SCRATCH.acquire((int) reader.getFrameLength());
+            try {
+                int frames = 0;
+                int n;
+                while ((n = reader.read()) > 0) {
+                    audio.put(frames, reader.getLeft(), reader.getRight(), 0, n);
+                    frames += n;
+                }
+                if (frames == 0) {
+                    throw new IOException("Could not read audio data from: " + audioFile);
+                }
+                audio.setFrames(frames);
+                
+                // Calculate ITD and ILD
+                return analyzeSpatialCues(audio, (int) reader.getSampleRate());
+            } finally {
+                audio.release();
+            }
         }
-        
-        // Convert to float arrays (separate channels)
-        float[][] channels = convertToFloatChannels(audioBytes, format);
-        float[] leftChannel = channels[0];
-        float[] rightChannel = channels[1];
-        
-        // Calculate ITD and ILD
-        return analyzeSpatialCues(leftChannel, rightChannel, (int)format.getSampleRate());
     }
     
-    private static float[][] convertToFloatChannels(byte[] audioBytes, AudioFormat format) {
-        int numFrames = audioBytes.length / format.getFrameSize();
-        float[][] channels = new float[2][numFrames];
-        
-        int sampleSizeInBytes = format.getSampleSizeInBits() / 8;
-        boolean isBigEndian = format.isBigEndian();
-        
-        for (int i = 0; i < numFrames; i++) {
-            int frameOffset = i * format.getFrameSize();
-            
-            // Extract left channel
-            channels[0][i] = extractSample(audioBytes, frameOffset, sampleSizeInBytes, isBigEndian);
-            
-            // Extract right channel
-            channels[1][i] = extractSample(audioBytes, frameOffset + sampleSizeInBytes, 
-                                         sampleSizeInBytes, isBigEndian);
+    /**
+     * Analyzes spatial cues from a WAV stream block by block, in constant memory.
+     * ITD matches the FFT correlation backend on the whole file.
+     * @param reader Open stereo stream; read to the end but not closed
+     * @return SpatialCues containing ITD and ILD measurements
+     */
+    public static SpatialCues analyzeStream(WavStreamReader reader) throws IOException {
+        DiagnosticsListener listener = diagnosticsListener;
+        long start = listener == null ? 0 : System.nanoTime();
+        SpatialCueAccumulator accumulator = new SpatialCueAccumulator();
+        int n;
+        while ((n = reader.read()) > 0) {
+            accumulator.accept(reader.getLeft(), reader.getRight(), n);
+        }
+        if (accumulator.getFrameCount() == 0) {
+            throw new IOException("Could not read audio data from stream");
         }
         
-        return channels;
+        SpatialCues cues = accumulator.getCues((int) reader.getSampleRate());
+        if (listener != null) {
+            // Peak details are not kept by the accumulator; the timing covers reading and both cues
+            Diagnostics diagnostics = new Diagnostics(CorrelationMethod.FFT,
+                (int) Math.min(Integer.MAX_VALUE, accumulator.getFrameCount()), (int) reader.getSampleRate());
+            diagnostics.itdNanos = System.nanoTime() - start;
+            diagnostics.itdMicroseconds = cues.getItdMicroseconds();
+            diagnostics.ildDecibels = cues.getIldDecibels();
+            listener.onAnalysis(diagnostics);
+        }
+        return cues;
     }
     
-    private static float extractSample(byte[] audioBytes, int offset, int sampleSizeInBytes, boolean isBigEndian) {
-        if (sampleSizeInBytes == 2) {
-            // 16-bit sample
-            short sample;
-            if (isBigEndian) {
-                sample = (short)((audioBytes[offset] << 8) | (audioBytes[offset + 1] & 0xFF));
-            } else {
-                sample = (short)((audioBytes[offset + 1] << 8) | (audioBytes[offset] & 0xFF));
-            }
-            return sample / 32768.0f;
-        } else {
-            // 8-bit sample
-            return (audioBytes[offset] & 0xFF) / 128.0f - 1.0f;
+    /**
+     * Analyzes spatial cues in a window of a memory-mapped file; only the window is decoded
+     * @param file Mapped stereo WAV file
+     * @param startFrame First frame of the window
+     * @param length Window length in frames
+     * @return SpatialCues containing ITD and ILD measurements
+     */
+    public static SpatialCues analyzeWindow(MappedWavFile file, long startFrame, int length) {
+        StereoBuffer window = SCRATCH.acquire(length);
+        try {
+            file.readStereo(startFrame, window);
+            return analyzeSpatialCues(window, file.getSampleRate());
+        } finally {
+            window.release();
         }
     }
     
@@ -246,8 +436,27 @@ public class SpatialCueAnalyzer {
         return cues.getItdMicroseconds();
     }
     
+    public static double computeITD(float[] left, float[] right, float sampleRate, CorrelationMethod method) {
+        SpatialCues cues = analyzeSpatialCues(left, right, (int)sampleRate, method);
+        return cues.getItdMicroseconds();
+    }
+    
+    /**
+     * Sets the correlation backend used when none is passed explicitly
+     */
+    public static void setCorrelationMethod(CorrelationMethod method) {
+        if (method == null) {
+            throw new IllegalArgumentException("Correlation method cannot be null");
+        }
+        defaultCorrelationMethod = method;
+    }
+    
+    public static CorrelationMethod getCorrelationMethod() {
+        return defaultCorrelationMethod;
+    }
+    
     public static double computeILD(float[] left, float[] right) {
-        return calculateILD(left, right);
+        return calculateILD(left, left.length, right, right.length);
     }
     
     /**
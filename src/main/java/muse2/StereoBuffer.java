@@ -0,0 +1,402 @@
+package muse2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A run of stereo float frames shared by the loader, analyser, shifter and writer.
+ *
+ * Storage is on the heap (float arrays) or off-heap (a direct ByteBuffer), laid out either
+ * planar (all left samples, then all right) or interleaved (L R L R ...). slice() returns
+ * a view of part of the frames without copying. Buffers taken from a Pool go back to it
+ * with release(), so a file can be loaded, analysed, shifted and written without
+ * allocating full-length arrays at every stage.
+ *
+ * Stages that run array kernels use hasArray() and leftArray()/rightArray()/arrayOffset()
+ * to work on heap planar storage in place; for any other storage they copy blocks out
+ * with getLeft/getRight. Not thread-safe.
+ */
+public final class StereoBuffer {
+    /**
+     * Sample order within the storage
+     */
+    public enum Layout {
+        PLANAR,
+        INTERLEAVED
+    }
+
+    private static final int COPY_BLOCK = 4096;
+
+    private final Layout layout;
+    // Heap planar storage uses left and right, heap interleaved uses samples, off-heap uses data
+    private final float[] left;
+    private final float[] right;
+    private final float[] samples;
+    private final FloatBuffer data;
+    // Frames in the underlying storage; planar off-heap keeps right at data[capacity..]
+    private final int capacity;
+    private final int offset;
+    private int frames;
+    private final Pool pool;
+    private boolean released = false;
+
+    private StereoBuffer(Layout layout, float[] left, float[] right, float[] samples, FloatBuffer data,
+                         int capacity, int offset, int frames, Pool pool) {
+        this.layout = layout;
+        this.left = left;
+        this.right = right;
+        this.samples = samples;
+        this.data = data;
+        this.capacity = capacity;
+        this.offset = offset;
+        this.frames = frames;
+        this.pool = pool;
+    }
+
+    /** Heap planar buffer of the given length */
+    public static StereoBuffer allocate(int frames) {
+        return allocate(frames, Layout.PLANAR, false);
+    }
+
+    /**
+     * @param frames Length in frames
+     * @param layout Sample order
+     * @param direct True to keep the samples off-heap
+     */
+    public static StereoBuffer allocate(int frames, Layout layout, boolean direct) {
+        return create(frames, frames, layout, direct, null);
+    }
+
+    private static StereoBuffer create(int capacity, int frames, Layout layout, boolean direct, Pool pool) {
+        if (capacity < 0 || frames > capacity) {
+            throw new IllegalArgumentException("Invalid buffer length: " + frames);
+        }
+        if (direct) {
+            FloatBuffer data = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            return new StereoBuffer(layout, null, null, null, data, capacity, 0, frames, pool);
+        }
+        if (layout == Layout.INTERLEAVED) {
+            return new StereoBuffer(layout, null, null, new float[capacity * 2], null, capacity, 0, frames, pool);
+        }
+        return new StereoBuffer(layout, new float[capacity], new float[capacity], null, null, capacity, 0, frames, pool);
+    }
+
+    /** Planar view of existing channel arrays; the shorter one sets the length */
+    public static StereoBuffer wrap(float[] left, float[] right) {
+        int frames = Math.min(left.length, right.length);
+        return new StereoBuffer(Layout.PLANAR, left, right, null, null, frames, 0, frames, null);
+    }
+
+    /** Interleaved view of existing L R L R ... samples */
+    public static StereoBuffer wrapInterleaved(float[] samples) {
+        int frames = samples.length / 2;
+        return new StereoBuffer(Layout.INTERLEAVED, null, null, samples, null, frames, 0, frames, null);
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public boolean isDirect() {
+        return data != null;
+    }
+
+    public int frames() {
+        return frames;
+    }
+
+    /** Frames this buffer can hold from its first frame */
+    public int capacity() {
+        return capacity - offset;
+    }
+
+    /**
+     * Changes the length within the capacity, e.g. after loading fewer frames than expected
+     */
+    public void setFrames(int frames) {
+        if (frames < 0 || frames > capacity()) {
+            throw new IllegalArgumentException("Length " + frames + " exceeds capacity " + capacity());
+        }
+        this.frames = frames;
+    }
+
+    /**
+     * View of frames [from, from + length) sharing this buffer's storage. Views are never
+     * returned to a pool; release the buffer they were sliced from.
+     */
+    public StereoBuffer slice(int from, int length) {
+        if (from < 0 || length < 0 || from + length > frames) {
+            throw new IndexOutOfBoundsException("Slice " + from + "+" + length + " of " + frames + " frames");
+        }
+        return new StereoBuffer(layout, left, right, samples, data, capacity, offset + from, length, null);
+    }
+
+    /** True when the samples are heap planar arrays that kernels can use directly */
+    public boolean hasArray() {
+        return left != null;
+    }
+
+    public float[] leftArray() {
+        checkArray();
+        return left;
+    }
+
+    public float[] rightArray() {
+        checkArray();
+        return right;
+    }
+
+    /** Index of frame 0 in leftArray() and rightArray() */
+    public int arrayOffset() {
+        checkArray();
+        return offset;
+    }
+
+    private void checkArray() {
+        if (left == null) {
+            throw new UnsupportedOperationException("Buffer is not heap planar");
+        }
+    }
+
+    public float getLeft(int frame) {
+        checkIndex(frame);
+        if (left != null) return left[offset + frame];
+        if (samples != null) return samples[2 * (offset + frame)];
+        return data.get(layout == Layout.PLANAR ? offset + frame : 2 * (offset + frame));
+    }
+
+    public float getRight(int frame) {
+        checkIndex(frame);
+        if (right != null) return right[offset + frame];
+        if (samples != null) return samples[2 * (offset + frame) + 1];
+        return data.get(layout == Layout.PLANAR ? capacity + offset + frame : 2 * (offset + frame) + 1);
+    }
+
+    public void set(int frame, float l, float r) {
+        checkIndex(frame);
+        int i = offset + frame;
+        if (left != null) {
+            left[i] = l;
+            right[i] = r;
+        } else if (samples != null) {
+            samples[2 * i] = l;
+            samples[2 * i + 1] = r;
+        } else if (layout == Layout.PLANAR) {
+            data.put(i, l);
+            data.put(capacity + i, r);
+        } else {
+            data.put(2 * i, l);
+            data.put(2 * i + 1, r);
+        }
+    }
+
+    private void checkIndex(int frame) {
+        if (frame < 0 || frame >= frames) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + frames);
+        }
+    }
+
+    /**
+     * Copies count left samples starting at frame into dst
+     */
+    public void getLeft(int frame, float[] dst, int dstOffset, int count) {
+        copyOut(frame, dst, dstOffset, count, 0);
+    }
+
+    /**
+     * Copies count right samples starting at frame into dst
+     */
+    public void getRight(int frame, float[] dst, int dstOffset, int count) {
+        copyOut(frame, dst, dstOffset, count, 1);
+    }
+
+    /**
+     * Writes count frames from the channel arrays, starting at frame
+     */
+    public void put(int frame, float[] srcLeft, float[] srcRight, int srcOffset, int count) {
+        checkRange(frame, count);
+        int i = offset + frame;
+        if (left != null) {
+            System.arraycopy(srcLeft, srcOffset, left, i, count);
+            System.arraycopy(srcRight, srcOffset, right, i, count);
+        } else if (samples != null) {
+            for (int k = 0; k < count; k++) {
+                samples[2 * (i + k)] = srcLeft[srcOffset + k];
+                samples[2 * (i + k) + 1] = srcRight[srcOffset + k];
+            }
+        } else if (layout == Layout.PLANAR) {
+            FloatBuffer d = data.duplicate();
+            d.position(i);
+            d.put(srcLeft, srcOffset, count);
+            d.position(capacity + i);
+            d.put(srcRight, srcOffset, count);
+        } else {
+            for (int k = 0; k < count; k++) {
+                data.put(2 * (i + k), srcLeft[srcOffset + k]);
+                data.put(2 * (i + k) + 1, srcRight[srcOffset + k]);
+            }
+        }
+    }
+
+    /**
+     * Copies every frame of src into this buffer starting at frame
+     */
+    public void put(int frame, StereoBuffer src) {
+        if (src.hasArray()) {
+            put(frame, src.left, src.right, src.offset, src.frames);
+            return;
+        }
+        checkRange(frame, src.frames);
+        float[] l = new float[Math.min(src.frames, COPY_BLOCK)];
+        float[] r = new float[l.length];
+        for (int done = 0; done < src.frames; done += l.length) {
+            int n = Math.min(l.length, src.frames - done);
+            src.getLeft(done, l, 0, n);
+            src.getRight(done, r, 0, n);
+            put(frame + done, l, r, 0, n);
+        }
+    }
+
+    private void copyOut(int frame, float[] dst, int dstOffset, int count, int channel) {
+        checkRange(frame, count);
+        int i = offset + frame;
+        if (left != null) {
+            System.arraycopy(channel == 0 ? left : right, i, dst, dstOffset, count);
+        } else if (samples != null) {
+            for (int k = 0; k < count; k++) {
+                dst[dstOffset + k] = samples[2 * (i + k) + channel];
+            }
+        } else if (layout == Layout.PLANAR) {
+            FloatBuffer d = data.duplicate();
+            d.position(channel * capacity + i);
+            d.get(dst, dstOffset, count);
+        } else {
+            for (int k = 0; k < count; k++) {
+                dst[dstOffset + k] = data.get(2 * (i + k) + channel);
+            }
+        }
+    }
+
+    private void checkRange(int frame, int count) {
+        if (frame < 0 || count < 0 || frame + count > frames) {
+            throw new IndexOutOfBoundsException("Frames " + frame + "+" + count + " of " + frames);
+        }
+    }
+
+    /** Sets every frame to silence */
+    public void clear() {
+        float[] zeros = new float[Math.min(frames, COPY_BLOCK)];
+        for (int done = 0; done < frames; done += zeros.length) {
+            put(done, zeros, zeros, 0, Math.min(zeros.length, frames - done));
+        }
+    }
+
+    /**
+     * Channel arrays of exactly frames() samples; the backing arrays themselves when they
+     * already are, copies otherwise
+     */
+    public float[][] toArrays() {
+        if (left != null && offset == 0 && left.length == frames && right.length == frames) {
+            return new float[][] {left, right};
+        }
+        float[][] out = new float[2][frames];
+        getLeft(0, out[0], 0, frames);
+        getRight(0, out[1], 0, frames);
+        return out;
+    }
+
+    /**
+     * Returns a pooled buffer to its pool; does nothing for other buffers. The buffer and
+     * its views must not be used afterwards.
+     */
+    public void release() {
+        if (pool == null) return;
+        if (released) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+        released = true;
+        pool.recycle(this);
+    }
+
+    // Size in bytes of the storage behind this buffer
+    long storageBytes() {
+        return capacity * 8L;
+    }
+
+    /**
+     * Recycles buffers of one layout and storage kind. Capacities are rounded up to one of
+     * eight steps per power of two, so a request reuses any free buffer of its size class
+     * and wastes at most an eighth. Free buffers are kept up to a byte limit and dropped
+     * beyond it. Thread-safe.
+     */
+    public static final class Pool {
+        private final Layout layout;
+        private final boolean direct;
+        private final long maxRetainedBytes;
+        private final Map<Integer, ArrayDeque<StereoBuffer>> free = new HashMap<>();
+        private long retainedBytes = 0;
+        private long allocations = 0;
+
+        /**
+         * @param layout Layout of the buffers handed out
+         * @param direct True for off-heap buffers
+         * @param maxRetainedBytes Most storage kept for reuse while not in use
+         */
+        public Pool(Layout layout, boolean direct, long maxRetainedBytes) {
+            this.layout = layout;
+            this.direct = direct;
+            this.maxRetainedBytes = maxRetainedBytes;
+        }
+
+        /**
+         * Buffer of exactly frames frames, contents undefined; release() it when done
+         */
+        public StereoBuffer acquire(int frames) {
+            int size = sizeClass(frames);
+            synchronized (this) {
+                ArrayDeque<StereoBuffer> queue = free.get(size);
+                StereoBuffer buffer = queue != null ? queue.pollFirst() : null;
+                if (buffer != null) {
+                    retainedBytes -= buffer.storageBytes();
+                    buffer.released = false;
+                    buffer.frames = frames;
+                    return buffer;
+                }
+                allocations++;
+            }
+            return create(size, frames, layout, direct, this);
+        }
+
+        private synchronized void recycle(StereoBuffer buffer) {
+            if (retainedBytes + buffer.storageBytes() > maxRetainedBytes) return;
+            free.computeIfAbsent(buffer.capacity, k -> new ArrayDeque<>()).addFirst(buffer);
+            retainedBytes += buffer.storageBytes();
+        }
+
+        /** Storage currently kept for reuse */
+        public synchronized long getRetainedBytes() {
+            return retainedBytes;
+        }
+
+        /** Buffers created because none of the right size was free */
+        public synchronized long getAllocationCount() {
+            return allocations;
+        }
+
+        /** Drops every free buffer */
+        public synchronized void clear() {
+            free.clear();
+            retainedBytes = 0;
+        }
+
+        static int sizeClass(int frames) {
+            if (frames <= 64) return 64;
+            int step = Integer.highestOneBit(frames - 1) >> 3;
+            return (frames + step - 1) / step * step;
+        }
+    }
+}
@@ -1,6 +1,28 @@
 package muse2;
 
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stereo test signals with a known ITD and ILD.
+ * Tones come from Oscillator (RECURRENCE by default, see setOscillatorMode) rather than
+ * one Math.sin call per sample and partial. Noise comes from a SplittableRandom seeded
+ * per signal, so a given seed always gives the same signal and concurrent generators
+ * never share random state.
+ */
 public class SyntheticSignalGenerator {
+    private static volatile Oscillator.Mode oscillatorMode = Oscillator.Mode.RECURRENCE;
+
+    public static void setOscillatorMode(Oscillator.Mode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Oscillator mode cannot be null");
+        }
+        oscillatorMode = mode;
+    }
+
+    public static Oscillator.Mode getOscillatorMode() {
+        return oscillatorMode;
+    }
     
     /**
      * Generate stereo sine wave with specified ITD and ILD
@@ -23,10 +45,7 @@ public class SyntheticSignalGenerator {
         double ildLinear = Math.pow(10, ildDb / 20);
         
         // Generate the base sine wave for left channel
-        for (int i = 0; i < nSamples; i++) {
-            double t = i / sampleRate;
-            left[i] = (float)Math.sin(2 * Math.PI * freqHz * t);
-        }
+        Oscillator.fill(oscillatorMode, left, 0, nSamples, freqHz, sampleRate, 0.0, 1.0);
         
         // Apply ITD and ILD to right channel
         if (itdSamples >= 0) {
@@ -77,16 +96,10 @@ public class SyntheticSignalGenerator {
         float[] frequencies = {500, 1000, 2000, 4000}; // Speech frequency range
         float[] amplitudes = {0.3f, 0.5f, 0.4f, 0.2f}; // Relative amplitudes
         
-        for (int i = 0; i < nSamples; i++) {
-            double t = i / sampleRate;
-            double sample = 0;
-            
-            // Sum multiple frequencies
-            for (int f = 0; f < frequencies.length; f++) {
-                sample += amplitudes[f] * Math.sin(2 * Math.PI * frequencies[f] * t);
-            }
-            
-            left[i] = (float)sample;
+        // Sum multiple frequencies
+        Oscillator.Mode mode = oscillatorMode;
+        for (int f = 0; f < frequencies.length; f++) {
+            Oscillator.add(mode, left, 0, nSamples, frequencies[f], sampleRate, 0.0, amplitudes[f]);
         }
         
         // Apply ITD and ILD
@@ -126,6 +139,24 @@ public class SyntheticSignalGenerator {
      * @return Stereo audio data [left, right]
      */
     public static float[][] generateNoisySignal(double durationSec, float sampleRate, float freqHz, double itdUs, double ildDb, double noiseLevel) {
+        return generateNoisySignal(durationSec, sampleRate, freqHz, itdUs, ildDb, noiseLevel, ThreadLocalRandom.current().nextLong());
+    }
+    
+    /**
+     * Generate signal with controlled noise from a fixed seed; the same seed always gives
+     * the same signal
+     * @param durationSec Duration in seconds
+     * @param sampleRate Sample rate in Hz
+     * @param freqHz Frequency in Hz
+     * @param itdUs ITD in microseconds
+     * @param ildDb ILD in decibels
+     * @param noiseLevel Noise level (0.0 to 1.0)
+     * @param seed Seed of the noise
+     * @return Stereo audio data [left, right]
+     */
+    public static float[][] generateNoisySignal(double durationSec, float sampleRate, float freqHz, double itdUs, double ildDb,
+                                                double noiseLevel, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
         int nSamples = (int) (sampleRate * durationSec);
         float[] left = new float[nSamples];
         float[] right = new float[nSamples];
@@ -137,11 +168,10 @@ public class SyntheticSignalGenerator {
         double ildLinear = Math.pow(10, ildDb / 20);
         
         // Generate base signal with noise
+        Oscillator.fill(oscillatorMode, left, 0, nSamples, freqHz, sampleRate, 0.0, 1.0);
         for (int i = 0; i < nSamples; i++) {
-            double t = i / sampleRate;
-            double signal = Math.sin(2 * Math.PI * freqHz * t);
-            double noise = (Math.random() - 0.5) * 2 * noiseLevel;
-            left[i] = (float)(signal + noise);
+            double noise = (random.nextDouble() - 0.5) * 2 * noiseLevel;
+            left[i] = (float)(left[i] + noise);
         }
         
         // Apply ITD and ILD with noise
@@ -151,7 +181,7 @@ public class SyntheticSignalGenerator {
                 int j = i - itdSamples;
                 if (j >= 0 && j < nSamples) {
                     double signal = left[j];
-                    double noise = (Math.random() - 0.5) * 2 * noiseLevel;
+                    double noise = (random.nextDouble() - 0.5) * 2 * noiseLevel;
                     right[i] = (float)((signal + noise) / ildLinear);
                 } else {
                     right[i] = 0;
@@ -163,7 +193,7 @@ public class SyntheticSignalGenerator {
                 int j = i + itdSamples;
                 if (j >= 0 && j < nSamples) {
                     double signal = left[j];
-                    double noise = (Math.random() - 0.5) * 2 * noiseLevel;
+                    double noise = (random.nextDouble() - 0.5) * 2 * noiseLevel;
                     right[i] = (float)((signal + noise) / ildLinear);
                 } else {
                     right[i] = 0;
@@ -0,0 +1,131 @@
+package muse2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * RIFF/WAVE header parsed directly from the file.
+ * Walks the chunk list, reads the "fmt " chunk and records where the "data" chunk
+ * starts; any other chunks (LIST, fact, bext, ...) are skipped. RIFX files, the
+ * big-endian variant, are read as well; getByteOrder() tells the samples' byte order.
+ */
+public class WavHeader {
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_IEEE_FLOAT = 3;
+    public static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final int formatTag;
+    private final int channels;
+    private final int sampleRate;
+    private final int blockAlign;
+    private final int bitsPerSample;
+    private final ByteOrder byteOrder;
+    private final long dataOffset;
+    private final long dataLength;
+
+    private WavHeader(int formatTag, int channels, int sampleRate, int blockAlign, int bitsPerSample,
+                      ByteOrder byteOrder, long dataOffset, long dataLength) {
+        this.formatTag = formatTag;
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.blockAlign = blockAlign;
+        this.bitsPerSample = bitsPerSample;
+        this.byteOrder = byteOrder;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Parses the header of a WAV file
+     * @param channel Open file channel; its position is not changed
+     */
+    public static WavHeader read(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buf, 0, 12);
+        boolean bigEndian = buf.getInt(0) == fourCC("RIFX");
+        if ((!bigEndian && buf.getInt(0) != fourCC("RIFF")) || buf.getInt(8) != fourCC("WAVE")) {
+            throw new IOException("Not a RIFF/WAVE file");
+        }
+        // Chunk ids are compared as little-endian ints; sizes and fmt fields use the file's order
+        ByteOrder order = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        buf.order(order);
+
+        long fileSize = channel.size();
+        long pos = 12;
+        int formatTag = -1, channels = 0, sampleRate = 0, blockAlign = 0, bitsPerSample = 0;
+
+        while (pos + 8 <= fileSize) {
+            readFully(channel, buf, pos, 8);
+            int id = bigEndian ? Integer.reverseBytes(buf.getInt(0)) : buf.getInt(0);
+            long size = buf.getInt(4) & 0xFFFFFFFFL;
+            long body = pos + 8;
+
+            if (id == fourCC("fmt ")) {
+                if (size < 16) throw new IOException("fmt chunk too short: " + size);
+                int len = (int) Math.min(size, 40);
+                readFully(channel, buf, body, len);
+                formatTag = buf.getShort(0) & 0xFFFF;
+                channels = buf.getShort(2) & 0xFFFF;
+                sampleRate = buf.getInt(4);
+                blockAlign = buf.getShort(12) & 0xFFFF;
+                bitsPerSample = buf.getShort(14) & 0xFFFF;
+                if (channels == 0 || blockAlign == 0) {
+                    throw new IOException("Invalid fmt chunk: " + channels + " channels, block align " + blockAlign);
+                }
+                if (formatTag == FORMAT_EXTENSIBLE && len >= 26) {
+                    // First two bytes of the SubFormat GUID carry the real format tag
+                    formatTag = buf.getShort(24) & 0xFFFF;
+                }
+            } else if (id == fourCC("data")) {
+                if (formatTag < 0) throw new IOException("data chunk before fmt chunk");
+                // Streamed writers may leave the size at 0xFFFFFFFF; trust the file length then
+                long available = fileSize - body;
+                long dataLength = Math.min(size, available);
+                dataLength -= dataLength % blockAlign;
+                return new WavHeader(formatTag, channels, sampleRate, blockAlign, bitsPerSample, order, body, dataLength);
+            }
+
+            // Chunks are padded to an even length
+            pos = body + size + (size & 1);
+        }
+        throw new IOException("No data chunk found");
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position, int length) throws IOException {
+        buf.clear();
+        buf.limit(length);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) throw new EOFException("Truncated WAV header");
+        }
+    }
+
+    static int fourCC(String id) {
+        return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+
+    public int getFormatTag() { return formatTag; }
+    public int getChannels() { return channels; }
+    public int getSampleRate() { return sampleRate; }
+    public int getBlockAlign() { return blockAlign; }
+    public int getBitsPerSample() { return bitsPerSample; }
+    public int getBytesPerSample() { return blockAlign / channels; }
+    /** Byte order of the samples: little-endian for RIFF, big-endian for RIFX */
+    public ByteOrder getByteOrder() { return byteOrder; }
+    /** Byte offset of the first sample in the file */
+    public long getDataOffset() { return dataOffset; }
+    /** Length of the sample data in bytes, rounded down to whole frames */
+    public long getDataLength() { return dataLength; }
+    public long getFrameCount() { return dataLength / blockAlign; }
+    public boolean isFloat() { return formatTag == FORMAT_IEEE_FLOAT; }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d-bit%s, %d Hz, %d ch, %d frames",
+            isFloat() ? "float" : "PCM", bitsPerSample, byteOrder == ByteOrder.BIG_ENDIAN ? " big-endian" : "",
+            sampleRate, channels, getFrameCount());
+    }
+}
@@ -0,0 +1,144 @@
+package muse2;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Block-based stereo WAV reader.
+ * Each call to read() decodes the next block of frames into the same left/right
+ * buffers, so a file of any length is read in constant memory. The file is parsed with
+ * WavHeader and read through a FileChannel; chunks other than fmt and data are skipped.
+ *
+ * Files with more than two channels (multi-mic recordings) are read as one ear pair,
+ * channels 0 and 1 unless chosen otherwise; the other channels are never decoded.
+ */
+public class WavStreamReader implements AutoCloseable {
+    public static final int DEFAULT_BLOCK_FRAMES = 4096;
+
+    private final FileChannel channel;
+    private final WavHeader header;
+    private final AudioFormat format;
+    private final int frameSize;
+    private final SampleDecoder decoder;
+    private final int leftChannel;
+    private final int rightChannel;
+    private final ByteBuffer bytes;
+    private final float[] left;
+    private final float[] right;
+    private long framesRead = 0;
+
+    public WavStreamReader(String filename) throws IOException, UnsupportedAudioFileException {
+        this(filename, DEFAULT_BLOCK_FRAMES);
+    }
+
+    public WavStreamReader(String filename, int blockFrames) throws IOException, UnsupportedAudioFileException {
+        this(filename, blockFrames, 0, 1);
+    }
+
+    /**
+     * @param filename WAV file with at least two channels: 8, 16, 24 or 32-bit PCM, or
+     *                 32-bit float, little or big-endian
+     * @param blockFrames Frames decoded per read() call
+     * @param leftChannel Channel read as the left ear
+     * @param rightChannel Channel read as the right ear
+     */
+    public WavStreamReader(String filename, int blockFrames, int leftChannel, int rightChannel)
+            throws IOException, UnsupportedAudioFileException {
+        if (blockFrames < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockFrames);
+        }
+        channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            header = WavHeader.read(channel);
+            if (header.getChannels() < 2) {
+                throw new UnsupportedAudioFileException("Audio file must be stereo.");
+            }
+            if (leftChannel < 0 || rightChannel < 0 || Math.max(leftChannel, rightChannel) >= header.getChannels()) {
+                throw new UnsupportedAudioFileException("Ear channels " + leftChannel + "/" + rightChannel
+                    + " not in a " + header.getChannels() + "-channel file");
+            }
+            decoder = SampleDecoder.forHeader(header);
+        } catch (IllegalArgumentException e) {
+            channel.close();
+            throw new UnsupportedAudioFileException(e.getMessage());
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.leftChannel = leftChannel;
+        this.rightChannel = rightChannel;
+
+        int sampleSizeInBytes = decoder.getBytesPerSample();
+        AudioFormat.Encoding encoding = header.isFloat() ? AudioFormat.Encoding.PCM_FLOAT
+            : sampleSizeInBytes == 1 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED;
+        format = new AudioFormat(encoding, header.getSampleRate(), sampleSizeInBytes * 8, header.getChannels(),
+            header.getBlockAlign(), header.getSampleRate(), decoder.getByteOrder() == ByteOrder.BIG_ENDIAN);
+        frameSize = header.getBlockAlign();
+        bytes = ByteBuffer.allocate(blockFrames * frameSize);
+        left = new float[blockFrames];
+        right = new float[blockFrames];
+    }
+
+    /**
+     * Decodes the next block into getLeft()/getRight()
+     * @return Number of frames decoded, or -1 at end of file
+     */
+    public int read() throws IOException {
+        long remaining = header.getDataLength() - framesRead * frameSize;
+        bytes.clear();
+        bytes.limit((int) Math.min(bytes.capacity(), remaining));
+        long position = header.getDataOffset() + framesRead * frameSize;
+        while (bytes.hasRemaining()) {
+            int n = channel.read(bytes, position + bytes.position());
+            if (n < 0) break;
+        }
+        int frames = bytes.position() / frameSize;
+        if (frames == 0) return -1;
+
+        decoder.decodePair(bytes, 0, frames, header.getChannels(), leftChannel, rightChannel, left, right, 0);
+        framesRead += frames;
+        return frames;
+    }
+
+    /** Left samples of the last block; only the first read() frames are valid */
+    public float[] getLeft() {
+        return left;
+    }
+
+    /** Right samples of the last block; only the first read() frames are valid */
+    public float[] getRight() {
+        return right;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public WavHeader getHeader() {
+        return header;
+    }
+
+    public float getSampleRate() {
+        return format.getSampleRate();
+    }
+
+    /** Total frames in the file */
+    public long getFrameLength() {
+        return header.getFrameCount();
+    }
+
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
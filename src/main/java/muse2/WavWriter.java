@@ -0,0 +1,279 @@
+package muse2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes RIFF/WAVE files straight from float samples.
+ * Frames are encoded a block at a time into one reused buffer and written to a
+ * FileChannel, so no full-file byte array is ever built. The RIFF and data sizes are
+ * filled in by close(). Extra chunks (LIST, bext, ...) added before the first frame are
+ * written between the fmt and data chunks; WavHeader skips them when reading.
+ *
+ * PCM samples are clamped to [-1, 1] and scaled by the largest positive value of the
+ * encoding, matching what the stimulus writers did before; float samples are stored as is.
+ */
+public class WavWriter implements AutoCloseable {
+    /**
+     * Sample encoding of the data chunk
+     */
+    public enum Encoding {
+        PCM_16(16, false),
+        PCM_24(24, false),
+        PCM_32(32, false),
+        FLOAT_32(32, true);
+
+        final int bits;
+        final boolean isFloat;
+
+        Encoding(int bits, boolean isFloat) {
+            this.bits = bits;
+            this.isFloat = isFloat;
+        }
+
+        public int getBitsPerSample() { return bits; }
+        public int getBytesPerSample() { return bits / 8; }
+        public boolean isFloat() { return isFloat; }
+    }
+
+    public static final int BLOCK_FRAMES = 4096;
+    // Data chunks are limited to 32-bit sizes
+    private static final long MAX_DATA_BYTES = 0xFFFFFFFFL;
+
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channels;
+    private final Encoding encoding;
+    private final int blockAlign;
+    private final ByteBuffer block;
+    private final List<byte[]> extraChunks = new ArrayList<>();
+    private long factSizeOffset = -1;
+    private long dataSizeOffset = -1;
+    private long dataBytes = 0;
+    private boolean closed = false;
+
+    /**
+     * @param file Output file, replaced if it exists
+     * @param sampleRate Sample rate in Hz
+     * @param channels Number of channels
+     * @param encoding Sample encoding
+     */
+    public WavWriter(File file, int sampleRate, int channels, Encoding encoding) throws IOException {
+        if (channels < 1 || channels > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid channel count: " + channels);
+        }
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.blockAlign = channels * encoding.getBytesPerSample();
+        this.block = ByteBuffer.allocate(BLOCK_FRAMES * blockAlign).order(ByteOrder.LITTLE_ENDIAN);
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Writes a whole stereo buffer to a file
+     */
+    public static void write(File file, StereoBuffer audio, int sampleRate, Encoding encoding) throws IOException {
+        try (WavWriter writer = new WavWriter(file, sampleRate, 2, encoding)) {
+            writer.write(audio);
+        }
+    }
+
+    /**
+     * Writes stereo channel arrays as 16-bit PCM; the shorter channel sets the length
+     */
+    public static void writeStereo(File file, float[] left, float[] right, float sampleRate) throws IOException {
+        write(file, StereoBuffer.wrap(left, right), Math.round(sampleRate), Encoding.PCM_16);
+    }
+
+    /**
+     * Adds a chunk to write ahead of the sample data
+     * @param id Four-character chunk id
+     * @param body Chunk contents; padded to an even length on disk
+     */
+    public void addChunk(String id, byte[] body) {
+        if (dataSizeOffset >= 0) {
+            throw new IllegalStateException("Chunks must be added before the first frame");
+        }
+        if (id.length() != 4 || id.equals("fmt ") || id.equals("data")) {
+            throw new IllegalArgumentException("Invalid chunk id: '" + id + "'");
+        }
+        byte[] chunk = new byte[8 + body.length];
+        ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).putInt(WavHeader.fourCC(id)).putInt(body.length).put(body);
+        extraChunks.add(chunk);
+    }
+
+    /**
+     * Appends stereo frames; the file must have two channels
+     */
+    public void write(float[] left, float[] right, int offset, int count) throws IOException {
+        if (channels != 2) {
+            throw new IllegalStateException("Writer has " + channels + " channels");
+        }
+        writeHeaderOnce();
+        int done = 0;
+        while (done < count) {
+            int n = Math.min(BLOCK_FRAMES, count - done);
+            block.clear();
+            for (int i = offset + done, end = i + n; i < end; i++) {
+                encode(left[i]);
+                encode(right[i]);
+            }
+            flushBlock();
+            done += n;
+        }
+    }
+
+    /**
+     * Appends every frame of a stereo buffer, reading heap planar storage in place
+     */
+    public void write(StereoBuffer audio) throws IOException {
+        if (audio.hasArray()) {
+            write(audio.leftArray(), audio.rightArray(), audio.arrayOffset(), audio.frames());
+            return;
+        }
+        float[] left = new float[Math.min(BLOCK_FRAMES, audio.frames())];
+        float[] right = new float[left.length];
+        for (int done = 0; done < audio.frames(); done += left.length) {
+            int n = Math.min(left.length, audio.frames() - done);
+            audio.getLeft(done, left, 0, n);
+            audio.getRight(done, right, 0, n);
+            write(left, right, 0, n);
+        }
+    }
+
+    /**
+     * Appends frames that are already encoded in this writer's format
+     */
+    public void writeEncoded(byte[] frames, int offset, int length) throws IOException {
+        if (length % blockAlign != 0) {
+            throw new IllegalArgumentException(length + " bytes is not a whole number of frames");
+        }
+        writeHeaderOnce();
+        checkSize(length);
+        ByteBuffer buf = ByteBuffer.wrap(frames, offset, length);
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        dataBytes += length;
+    }
+
+    public long getFramesWritten() {
+        return dataBytes / blockAlign;
+    }
+
+    private void encode(float sample) {
+        switch (encoding) {
+            case PCM_16:
+                block.putShort((short) Math.max(Math.min(sample * 32767.0, 32767), -32768));
+                break;
+            case PCM_24:
+                int v = (int) Math.max(Math.min(sample * 8388607.0, 8388607), -8388608);
+                block.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+                break;
+            case PCM_32:
+                block.putInt((int) Math.max(Math.min(sample * 2147483647.0, 2147483647.0), -2147483648.0));
+                break;
+            default:
+                block.putFloat(sample);
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        block.flip();
+        checkSize(block.remaining());
+        dataBytes += block.remaining();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+    }
+
+    private void checkSize(int more) throws IOException {
+        if (dataBytes + more > MAX_DATA_BYTES) {
+            throw new IOException("WAV data would exceed 4 GB");
+        }
+    }
+
+    // RIFF, fmt (plus fact for float), extra chunks and the data chunk header, sizes patched on close
+    private void writeHeaderOnce() throws IOException {
+        if (dataSizeOffset >= 0) return;
+        if (closed) {
+            throw new IllegalStateException("Writer is closed");
+        }
+        int fmtSize = encoding.isFloat() ? 18 : 16;
+        int headerSize = 12 + 8 + fmtSize + (encoding.isFloat() ? 12 : 0) + 8;
+        for (byte[] chunk : extraChunks) {
+            headerSize += chunk.length + (chunk.length & 1);
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(WavHeader.fourCC("RIFF")).putInt(0).putInt(WavHeader.fourCC("WAVE"));
+        header.putInt(WavHeader.fourCC("fmt ")).putInt(fmtSize);
+        header.putShort((short) (encoding.isFloat() ? WavHeader.FORMAT_IEEE_FLOAT : WavHeader.FORMAT_PCM));
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) encoding.getBitsPerSample());
+        if (encoding.isFloat()) {
+            // Non-PCM formats carry an extension size and a fact chunk with the frame count
+            header.putShort((short) 0);
+            header.putInt(WavHeader.fourCC("fact")).putInt(4);
+            factSizeOffset = header.position();
+            header.putInt(0);
+        }
+        for (byte[] chunk : extraChunks) {
+            header.put(chunk);
+            if ((chunk.length & 1) != 0) header.put((byte) 0);
+        }
+        header.putInt(WavHeader.fourCC("data"));
+        dataSizeOffset = header.position();
+        header.putInt(0);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /**
+     * Fills in the chunk sizes and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            writeHeaderOnce();
+            long end = dataSizeOffset + 4 + dataBytes;
+            if ((dataBytes & 1) != 0) {
+                // Pad byte for an odd-sized data chunk, counted in RIFF but not in data
+                channel.write(ByteBuffer.wrap(new byte[1]), end++);
+            }
+            ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            patch(size, 4, Math.min(MAX_DATA_BYTES, end - 8));
+            patch(size, dataSizeOffset, dataBytes);
+            if (factSizeOffset >= 0) {
+                patch(size, factSizeOffset, getFramesWritten());
+            }
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private void patch(ByteBuffer size, long position, long value) throws IOException {
+        size.clear();
+        size.putInt(0, (int) value);
+        while (size.hasRemaining()) {
+            channel.write(size, position + size.position());
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package muse2;
 
+import javax.sound.sampled.*;
+import java.io.*;
 import java.util.*;
 
 public class UnitTests {
@@ -55,6 +57,222 @@ public class UnitTests {
             System.out.println("❌ Test 5: Cross-Correlation - FAILED");
         }
         
+        // Test 6: FFT cross-correlation backend agrees with time-domain path
+        total++;
+        if (testFftCorrelationBackend()) {
+            System.out.println("✅ Test 6: FFT Cross-Correlation Backend - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 6: FFT Cross-Correlation Backend - FAILED");
+        }
+        
+        // Test 7: FFT subsystem against a direct DFT
+        total++;
+        if (testFFT()) {
+            System.out.println("✅ Test 7: FFT - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 7: FFT - FAILED");
+        }
+        
+        // Test 8: Hierarchical lag search matches exhaustive search
+        total++;
+        if (testHierarchicalLagSearch()) {
+            System.out.println("✅ Test 8: Hierarchical Lag Search - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 8: Hierarchical Lag Search - FAILED");
+        }
+        
+        // Test 9: Streaming WAV analysis matches in-memory analysis
+        total++;
+        if (testStreamingAnalysis()) {
+            System.out.println("✅ Test 9: Streaming Analysis - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 9: Streaming Analysis - FAILED");
+        }
+        
+        // Test 10: Memory-mapped WAV windows match the decoded file
+        total++;
+        if (testMappedWavAccess()) {
+            System.out.println("✅ Test 10: Mapped WAV Access - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 10: Mapped WAV Access - FAILED");
+        }
+        
+        // Test 11: Streaming frequency shifter
+        total++;
+        if (testStreamingFrequencyShifter()) {
+            System.out.println("✅ Test 11: Streaming Frequency Shifter - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 11: Streaming Frequency Shifter - FAILED");
+        }
+        
+        // Test 12: Shift ladder matches separate single shifts
+        total++;
+        if (testShiftLadder()) {
+            System.out.println("✅ Test 12: Shift Ladder - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 12: Shift Ladder - FAILED");
+        }
+        
+        // Test 13: Signal kernels agree with straightforward loops
+        total++;
+        if (testSignalKernels()) {
+            System.out.println("✅ Test 13: Signal Kernels - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 13: Signal Kernels - FAILED");
+        }
+        
+        // Test 14: Per-band, per-frame cue map
+        total++;
+        if (testCueMap()) {
+            System.out.println("✅ Test 14: Cue Map - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 14: Cue Map - FAILED");
+        }
+        
+        // Test 15: Incremental live cue tracking
+        total++;
+        if (testLiveCueTracker()) {
+            System.out.println("✅ Test 15: Live Cue Tracker - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 15: Live Cue Tracker - FAILED");
+        }
+        
+        // Test 16: Asynchronous logging from concurrent threads
+        total++;
+        if (testAsyncLogger()) {
+            System.out.println("✅ Test 16: Async Logger - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 16: Async Logger - FAILED");
+        }
+        
+        // Test 17: Per-analysis diagnostics listener
+        total++;
+        if (testAnalysisDiagnostics()) {
+            System.out.println("✅ Test 17: Analysis Diagnostics - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 17: Analysis Diagnostics - FAILED");
+        }
+        
+        // Test 18: Metrics registry
+        total++;
+        if (testMetrics()) {
+            System.out.println("✅ Test 18: Metrics - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 18: Metrics - FAILED");
+        }
+        
+        // Test 19: Buffered CSV export
+        total++;
+        if (testCsvExporter()) {
+            System.out.println("✅ Test 19: CSV Exporter - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 19: CSV Exporter - FAILED");
+        }
+        
+        // Test 20: Columnar binary results
+        total++;
+        if (testResultsTable()) {
+            System.out.println("✅ Test 20: Results Table - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 20: Results Table - FAILED");
+        }
+        
+        // Test 21: Content-addressed analysis cache
+        total++;
+        if (testAnalysisCache()) {
+            System.out.println("✅ Test 21: Analysis Cache - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 21: Analysis Cache - FAILED");
+        }
+        
+        // Test 22: Incremental batch runs
+        total++;
+        if (testIncrementalBatch()) {
+            System.out.println("✅ Test 22: Incremental Batch - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 22: Incremental Batch - FAILED");
+        }
+        
+        // Test 23: Stereo buffers
+        total++;
+        if (testStereoBuffer()) {
+            System.out.println("✅ Test 23: Stereo Buffer - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 23: Stereo Buffer - FAILED");
+        }
+        
+        // Test 24: WAV codec
+        total++;
+        if (testWavCodec()) {
+            System.out.println("✅ Test 24: WAV Codec - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 24: WAV Codec - FAILED");
+        }
+        
+        // Test 25: Resampling to the analysis rate
+        total++;
+        if (testResampler()) {
+            System.out.println("✅ Test 25: Resampler - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 25: Resampler - FAILED");
+        }
+        
+        // Test 26: Sample decoders and ear-pair extraction
+        total++;
+        if (testSampleDecoders()) {
+            System.out.println("✅ Test 26: Sample Decoders - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 26: Sample Decoders - FAILED");
+        }
+        
+        // Test 27: Parallel parameter sweep
+        total++;
+        if (testParameterSweep()) {
+            System.out.println("✅ Test 27: Parameter Sweep - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 27: Parameter Sweep - FAILED");
+        }
+        
+        // Test 28: Oscillators and seeded noise
+        total++;
+        if (testOscillators()) {
+            System.out.println("✅ Test 28: Oscillators - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 28: Oscillators - FAILED");
+        }
+        
+        // Test 29: Concurrent batch matches a single-threaded run
+        total++;
+        if (testConcurrentBatch()) {
+            System.out.println("✅ Test 29: Concurrent Batch - PASSED");
+            passed++;
+        } else {
+            System.out.println("❌ Test 29: Concurrent Batch - FAILED");
+        }
+        
         System.out.println("\n=== Test Results ===");
         System.out.printf("Passed: %d/%d (%.1f%%)\n", passed, total, (passed*100.0/total));
         
@@ -235,7 +453,1729 @@ public class UnitTests {
         }
     }
     
-    // Helper methods
+    private static boolean testFftCorrelationBackend() {
+        try {
+            float sampleRate = 44100.0f;
+            double[] itds = {0.0, 100.0, -100.0, 250.0, -250.0, 500.0, -500.0};
+            
+            for (double itd : itds) {
+                float[][][] signals = {
+                    SyntheticSignalGenerator.generateSineStereo(1.0, sampleRate, 500.0f, itd, 0.0),
+                    SyntheticSignalGenerator.generateSpeechLikeSignal(1.0, sampleRate, itd, 3.0)
+                };
+                for (float[][] stereo : signals) {
+                    double timeDomain = SpatialCueAnalyzer.computeITD(stereo[0], stereo[1], sampleRate,
+                        SpatialCueAnalyzer.CorrelationMethod.TIME_DOMAIN);
+                    double fft = SpatialCueAnalyzer.computeITD(stereo[0], stereo[1], sampleRate,
+                        SpatialCueAnalyzer.CorrelationMethod.FFT);
+                    double diff = Math.abs(timeDomain - fft);
+                    
+                    if (diff > SpatialCueAnalyzer.FFT_ITD_TOLERANCE_US) {
+                        System.out.printf("  FFT backend mismatch at ITD %.1f: time-domain %.4f, FFT %.4f (diff: %.6f μs)\n",
+                            itd, timeDomain, fft, diff);
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  FFT backend test exception: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private static boolean testFFT() {
+        try {
+            // Power-of-two, even Bluestein and odd Bluestein sizes
+            int[] sizes = {1024, 1000, 17};
+            Random random = new Random(42);
+            
+            for (int size : sizes) {
+                float[] signal = new float[size];
+                for (int i = 0; i < size; i++) {
+                    signal[i] = (float) (random.nextDouble() * 2 - 1);
+                }
+                
+                double[] re = new double[size];
+                double[] im = new double[size];
+                FFT.forSize(size).realForward(signal, size, re, im);
+                
+                // Compare bins 0..size/2 with a direct DFT
+                for (int k = 0; k <= size / 2; k++) {
+                    double dftRe = 0, dftIm = 0;
+                    for (int n = 0; n < size; n++) {
+                        double angle = -2 * Math.PI * k * n / size;
+                        dftRe += signal[n] * Math.cos(angle);
+                        dftIm += signal[n] * Math.sin(angle);
+                    }
+                    if (Math.abs(dftRe - re[k]) > 1e-6 || Math.abs(dftIm - im[k]) > 1e-6) {
+                        System.out.printf("  FFT size %d bin %d mismatch: (%.6f, %.6f) vs DFT (%.6f, %.6f)\n",
+                            size, k, re[k], im[k], dftRe, dftIm);
+                        return false;
+                    }
+                }
+                
+                // Real inverse must give the signal back
+                float[] restored = new float[size];
+                FFT.forSize(size).realInverse(re, im, restored);
+                for (int i = 0; i < size; i++) {
+                    if (Math.abs(restored[i] - signal[i]) > 1e-5) {
+                        System.out.printf("  FFT size %d round trip mismatch at %d: %.6f vs %.6f\n",
+                            size, i, restored[i], signal[i]);
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  FFT test exception: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private static boolean testHierarchicalLagSearch() {
+        try {
+            float sampleRate = 44100.0f;
+            double[] itds = {0.0, 150.0, -150.0, 400.0, -400.0};
+            
+            for (double itd : itds) {
+                float[][] stereo = SyntheticSignalGenerator.generateSpeechLikeSignal(0.25, sampleRate, itd, 0.0);
+                ImprovedSpatialCueAnalyzer.LagSearchResult exhaustive = ImprovedSpatialCueAnalyzer.searchLag(
+                    stereo[0], stereo[1], sampleRate, ImprovedSpatialCueAnalyzer.LagSearch.EXHAUSTIVE);
+                ImprovedSpatialCueAnalyzer.LagSearchResult hierarchical = ImprovedSpatialCueAnalyzer.searchLag(
+                    stereo[0], stereo[1], sampleRate, ImprovedSpatialCueAnalyzer.LagSearch.HIERARCHICAL);
+                
+                // The generator delays by whole samples, so both searches find the same integer
+                // lag; the parabolic fit may move it by a few thousandths of a sample
+                double diff = Math.abs(exhaustive.getLagSamples() - hierarchical.getLagSamples());
+                if (diff > 0.005) {
+                    System.out.printf("  Lag search mismatch at ITD %.1f: exhaustive %s, hierarchical %s\n",
+                        itd, exhaustive, hierarchical);
+                    return false;
+                }
+                if (hierarchical.getEvaluations() != 1 || exhaustive.getEvaluations() < 800) {
+                    System.out.printf("  Correlation passes: hierarchical %d, exhaustive %d\n",
+                        hierarchical.getEvaluations(), exhaustive.getEvaluations());
+                    return false;
+                }
+            }
+            
+            // Fractional delays: the exhaustive search is stuck on integer lags, the parabolic
+            // fit recovers the delay. The correlation is symmetric in lag, so only |lag| counts.
+            java.util.Random random = new java.util.Random(3);
+            int partials = 40;
+            double[] freqs = new double[partials];
+            double[] phases = new double[partials];
+            for (int k = 0; k < partials; k++) {
+                freqs[k] = 100 + random.nextDouble() * 3000;
+                phases[k] = random.nextDouble() * 2 * Math.PI;
+            }
+            double[] delays = {3.4, 6.5, 10.8, 17.2};
+            for (double delay : delays) {
+                float[] left = new float[11025];
+                float[] right = new float[left.length];
+                for (int i = 0; i < left.length; i++) {
+                    double l = 0;
+                    double r = 0;
+                    for (int k = 0; k < partials; k++) {
+                        l += Math.sin(2 * Math.PI * freqs[k] * i / sampleRate + phases[k]);
+                        r += Math.sin(2 * Math.PI * freqs[k] * (i - delay) / sampleRate + phases[k]);
+                    }
+                    left[i] = (float) (l / partials);
+                    right[i] = (float) (r / partials);
+                }
+                double lag = Math.abs(ImprovedSpatialCueAnalyzer.searchLag(
+                    left, right, sampleRate, ImprovedSpatialCueAnalyzer.LagSearch.HIERARCHICAL).getLagSamples());
+                if (Math.abs(lag - delay) > 0.01) {
+                    System.out.printf("  Delay %.2f samples measured as %.4f\n", delay, lag);
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Lag search test exception: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private static boolean testStreamingAnalysis() {
+        File wav = null;
+        try {
+            float sampleRate = 44100.0f;
+            float[][] stereo = SyntheticSignalGenerator.generateSpeechLikeSignal(1.3, sampleRate, 250.0, 2.0);
+            wav = File.createTempFile("muse2_stream_test", ".wav");
+            writeTestWav(stereo, sampleRate, wav);
+            
+            float[][] loaded = AudioProcessor.loadWavFile(wav.getPath());
+            if (loaded[0].length != stereo[0].length) {
+                System.out.printf("  Loaded %d frames, expected %d\n", loaded[0].length, stereo[0].length);
+                return false;
+            }
+            SpatialCueAnalyzer.SpatialCues inMemory = SpatialCueAnalyzer.analyzeSpatialCues(
+                loaded[0], loaded[1], (int) sampleRate, SpatialCueAnalyzer.CorrelationMethod.FFT);
+            
+            // Odd block size so blocks never line up with the correlation blocks
+            SpatialCueAnalyzer.SpatialCues streamed;
+            try (WavStreamReader reader = new WavStreamReader(wav.getPath(), 1000)) {
+                streamed = SpatialCueAnalyzer.analyzeStream(reader);
+            }
+            
+            double itdDiff = Math.abs(inMemory.getItdMicroseconds() - streamed.getItdMicroseconds());
+            double ildDiff = Math.abs(inMemory.getIldDecibels() - streamed.getIldDecibels());
+            if (itdDiff > SpatialCueAnalyzer.FFT_ITD_TOLERANCE_US || ildDiff > 1e-9) {
+                System.out.printf("  Streaming mismatch: in-memory %s, streamed %s\n", inMemory, streamed);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Streaming test exception: " + e.getMessage());
+            return false;
+        } finally {
+            if (wav != null) wav.delete();
+        }
+    }
+    
+    private static boolean testMappedWavAccess() {
+        File wav = null;
+        try {
+            float sampleRate = 44100.0f;
+            float[][] stereo = SyntheticSignalGenerator.generateSineStereo(0.5, sampleRate, 440.0f, 300.0, -4.0);
+            wav = File.createTempFile("muse2_mapped_test", ".wav");
+            writeTestWav(stereo, sampleRate, wav);
+            float[][] loaded = AudioProcessor.loadWavFile(wav.getPath());
+            
+            try (MappedWavFile mapped = new MappedWavFile(wav.getPath())) {
+                if (mapped.getFrameCount() != loaded[0].length || mapped.getSampleRate() != 44100) {
+                    System.out.println("  Mapped header mismatch: " + mapped.getHeader());
+                    return false;
+                }
+                long[] starts = {0, 1234, loaded[0].length - 1024};
+                for (long start : starts) {
+                    float[][] window = mapped.readStereoWindow(start, 1024);
+                    for (int i = 0; i < 1024; i++) {
+                        if (window[0][i] != loaded[0][(int) start + i] || window[1][i] != loaded[1][(int) start + i]) {
+                            System.out.printf("  Mapped sample mismatch at frame %d\n", start + i);
+                            return false;
+                        }
+                    }
+                }
+                if (mapped.getSample(777, 1) != loaded[1][777]) {
+                    System.out.println("  Mapped random access mismatch");
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Mapped WAV test exception: " + e.getMessage());
+            return false;
+        } finally {
+            if (wav != null) wav.delete();
+        }
+    }
+    
+    private static boolean testStreamingFrequencyShifter() {
+        try {
+            float sampleRate = 44100.0f;
+            float[][] original = SyntheticSignalGenerator.generateSineStereo(1.0, sampleRate, 1000.0f, 200.0, -3.0);
+            int n = original[0].length;
+            
+            // Zero shift reconstructs the input exactly (up to float rounding)
+            float[][] identity = FrequencyShifter.shift(original[0], original[1], sampleRate, 0.0f);
+            for (int i = 0; i < n; i++) {
+                if (Math.abs(identity[0][i] - original[0][i]) > 1e-5 || Math.abs(identity[1][i] - original[1][i]) > 1e-5) {
+                    System.out.printf("  Zero shift changed sample %d\n", i);
+                    return false;
+                }
+            }
+            
+            // Odd block sizes give the same output as one call with the whole signal
+            FrequencyShifter whole = new FrequencyShifter(400.0f);
+            float[][] expected = new float[2][n];
+            whole.process(original[0], original[1], 0, n, expected[0], expected[1], 0);
+            FrequencyShifter blocks = new FrequencyShifter(400.0f);
+            float[][] actual = new float[2][n];
+            for (int pos = 0; pos < n; pos += 333) {
+                int len = Math.min(333, n - pos);
+                blocks.process(original[0], original[1], pos, len, actual[0], actual[1], pos);
+            }
+            if (!Arrays.equals(expected[0], actual[0]) || !Arrays.equals(expected[1], actual[1])) {
+                System.out.println("  Block-wise output differs from single call");
+                return false;
+            }
+            
+            // 1 kHz lowered by 400 Hz should put the energy at 600 Hz
+            float[][] shifted = FrequencyShifter.shift(original[0], original[1], sampleRate, 400.0f);
+            double at600 = tonePower(shifted[0], sampleRate, 600.0);
+            double at1000 = tonePower(shifted[0], sampleRate, 1000.0);
+            if (shifted[0].length != n || at600 < 100 * at1000) {
+                System.out.printf("  Shifted tone power: 600 Hz %.3g, 1000 Hz %.3g\n", at600, at1000);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Streaming shifter test exception: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private static boolean testShiftLadder() {
+        try {
+            float sampleRate = 44100.0f;
+            float[][] original = SyntheticSignalGenerator.generateSpeechLikeSignal(0.8, sampleRate, 180.0, 1.5);
+            int n = original[0].length;
+            float[] shifts = {200.0f, 400.0f, 600.0f};
+            
+            float[][][] ladderOut = new float[shifts.length][2][n];
+            int[] written = new int[shifts.length];
+            ShiftLadder ladder = new ShiftLadder(shifts, (target, left, right, count) -> {
+                System.arraycopy(left, 0, ladderOut[target][0], written[target], count);
+                System.arraycopy(right, 0, ladderOut[target][1], written[target], count);
+                written[target] += count;
+            });
+            // Uneven input blocks
+            for (int pos = 0; pos < n; pos += 5000) {
+                ladder.accept(original[0], original[1], pos, Math.min(5000, n - pos));
+            }
+            ladder.finish();
+            
+            for (int t = 0; t < shifts.length; t++) {
+                float[][] single = FrequencyShifter.shift(original[0], original[1], sampleRate, shifts[t]);
+                if (written[t] != n || !Arrays.equals(single[0], ladderOut[t][0]) || !Arrays.equals(single[1], ladderOut[t][1])) {
+                    System.out.printf("  Ladder output for %.0f Hz differs from a single shift\n", shifts[t]);
+                    return false;
+                }
+                double itd = SpatialCueAnalyzer.computeITD(single[0], single[1], sampleRate);
+                double ild = SpatialCueAnalyzer.computeILD(single[0], single[1]);
+                SpatialCueAnalyzer.SpatialCues cues = ladder.getCues(t, (int) sampleRate);
+                if (Math.abs(cues.getItdMicroseconds() - itd) > SpatialCueAnalyzer.FFT_ITD_TOLERANCE_US
+                        || Math.abs(cues.getIldDecibels() - ild) > 1e-9) {
+                    System.out.printf("  Ladder cues for %.0f Hz: %s, expected ITD %.3f ILD %.3f\n", shifts[t], cues, itd, ild);
+                    return false;
+                }
+            }
+            
+            // A batch rejects ladders the shifter cannot produce before any file is touched
+            BatchProcessor batch = new BatchProcessor();
+            float[][] invalid = {{200f, 1000f}, {Float.NaN}, {-50f}};
+            for (float[] ladderHz : invalid) {
+                try {
+                    batch.setShifts(ladderHz);
+                    System.out.println("  Accepted shifts " + Arrays.toString(ladderHz));
+                    return false;
+                } catch (IllegalArgumentException expected) {
+                    // Rejected as it should be
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Shift ladder test exception: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private static boolean testSignalKernels() {
+        Random random = new Random(42);
+        float[] a = new float[100003];
+        float[] b = new float[100003];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = (float) random.nextGaussian();
+            b[i] = (float) random.nextGaussian();
+        }
+        
+        // Odd lengths and offsets exercise the unrolled body and the tail
+        int[][] cases = {{0, 0, 100000}, {3, 7, 99991}, {5, 0, 3}, {0, 2, 0}};
+        for (int[] c : cases) {
+            int aOff = c[0], bOff = c[1], len = c[2];
+            double dot = 0, dotAbs = 0, interp = 0, interpAbs = 0, weighted = 0, weightedAbs = 0;
+            for (int i = 0; i < len; i++) {
+                double p = a[aOff + i] * b[bOff + i];
+                dot += p;
+                dotAbs += Math.abs(p);
+                double q = a[aOff + i] * (b[bOff + i] * 0.7 + b[bOff + i + 1] * 0.3);
+                interp += q;
+                interpAbs += Math.abs(q);
+                double w = (a[aOff + i] * 0.8) * (a[aOff + i] * 0.8);
+                weighted += w;
+                weightedAbs += w;
+            }
+            double eps = SignalKernels.KERNEL_RELATIVE_EPSILON;
+            if (Math.abs(SignalKernels.dot(a, aOff, b, bOff, len) - dot) > eps * dotAbs
+                    || Math.abs(SignalKernels.interpolatedDot(a, aOff, b, bOff, len, 0.3) - interp) > eps * interpAbs
+                    || Math.abs(SignalKernels.weightedSumOfSquares(a, aOff, len, 0.8) - weighted) > eps * weightedAbs) {
+                System.out.printf("  Kernel mismatch for offsets %d/%d, length %d\n", aOff, bOff, len);
+                return false;
+            }
+        }
+        
+        float max = 0;
+        for (int i = 0; i < 99999; i++) max = Math.max(max, Math.abs(a[i]));
+        if (SignalKernels.maxAbs(a, 99999) != max) {
+            System.out.println("  maxAbs mismatch");
+            return false;
+        }
+        return true;
+    }
+    
+    private static boolean testCueMap() {
+        // Broadband noise, right ear 11 samples (249.4 us) late and 4 dB quieter
+        Random random = new Random(3);
+        int n = 44100;
+        float[] source = new float[n + 11];
+        for (int i = 0; i < source.length; i++) source[i] = (float) (random.nextGaussian() * 0.2);
+        float[] left = new float[n];
+        float[] right = new float[n];
+        double gain = Math.pow(10, -4.0 / 20);
+        for (int i = 0; i < n; i++) {
+            left[i] = source[i + 11];
+            right[i] = (float) (source[i] * gain);
+        }
+        double expectedItd = 11 * 1000000.0 / 44100;
+        
+        CueMap map = new CueMapAnalyzer().analyze(left, right, 44100);
+        CueMap sequential = new CueMapAnalyzer(CueMapAnalyzer.DEFAULT_FRAME_SIZE, CueMapAnalyzer.DEFAULT_HOP_SIZE, false)
+            .analyze(left, right, 44100);
+        if (map.getFrameCount() == 0 || map.getBandCount() != 24) {
+            System.out.printf("  Unexpected map shape: %d frames, %d bands\n", map.getFrameCount(), map.getBandCount());
+            return false;
+        }
+        for (int f = 0; f < map.getFrameCount(); f++) {
+            for (int b = 0; b < map.getBandCount(); b++) {
+                if (Double.compare(map.getItdMicroseconds(f, b), sequential.getItdMicroseconds(f, b)) != 0
+                        || Double.compare(map.getIldDecibels(f, b), sequential.getIldDecibels(f, b)) != 0) {
+                    System.out.printf("  Parallel and sequential maps differ at frame %d band %d\n", f, b);
+                    return false;
+                }
+            }
+        }
+        // Bands above 200 Hz have enough cycles per frame for a clean estimate
+        for (int b = 2; b < map.getBandCount(); b++) {
+            SpatialCueAnalyzer.SpatialCues cues = map.getBandMedian(b);
+            if (Math.abs(cues.getItdMicroseconds() - expectedItd) > 5.0 || Math.abs(cues.getIldDecibels() - 4.0) > 0.2) {
+                System.out.printf("  Band %.0f-%.0f Hz: %s\n", map.getBandLowHz(b), map.getBandHighHz(b), cues);
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean testLiveCueTracker() {
+        File wav = null;
+        try {
+            // Noise whose cues change halfway: right ear 11 samples late and 4 dB down,
+            // then left ear 5 samples late and 2 dB down
+            int sampleRate = 44100;
+            int n = sampleRate * 2;
+            Random random = new Random(5);
+            float[] source = new float[n + 11];
+            for (int i = 0; i < source.length; i++) source[i] = (float) (random.nextGaussian() * 0.2);
+            float[][] stereo = new float[2][n];
+            for (int i = 0; i < n; i++) {
+                if (i < n / 2) {
+                    stereo[0][i] = source[i + 11];
+                    stereo[1][i] = (float) (source[i] * Math.pow(10, -4.0 / 20));
+                } else {
+                    stereo[0][i] = (float) (source[i] * Math.pow(10, -2.0 / 20));
+                    stereo[1][i] = source[i + 5];
+                }
+            }
+            wav = File.createTempFile("muse2_live_test", ".wav");
+            writeTestWav(stereo, sampleRate, wav);
+            float[][] loaded = AudioProcessor.loadWavFile(wav.getPath());
+            
+            LiveCueTracker tracker = new LiveCueTracker(sampleRate);
+            int updates = n / tracker.getHop();
+            long[] frames = new long[updates];
+            double[] itd = new double[updates];
+            double[] ild = new double[updates];
+            int[] count = {0};
+            tracker.setListener((frame, itdUs, ildDb) -> {
+                frames[count[0]] = frame;
+                itd[count[0]] = itdUs;
+                ild[count[0]] = ildDb;
+                count[0]++;
+            });
+            // Odd block size so blocks never line up with the hops
+            try (WavStreamReader reader = new WavStreamReader(wav.getPath(), 1000)) {
+                int read;
+                while ((read = reader.read()) > 0) {
+                    tracker.process(reader.getLeft(), reader.getRight(), 0, read);
+                }
+            }
+            if (count[0] != updates) {
+                System.out.printf("  Expected %d updates, got %d\n", updates, count[0]);
+                return false;
+            }
+            
+            // Every update matches a full analysis of the window it covers, including
+            // updates made after the running sums have slid for many hops
+            for (int u = 0; u < updates; u++) {
+                int end = (int) frames[u];
+                int start = Math.max(0, end - tracker.getWindow());
+                float[] l = Arrays.copyOfRange(loaded[0], start, end);
+                float[] r = Arrays.copyOfRange(loaded[1], start, end);
+                double expectedIld = SpatialCueAnalyzer.computeILD(l, r);
+                double expectedItd = end - start > SpatialCueAnalyzer.MAX_LAG_SAMPLES * 2
+                    ? SpatialCueAnalyzer.computeITD(l, r, sampleRate, SpatialCueAnalyzer.CorrelationMethod.FFT) : Double.NaN;
+                if (Math.abs(itd[u] - expectedItd) > SpatialCueAnalyzer.FFT_ITD_TOLERANCE_US
+                        || Math.abs(ild[u] - expectedIld) > 1e-6
+                        || Double.isNaN(itd[u]) != Double.isNaN(expectedItd)) {
+                    System.out.printf("  Update %d (frame %d): ITD %.4f vs %.4f, ILD %.6f vs %.6f\n",
+                        u, end, itd[u], expectedItd, ild[u], expectedIld);
+                    return false;
+                }
+            }
+            
+            // The tracker follows the change within one window
+            double firstItd = 11 * 1000000.0 / sampleRate;
+            double secondItd = -5 * 1000000.0 / sampleRate;
+            int mid = (n / 2) / tracker.getHop();
+            if (Math.abs(itd[mid - 1] - firstItd) > 5.0 || Math.abs(ild[mid - 1] - 4.0) > 0.2
+                    || Math.abs(itd[updates - 1] - secondItd) > 5.0 || Math.abs(ild[updates - 1] + 2.0) > 0.2) {
+                System.out.printf("  Tracked cues: %.1f us / %.2f dB, then %.1f us / %.2f dB\n",
+                    itd[mid - 1], ild[mid - 1], itd[updates - 1], ild[updates - 1]);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Live tracker test exception: " + e.getMessage());
+            return false;
+        } finally {
+            if (wav != null) wav.delete();
+        }
+    }
+    
+    private static boolean testAsyncLogger() {
+        File log = null;
+        Logger.Level previousLevel = Logger.getLevel();
+        try {
+            log = File.createTempFile("muse2_log_test", ".log");
+            Logger.initialize(log.getPath());
+            Logger.setConsoleOutput(false);
+            Logger.setLevel(Logger.Level.INFO);
+            Logger.setAsync(true);
+            
+            // More messages than the ring holds, so producers also wait on a full ring
+            int threads = 4;
+            int perThread = 5000;
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        Logger.debug("filtered " + id);
+                        Logger.info("worker " + id + " message " + i);
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) worker.join();
+            Logger.setAsync(false);
+            Logger.close();
+            
+            int[] next = new int[threads];
+            int lines = 0;
+            try (BufferedReader reader = new BufferedReader(new FileReader(log))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.contains("DEBUG")) {
+                        System.out.println("  Filtered message was written: " + line);
+                        return false;
+                    }
+                    int at = line.indexOf("] INFO: worker ");
+                    if (at < 0) continue;
+                    if (!line.matches("\\[\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3}\\] INFO: .*")) {
+                        System.out.println("  Malformed line: " + line);
+                        return false;
+                    }
+                    String[] parts = line.substring(at + 15).split(" message ");
+                    int id = Integer.parseInt(parts[0]);
+                    // Each thread's messages appear in the order it logged them
+                    if (Integer.parseInt(parts[1]) != next[id]++) {
+                        System.out.println("  Out of order: " + line);
+                        return false;
+                    }
+                    lines++;
+                }
+            }
+            if (lines != threads * perThread) {
+                System.out.printf("  Expected %d lines, found %d\n", threads * perThread, lines);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Logger test exception: " + e.getMessage());
+            return false;
+        } finally {
+            Logger.setAsync(false);
+            Logger.close();
+            Logger.setConsoleOutput(true);
+            Logger.setLevel(previousLevel);
+            if (log != null) log.delete();
+        }
+    }
+    
+    private static boolean testAnalysisDiagnostics() {
+        // Noise with the right ear 7 samples late
+        Random random = new Random(11);
+        int n = 8192;
+        float[] source = new float[n + 7];
+        for (int i = 0; i < source.length; i++) source[i] = (float) (random.nextGaussian() * 0.3);
+        float[] left = Arrays.copyOfRange(source, 7, n + 7);
+        float[] right = Arrays.copyOfRange(source, 0, n);
+        
+        List<SpatialCueAnalyzer.Diagnostics> seen = new ArrayList<>();
+        File wav = null;
+        try {
+            SpatialCueAnalyzer.setDiagnosticsListener(seen::add);
+            SpatialCueAnalyzer.SpatialCues timeDomain = SpatialCueAnalyzer.analyzeSpatialCues(
+                left, right, 44100, SpatialCueAnalyzer.CorrelationMethod.TIME_DOMAIN);
+            SpatialCueAnalyzer.SpatialCues fft = SpatialCueAnalyzer.analyzeSpatialCues(
+                left, right, 44100, SpatialCueAnalyzer.CorrelationMethod.FFT);
+            SpatialCueAnalyzer.setDiagnosticsListener(null);
+            SpatialCueAnalyzer.analyzeSpatialCues(left, right, 44100);
+            
+            if (seen.size() != 2) {
+                System.out.println("  Expected 2 diagnostics, got " + seen.size());
+                return false;
+            }
+            SpatialCueAnalyzer.SpatialCues[] results = {timeDomain, fft};
+            for (int k = 0; k < 2; k++) {
+                SpatialCueAnalyzer.Diagnostics d = seen.get(k);
+                double expectedItd = (d.getPeakIndex() - SpatialCueAnalyzer.MAX_LAG_SAMPLES + d.getInterpolationOffset())
+                    * 1000000.0 / 44100;
+                if (d.getPeakIndex() != SpatialCueAnalyzer.MAX_LAG_SAMPLES + 7 || d.isEdgePeak()
+                        || Math.abs(d.getInterpolationOffset()) > 0.5 || d.getLength() != n
+                        || Math.abs(d.getItdMicroseconds() - expectedItd) > 1e-9
+                        || d.getItdMicroseconds() != results[k].getItdMicroseconds()
+                        || d.getIldDecibels() != results[k].getIldDecibels()
+                        || d.getItdNanos() <= 0 || d.getIldNanos() <= 0) {
+                    System.out.println("  Unexpected diagnostics: " + d);
+                    return false;
+                }
+            }
+            if (seen.get(0).getMethod() != SpatialCueAnalyzer.CorrelationMethod.TIME_DOMAIN
+                    || seen.get(1).getMethod() != SpatialCueAnalyzer.CorrelationMethod.FFT) {
+                System.out.println("  Diagnostics report the wrong methods");
+                return false;
+            }
+            
+            // Streaming analysis reports through the listener too
+            wav = File.createTempFile("muse2_diagnostics", ".wav");
+            WavWriter.write(wav, StereoBuffer.wrap(left, right), 44100, WavWriter.Encoding.FLOAT_32);
+            SpatialCueAnalyzer.setDiagnosticsListener(seen::add);
+            SpatialCueAnalyzer.SpatialCues streamed;
+            try (WavStreamReader reader = new WavStreamReader(wav.getPath())) {
+                streamed = SpatialCueAnalyzer.analyzeStream(reader);
+            }
+            SpatialCueAnalyzer.Diagnostics d = seen.size() == 3 ? seen.get(2) : null;
+            if (d == null || d.getLength() != n || d.getItdMicroseconds() != streamed.getItdMicroseconds()
+                    || d.getIldDecibels() != streamed.getIldDecibels() || d.getItdNanos() <= 0) {
+                System.out.println("  Streaming analysis diagnostics: " + d);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Diagnostics test exception: " + e);
+            return false;
+        } finally {
+            SpatialCueAnalyzer.setDiagnosticsListener(null);
+            if (wav != null) wav.delete();
+        }
+    }
+    
+    private static boolean testMetrics() {
+        File json = null;
+        File csv = null;
+        File dir = null;
+        try {
+            // Uniform durations 1..100000 ns: percentiles land within the bucket precision
+            Metrics.Timer timer = Metrics.timer("test.timer");
+            for (long v = 1; v <= 100000; v++) timer.record(v);
+            double[] percentiles = {50, 90, 99};
+            for (double p : percentiles) {
+                long expected = (long) (p * 1000);
+                long measured = timer.getPercentileNanos(p);
+                if (Math.abs(measured - expected) > expected * 0.035) {
+                    System.out.printf("  p%.0f: %d, expected about %d\n", p, measured, expected);
+                    return false;
+                }
+            }
+            if (timer.getCount() != 100000 || timer.getMinNanos() != 1 || timer.getMaxNanos() != 100000
+                    || Math.abs(timer.getMeanNanos() - 50000.5) > 1e-6) {
+                System.out.println("  Wrong timer summary");
+                return false;
+            }
+            
+            // Counters from concurrent threads
+            Metrics.Counter counter = Metrics.counter("test.counter");
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 10000; i++) counter.increment();
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) t.join();
+            Metrics.setEnabled(false);
+            counter.add(5);
+            timer.record(7);
+            Metrics.setEnabled(true);
+            if (counter.get() != 40000 || timer.getCount() != 100000) {
+                System.out.printf("  Counter %d, timer count %d\n", counter.get(), timer.getCount());
+                return false;
+            }
+            
+            json = File.createTempFile("muse2_metrics", ".json");
+            csv = File.createTempFile("muse2_metrics", ".csv");
+            Metrics.dump(json);
+            Metrics.dump(csv);
+            String jsonText = new String(java.nio.file.Files.readAllBytes(json.toPath()), "UTF-8");
+            String csvText = new String(java.nio.file.Files.readAllBytes(csv.toPath()), "UTF-8");
+            if (!jsonText.contains("\"test.counter\": 40000") || !jsonText.contains("\"test.timer\": {\"count\": 100000")
+                    || !csvText.contains("test.counter,counter,40000") || !csvText.contains("test.timer,timer,100000,")) {
+                System.out.println("  Dump is missing metrics");
+                return false;
+            }
+            Metrics.remove("test.timer");
+            Metrics.remove("test.counter");
+            
+            // A batch run's dump covers that run only, not earlier ones
+            dir = java.nio.file.Files.createTempDirectory("muse2_metrics_test").toFile();
+            writeTestWav(SyntheticSignalGenerator.generateSineStereo(0.2, 44100.0f, 500.0f, 100.0, 1.0), 44100.0f, new File(dir, "metrics_test.wav"));
+            BatchProcessor processor = new BatchProcessor();
+            processor.setCache(null);
+            processor.setShifts(200f);
+            processor.setMetricsOutput(csv);
+            for (int run = 0; run < 2; run++) {
+                processor.processDirectory(dir.getPath(), new File(dir, "results.csv").getPath());
+            }
+            csvText = new String(java.nio.file.Files.readAllBytes(csv.toPath()), "UTF-8");
+            if (!csvText.contains(Metrics.FILES_PROCESSED + ",counter,1,") || !csvText.contains(Metrics.SHIFTS_PRODUCED + ",counter,1,")
+                    || csvText.contains("test.timer") || csvText.contains("test.counter")) {
+                System.out.println("  Second run's dump is not limited to that run:\n" + csvText);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Metrics test exception: " + e.getMessage());
+            return false;
+        } finally {
+            Metrics.setEnabled(true);
+            Metrics.remove("test.timer");
+            Metrics.remove("test.counter");
+            if (json != null) json.delete();
+            if (csv != null) csv.delete();
+            if (dir != null) deleteRecursively(dir);
+            new File("output_stimuli", "metrics_test_shifted_200Hz.wav").delete();
+        }
+    }
+    
+    private static boolean testCsvExporter() {
+        File csv = null;
+        try {
+            // The fixed-point formatter matches String.format, including values that sit
+            // on a rounding tie in decimal but not in binary
+            Random random = new Random(17);
+            List<Double> values = new ArrayList<>(Arrays.asList(0.0, -0.0, -0.0001, 0.0005, 0.0015, 1.0005, -2.0005,
+                0.15, 999.9995, -999.9995, 123456.7895, 1e20, -1e12, Double.NaN,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE));
+            for (int i = 0; i < 200000; i++) {
+                double magnitude = Math.pow(10, random.nextInt(9) - 3);
+                values.add((random.nextDouble() - 0.5) * magnitude);
+                values.add((random.nextInt(2000001) - 1000000) / 2000.0);
+            }
+            for (double v : values) {
+                for (int decimals : new int[] {1, 3}) {
+                    StringBuilder fast = new StringBuilder();
+                    CsvExporter.appendFixed(fast, v, decimals);
+                    String expected = String.format(Locale.ROOT, "%." + decimals + "f", v);
+                    if (!fast.toString().equals(expected)) {
+                        System.out.printf("  %s with %d decimals: %s, expected %s\n", v, decimals, fast, expected);
+                        return false;
+                    }
+                }
+            }
+            
+            // Concurrent batches come out whole, each file's rows together and in order
+            csv = File.createTempFile("muse2_csv_test", ".csv");
+            int threads = 4;
+            int files = 500;
+            try (CsvExporter exporter = new CsvExporter(csv.getPath())) {
+                exporter.writeHeader();
+                Thread[] workers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    final int id = t;
+                    workers[t] = new Thread(() -> {
+                        CsvExporter.Batch batch = new CsvExporter.Batch();
+                        try {
+                            for (int f = 0; f < files; f++) {
+                                batch.clear();
+                                for (int shift = 200; shift <= 600; shift += 200) {
+                                    batch.add("t" + id + "_" + f + ".wav", shift, 10.0, 1.0, 10.0 + shift / 1000.0, 1.5);
+                                }
+                                exporter.append(batch);
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    workers[t].start();
+                }
+                for (Thread worker : workers) worker.join();
+                exporter.appendRow("last.wav", 200f, 1.0005, -0.0001, 2.0, 3.0);
+            }
+            
+            List<String> lines = java.nio.file.Files.readAllLines(csv.toPath());
+            if (lines.size() != 2 + threads * files * 3
+                    || !lines.get(0).equals("filename,shift_amount_hz,original_itd,original_ild,shifted_itd,shifted_ild,itd_change,ild_change")
+                    || !lines.get(lines.size() - 1).equals("last.wav,200.0,1.001,-0.000,2.000,3.000,1.000,3.000")) {
+                System.out.println("  Unexpected CSV layout, " + lines.size() + " lines");
+                return false;
+            }
+            for (int i = 1; i + 1 < lines.size(); i += 3) {
+                String name = lines.get(i).substring(0, lines.get(i).indexOf(','));
+                for (int k = 0; k < 3; k++) {
+                    String expected = String.format(Locale.ROOT, "%s,%.1f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                        name, (float) (200 + k * 200), 10.0, 1.0, 10.0 + (200 + k * 200) / 1000.0, 1.5,
+                        (200 + k * 200) / 1000.0 + 10.0 - 10.0, 0.5);
+                    if (!lines.get(i + k).equals(expected)) {
+                        System.out.println("  Row " + (i + k) + ": " + lines.get(i + k) + ", expected " + expected);
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  CSV exporter test exception: " + e.getMessage());
+            return false;
+        } finally {
+            if (csv != null) csv.delete();
+        }
+    }
+    
+    private static boolean testResultsTable() {
+        File table = null;
+        File csv = null;
+        File converted = null;
+        try {
+            table = File.createTempFile("muse2_results", ResultsTable.FILE_EXTENSION);
+            csv = File.createTempFile("muse2_results", ".csv");
+            converted = File.createTempFile("muse2_converted", ResultsTable.FILE_EXTENSION);
+            
+            // Rows fed to both outputs, with a repeated name and one containing a comma
+            Random random = new Random(23);
+            int rows = 3001;
+            String[] names = {"speech_front.wav", "tone, 45 left.wav", "speech_front.wav", "noise.wav"};
+            double[][] expected = new double[rows][6];
+            try (ResultsTable.Writer writer = new ResultsTable.Writer(table.getPath());
+                 CsvExporter exporter = new CsvExporter(csv.getPath())) {
+                exporter.writeHeader();
+                for (int r = 0; r < rows; r++) {
+                    float shift = 200 * (1 + r % 3);
+                    for (int c = 0; c < 4; c++) expected[r][c] = random.nextGaussian() * 300;
+                    writer.appendRow(names[r % names.length], shift, expected[r][0], expected[r][1], expected[r][2], expected[r][3]);
+                    exporter.appendRow(names[r % names.length], shift, expected[r][0], expected[r][1], expected[r][2], expected[r][3]);
+                    expected[r][4] = expected[r][2] - expected[r][0];
+                    expected[r][5] = expected[r][3] - expected[r][1];
+                }
+            }
+            
+            try (ResultsTable results = new ResultsTable(table.getPath())) {
+                if (results.getRowCount() != rows || results.getFilenames().length != 3) {
+                    System.out.println("  Wrong shape: " + results.getRowCount() + " rows");
+                    return false;
+                }
+                java.nio.DoubleBuffer[] columns = new java.nio.DoubleBuffer[6];
+                for (int c = 0; c < 6; c++) columns[c] = results.getDoubleColumn(ResultsTable.COLUMNS[c + 2]);
+                java.nio.FloatBuffer shifts = results.getShiftColumn();
+                java.nio.IntBuffer nameIndex = results.getFilenameIndexColumn();
+                String[] dictionary = results.getFilenames();
+                for (int r = 0; r < rows; r++) {
+                    if (!dictionary[nameIndex.get(r)].equals(names[r % names.length])
+                            || !results.getFilename(r).equals(names[r % names.length])
+                            || shifts.get(r) != 200 * (1 + r % 3) || results.getShiftHz(r) != shifts.get(r)) {
+                        System.out.println("  Row " + r + " name/shift mismatch");
+                        return false;
+                    }
+                    for (int c = 0; c < 6; c++) {
+                        if (columns[c].get(r) != expected[r][c]
+                                || results.getDouble(ResultsTable.COLUMNS[c + 2], r) != expected[r][c]) {
+                            System.out.println("  Row " + r + " column " + ResultsTable.COLUMNS[c + 2] + " mismatch");
+                            return false;
+                        }
+                    }
+                }
+            }
+            
+            // CSV conversion keeps the rounded values exactly as written
+            if (ResultsTable.convertCsv(csv.getPath(), converted.getPath()) != rows) {
+                System.out.println("  Conversion lost rows");
+                return false;
+            }
+            List<String> lines = java.nio.file.Files.readAllLines(csv.toPath(), java.nio.charset.Charset.defaultCharset());
+            try (ResultsTable results = new ResultsTable(converted.getPath())) {
+                for (int r = 0; r < rows; r++) {
+                    String[] parts = lines.get(r + 1).split(",");
+                    int first = parts.length - 7;
+                    for (int c = 0; c < 6; c++) {
+                        if (results.getDouble(ResultsTable.COLUMNS[c + 2], r) != Double.parseDouble(parts[first + 1 + c])) {
+                            System.out.println("  Converted row " + r + " differs from CSV");
+                            return false;
+                        }
+                    }
+                    if (!results.getFilename(r).equals(names[r % names.length])) {
+                        System.out.println("  Converted row " + r + " has name " + results.getFilename(r));
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Results table test exception: " + e.getMessage());
+            return false;
+        } finally {
+            if (table != null) table.delete();
+            if (csv != null) csv.delete();
+            if (converted != null) converted.delete();
+        }
+    }
+    
+    private static boolean testAnalysisCache() {
+        File dir = null;
+        try {
+            dir = java.nio.file.Files.createTempDirectory("muse2_cache_test").toFile();
+            File store = new File(dir, "store");
+            File wav = new File(dir, "a.wav");
+            File copy = new File(dir, "copy_of_a.wav");
+            File other = new File(dir, "b.wav");
+            writeTestWav(SyntheticSignalGenerator.generateSpeechLikeSignal(0.5, 44100.0f, 250.0, 2.0), 44100.0f, wav);
+            java.nio.file.Files.copy(wav.toPath(), copy.toPath());
+            writeTestWav(SyntheticSignalGenerator.generateSineStereo(0.5, 44100.0f, 500.0f, 200.0, 3.0), 44100.0f, other);
+            
+            float[][] decoded = AudioProcessor.loadWavFile(wav.getPath());
+            SpatialCueAnalyzer.SpatialCues direct = SpatialCueAnalyzer.analyzeSpatialCues(decoded[0], decoded[1], 44100);
+            
+            Metrics.Counter hits = Metrics.counter(Metrics.CACHE_HITS);
+            Metrics.Counter misses = Metrics.counter(Metrics.CACHE_MISSES);
+            long hits0 = hits.get();
+            long misses0 = misses.get();
+            
+            AnalysisCache cache = new AnalysisCache(store, AnalysisCache.DEFAULT_MEMORY_BYTES);
+            AnalysisCache.Audio first = cache.loadAudio(wav);
+            SpatialCueAnalyzer.SpatialCues cues = cache.getCues(wav);
+            if (!Arrays.equals(first.getLeft(), decoded[0]) || !Arrays.equals(first.getRight(), decoded[1])
+                    || first.getSampleRate() != 44100.0f
+                    || cues.getItdMicroseconds() != direct.getItdMicroseconds() || cues.getIldDecibels() != direct.getIldDecibels()
+                    || misses.get() - misses0 != 2 || hits.get() - hits0 != 1) {
+                System.out.println("  First use did not decode and analyse exactly once");
+                return false;
+            }
+            
+            // Same contents under another name come from memory
+            if (cache.loadAudio(copy) != first || cache.getCues(copy).getItdMicroseconds() != direct.getItdMicroseconds()) {
+                System.out.println("  Copied file missed the memory layer");
+                return false;
+            }
+            
+            // A fresh cache on the same directory reads both entries from disk
+            long missesBefore = misses.get();
+            AnalysisCache reopened = new AnalysisCache(store, AnalysisCache.DEFAULT_MEMORY_BYTES);
+            AnalysisCache.Audio fromDisk = reopened.loadAudio(wav);
+            SpatialCueAnalyzer.SpatialCues cuesFromDisk = reopened.getCues(wav);
+            if (misses.get() != missesBefore || !Arrays.equals(fromDisk.getLeft(), decoded[0])
+                    || !Arrays.equals(fromDisk.getRight(), decoded[1])
+                    || cuesFromDisk.getItdMicroseconds() != direct.getItdMicroseconds()
+                    || cuesFromDisk.getIldDecibels() != direct.getIldDecibels()) {
+                System.out.println("  Disk layer did not return the stored entries");
+                return false;
+            }
+            
+            // Changed contents miss; a budget of one file evicts the least recently used one
+            AnalysisCache small = new AnalysisCache(store, 4L * 2 * 22050 + 100);
+            small.loadAudio(wav);
+            small.loadAudio(other);
+            if (small.getMemoryBytesUsed() > 4L * 2 * 22050 + 100) {
+                System.out.println("  Memory budget exceeded: " + small.getMemoryBytesUsed());
+                return false;
+            }
+            writeTestWav(SyntheticSignalGenerator.generateSineStereo(0.5, 44100.0f, 700.0f, 0.0, 0.0), 44100.0f, wav);
+            wav.setLastModified(wav.lastModified() + 2000);
+            missesBefore = misses.get();
+            AnalysisCache.Audio changed = small.loadAudio(wav);
+            if (misses.get() != missesBefore + 1 || Arrays.equals(changed.getLeft(), decoded[0])) {
+                System.out.println("  Changed file was served from the cache");
+                return false;
+            }
+            
+            // Entries decoded by an earlier ANALYSIS_VERSION are decoded again
+            File stored = new File(store, small.hash(wav) + ".audio");
+            try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(stored.toPath(), java.nio.file.StandardOpenOption.WRITE)) {
+                java.nio.ByteBuffer version = java.nio.ByteBuffer.allocate(4).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+                version.putInt(0, AnalysisCache.ANALYSIS_VERSION - 1);
+                channel.write(version, 4);
+            }
+            missesBefore = misses.get();
+            new AnalysisCache(store, AnalysisCache.DEFAULT_MEMORY_BYTES).loadAudio(wav);
+            if (misses.get() != missesBefore + 1) {
+                System.out.println("  Entry from an older analysis version was served");
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Cache test exception: " + e.getMessage());
+            return false;
+        } finally {
+            if (dir != null) deleteRecursively(dir);
+        }
+    }
+    
+    private static boolean testIncrementalBatch() {
+        File dir = null;
+        String[] names = {"incremental_test_a.wav", "incremental_test_b.wav", "incremental_test_c.wav"};
+        try {
+            dir = java.nio.file.Files.createTempDirectory("muse2_incremental_test").toFile();
+            File inputs = new File(dir, "in");
+            inputs.mkdir();
+            File csv = new File(dir, "results.csv");
+            File fullCsv = new File(dir, "full.csv");
+            writeTestWav(SyntheticSignalGenerator.generateSpeechLikeSignal(0.3, 44100.0f, 250.0, 2.0), 44100.0f, new File(inputs, names[0]));
+            writeTestWav(SyntheticSignalGenerator.generateSineStereo(0.3, 44100.0f, 500.0f, 200.0, 3.0), 44100.0f, new File(inputs, names[1]));
+            
+            BatchProcessor processor = new BatchProcessor();
+            processor.setCache(null);
+            processor.setShifts(200f);
+            processor.setIncremental(true);
+            Metrics.Counter processed = Metrics.counter(Metrics.FILES_PROCESSED);
+            Metrics.Counter skipped = Metrics.counter(Metrics.FILES_SKIPPED);
+            
+            long processed0 = processed.get();
+            processor.processDirectory(inputs.getPath(), csv.getPath());
+            if (processed.get() - processed0 != 2 || BatchManifest.load(BatchManifest.forCsv(csv.getPath())).size() != 2) {
+                System.out.println("  First run did not process and record both inputs");
+                return false;
+            }
+            
+            // One new input, one whose time changed but contents did not
+            writeTestWav(SyntheticSignalGenerator.generateSineStereo(0.3, 44100.0f, 700.0f, -300.0, -2.0), 44100.0f, new File(inputs, names[2]));
+            File touched = new File(inputs, names[0]);
+            touched.setLastModified(touched.lastModified() + 5000);
+            processed0 = processed.get();
+            long skipped0 = skipped.get();
+            processor.processDirectory(inputs.getPath(), csv.getPath());
+            if (processed.get() - processed0 != 1 || skipped.get() - skipped0 != 2) {
+                System.out.println("  Second run processed " + (processed.get() - processed0) + " files, skipped " + (skipped.get() - skipped0));
+                return false;
+            }
+            
+            // The incremental CSV matches a full rebuild
+            BatchProcessor full = new BatchProcessor();
+            full.setCache(null);
+            full.setShifts(200f);
+            full.processDirectory(inputs.getPath(), fullCsv.getPath());
+            if (!Arrays.equals(java.nio.file.Files.readAllBytes(csv.toPath()), java.nio.file.Files.readAllBytes(fullCsv.toPath()))) {
+                System.out.println("  Incremental results differ from a full run");
+                return false;
+            }
+            
+            // Changed contents are processed again
+            writeTestWav(SyntheticSignalGenerator.generateSineStereo(0.3, 44100.0f, 900.0f, 100.0, 1.0), 44100.0f, new File(inputs, names[1]));
+            processed0 = processed.get();
+            processor.processDirectory(inputs.getPath(), csv.getPath());
+            if (processed.get() - processed0 != 1) {
+                System.out.println("  Changed input was not reprocessed");
+                return false;
+            }
+            
+            // A full run with other shifts drops the manifest, so nothing is carried over afterwards
+            BatchProcessor other = new BatchProcessor();
+            other.setCache(null);
+            other.setShifts(400f);
+            other.processDirectory(inputs.getPath(), csv.getPath());
+            if (BatchManifest.forCsv(csv.getPath()).exists()) {
+                System.out.println("  Full run left the previous manifest in place");
+                return false;
+            }
+            processed0 = processed.get();
+            processor.processDirectory(inputs.getPath(), csv.getPath());
+            if (processed.get() - processed0 != names.length) {
+                System.out.println("  Incremental run after a full run reused rows of other shifts");
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Incremental test exception: " + e.getMessage());
+            return false;
+        } finally {
+            if (dir != null) deleteRecursively(dir);
+            for (String name : names) {
+                new File("output_stimuli", name.replace(".wav", "_shifted_200Hz.wav")).delete();
+                new File("output_stimuli", name.replace(".wav", "_shifted_400Hz.wav")).delete();
+            }
+        }
+    }
+    
+    private static boolean testStereoBuffer() {
+        float[][] stereo = SyntheticSignalGenerator.generateSineStereo(0.25, 44100.0f, 500.0f, 250.0, 3.0);
+        int frames = Math.min(stereo[0].length, stereo[1].length);
+        SpatialCueAnalyzer.SpatialCues expected = SpatialCueAnalyzer.analyzeSpatialCues(stereo[0], stereo[1], 44100);
+        
+        // Every layout and storage holds the same frames and yields the same cues
+        StereoBuffer[] buffers = {
+            StereoBuffer.allocate(frames),
+            StereoBuffer.allocate(frames, StereoBuffer.Layout.INTERLEAVED, false),
+            StereoBuffer.allocate(frames, StereoBuffer.Layout.PLANAR, true),
+            StereoBuffer.allocate(frames, StereoBuffer.Layout.INTERLEAVED, true)
+        };
+        for (StereoBuffer buffer : buffers) {
+            buffer.put(0, stereo[0], stereo[1], 0, frames);
+            float[][] back = buffer.toArrays();
+            SpatialCueAnalyzer.SpatialCues cues = SpatialCueAnalyzer.analyzeSpatialCues(buffer, 44100);
+            if (!Arrays.equals(back[0], Arrays.copyOf(stereo[0], frames)) || !Arrays.equals(back[1], Arrays.copyOf(stereo[1], frames))
+                    || cues.getItdMicroseconds() != expected.getItdMicroseconds() || cues.getIldDecibels() != expected.getIldDecibels()) {
+                System.out.println("  " + buffer.getLayout() + (buffer.isDirect() ? " direct" : " heap") + " buffer differs");
+                return false;
+            }
+        }
+        
+        // Slices are views: writes show through and cues match a copy of the same range
+        StereoBuffer slice = buffers[2].slice(1000, 4000);
+        slice.set(0, 0.5f, -0.5f);
+        if (buffers[2].getLeft(1000) != 0.5f || buffers[2].getRight(1000) != -0.5f) {
+            System.out.println("  Slice does not share storage");
+            return false;
+        }
+        buffers[2].set(1000, stereo[0][1000], stereo[1][1000]);
+        SpatialCueAnalyzer.SpatialCues sliceCues = SpatialCueAnalyzer.analyzeSpatialCues(buffers[0].slice(1000, 4000), 44100);
+        SpatialCueAnalyzer.SpatialCues copyCues = SpatialCueAnalyzer.analyzeSpatialCues(
+            Arrays.copyOfRange(stereo[0], 1000, 5000), Arrays.copyOfRange(stereo[1], 1000, 5000), 44100);
+        if (sliceCues.getItdMicroseconds() != copyCues.getItdMicroseconds() || sliceCues.getIldDecibels() != copyCues.getIldDecibels()) {
+            System.out.println("  Slice cues differ from a copy");
+            return false;
+        }
+        
+        // Shifting buffers matches shifting arrays, whatever the output storage
+        float[][] shifted = FrequencyShifter.shift(stereo[0], stereo[1], 44100.0f, 200.0f);
+        StereoBuffer out = StereoBuffer.allocate(frames, StereoBuffer.Layout.INTERLEAVED, true);
+        FrequencyShifter.shift(buffers[3], out, 200.0f);
+        float[][] outArrays = out.toArrays();
+        if (!Arrays.equals(outArrays[0], shifted[0]) || !Arrays.equals(outArrays[1], shifted[1])) {
+            System.out.println("  Buffer shift differs from array shift");
+            return false;
+        }
+        
+        // Released buffers are reused for any length in their size class
+        StereoBuffer.Pool pool = new StereoBuffer.Pool(StereoBuffer.Layout.PLANAR, false, 1L << 24);
+        StereoBuffer first = pool.acquire(10000);
+        first.release();
+        StereoBuffer second = pool.acquire(9990);
+        StereoBuffer third = pool.acquire(10000);
+        if (second != first || third == first || second.frames() != 9990 || pool.getAllocationCount() != 2) {
+            System.out.println("  Pool did not reuse a released buffer");
+            return false;
+        }
+        second.release();
+        third.release();
+        try {
+            third.release();
+            System.out.println("  Double release not detected");
+            return false;
+        } catch (IllegalStateException expectedFailure) {
+            // Expected
+        }
+        return pool.getRetainedBytes() == 2 * second.capacity() * 8L;
+    }
+    
+    private static boolean testWavCodec() {
+        File dir = null;
+        try {
+            dir = java.nio.file.Files.createTempDirectory("muse2_wav_test").toFile();
+            float[][] stereo = SyntheticSignalGenerator.generateSineStereo(0.2, 48000.0f, 440.0f, 300.0, 2.0);
+            int frames = Math.min(stereo[0].length, stereo[1].length);
+            // PCM must clamp beyond full scale rather than wrap
+            stereo[0][10] = 1.5f;
+            stereo[1][10] = -1.5f;
+            
+            // Written scaled by 2^(bits-1) - 1 and read back divided by 2^(bits-1)
+            double[] tolerance = {2.0 / 32768, 2.0 / 8388608, 0.0, 0.0};
+            WavWriter.Encoding[] encodings = WavWriter.Encoding.values();
+            for (int e = 0; e < encodings.length; e++) {
+                WavWriter.Encoding encoding = encodings[e];
+                File wav = new File(dir, encoding + ".wav");
+                try (WavWriter writer = new WavWriter(wav, 48000, 2, encoding)) {
+                    writer.addChunk("LIST", "INFOtest".getBytes("US-ASCII"));
+                    writer.addChunk("odd ", new byte[3]);
+                    writer.write(stereo[0], stereo[1], 0, 5000);
+                    writer.write(StereoBuffer.wrap(stereo[0], stereo[1]).slice(5000, frames - 5000));
+                }
+                
+                float[] left = new float[frames];
+                float[] right = new float[frames];
+                int read = 0;
+                try (WavStreamReader reader = new WavStreamReader(wav.getPath(), 777)) {
+                    if (reader.getSampleRate() != 48000.0f || reader.getFrameLength() != frames
+                            || reader.getHeader().getBitsPerSample() != encoding.getBitsPerSample()
+                            || reader.getHeader().isFloat() != encoding.isFloat()) {
+                        System.out.println("  " + encoding + " header wrong: " + reader.getHeader());
+                        return false;
+                    }
+                    int n;
+                    while ((n = reader.read()) > 0) {
+                        System.arraycopy(reader.getLeft(), 0, left, read, n);
+                        System.arraycopy(reader.getRight(), 0, right, read, n);
+                        read += n;
+                    }
+                }
+                if (read != frames) {
+                    System.out.println("  " + encoding + " read " + read + " of " + frames + " frames");
+                    return false;
+                }
+                for (int i = 0; i < frames; i++) {
+                    double limit = encoding.isFloat() ? Double.MAX_VALUE : 1.0;
+                    double expectedLeft = Math.max(-limit, Math.min(limit, stereo[0][i]));
+                    double expectedRight = Math.max(-limit, Math.min(limit, stereo[1][i]));
+                    if (Math.abs(left[i] - expectedLeft) > tolerance[e] + 1e-7 || Math.abs(right[i] - expectedRight) > tolerance[e] + 1e-7) {
+                        System.out.printf("  %s frame %d: %f/%f read as %f/%f\n", encoding, i, stereo[0][i], stereo[1][i], left[i], right[i]);
+                        return false;
+                    }
+                }
+                
+                // The mapped reader sees the same samples past the extra chunks
+                try (MappedWavFile mapped = new MappedWavFile(wav.getPath())) {
+                    if (mapped.getSample(1234, 0) != left[1234] || mapped.getSample(frames - 1, 1) != right[frames - 1]) {
+                        System.out.println("  " + encoding + " mapped samples differ");
+                        return false;
+                    }
+                }
+            }
+            
+            // 16-bit output stays readable by javax.sound
+            try (javax.sound.sampled.AudioInputStream ais = javax.sound.sampled.AudioSystem.getAudioInputStream(new File(dir, "PCM_16.wav"))) {
+                if (ais.getFrameLength() != frames || ais.getFormat().getSampleSizeInBits() != 16) {
+                    System.out.println("  AudioSystem reads " + ais.getFormat() + ", " + ais.getFrameLength() + " frames");
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  WAV codec test exception: " + e);
+            return false;
+        } finally {
+            if (dir != null) deleteRecursively(dir);
+        }
+    }
+    
+    private static boolean testResampler() {
+        File dir = null;
+        try {
+            // A tone keeps its frequency and amplitude at the new rate, both down and up
+            int[][] rates = {{48000, 44100}, {22050, 44100}, {96000, 44100}};
+            for (int[] r : rates) {
+                int frames = r[0] / 4 + 17;
+                float[] left = new float[frames];
+                float[] right = new float[frames];
+                for (int i = 0; i < frames; i++) {
+                    left[i] = (float) (0.5 * Math.sin(2 * Math.PI * 1000.0 * i / r[0]));
+                    right[i] = (float) (0.25 * Math.cos(2 * Math.PI * 3000.0 * i / r[0]));
+                }
+                StereoBuffer out = Resampler.resample(StereoBuffer.wrap(left, right), r[0], r[1], null);
+                long expected = Resampler.outputFrames(frames, r[0], r[1]);
+                if (out.frames() != expected || expected != (long) Math.ceil((double) frames * r[1] / r[0])) {
+                    System.out.println("  " + r[0] + " -> " + r[1] + ": " + out.frames() + " frames, expected " + expected);
+                    return false;
+                }
+                // Away from the edges, where the filter runs into the silence around the input
+                for (int n = 200; n < out.frames() - 200; n++) {
+                    double l = 0.5 * Math.sin(2 * Math.PI * 1000.0 * n / r[1]);
+                    double rr = 0.25 * Math.cos(2 * Math.PI * 3000.0 * n / r[1]);
+                    if (Math.abs(out.getLeft(n) - l) > 2e-3 || Math.abs(out.getRight(n) - rr) > 2e-3) {
+                        System.out.printf("  %d -> %d frame %d: %f/%f, expected %f/%f\n", r[0], r[1], n, out.getLeft(n), out.getRight(n), l, rr);
+                        return false;
+                    }
+                }
+                
+                // Feeding the stream in uneven blocks gives exactly the same output
+                StereoBuffer streamed = StereoBuffer.allocate(out.frames());
+                int[] written = {0};
+                Resampler resampler = new Resampler(r[0], r[1], (l, rr, count) -> {
+                    streamed.put(written[0], l, rr, 0, count);
+                    written[0] += count;
+                });
+                java.util.Random random = new java.util.Random(r[0]);
+                for (int done = 0; done < frames; ) {
+                    int n = Math.min(frames - done, 1 + random.nextInt(9000));
+                    resampler.accept(left, right, done, n);
+                    done += n;
+                }
+                resampler.finish();
+                if (written[0] != out.frames()) {
+                    System.out.println("  Streamed " + written[0] + " frames, one-shot " + out.frames());
+                    return false;
+                }
+                for (int n = 0; n < out.frames(); n++) {
+                    if (streamed.getLeft(n) != out.getLeft(n) || streamed.getRight(n) != out.getRight(n)) {
+                        System.out.println("  Streamed output differs at frame " + n);
+                        return false;
+                    }
+                }
+            }
+            
+            // Tones above the lower Nyquist frequency are rejected rather than aliased into the output
+            int[][] aliasCases = {{48000, 44100, 22500}, {48000, 44100, 23500}, {96000, 44100, 22600}, {48000, 22050, 13000}};
+            for (int[] c : aliasCases) {
+                float[] tone = new float[c[0] / 2];
+                for (int i = 0; i < tone.length; i++) {
+                    tone[i] = (float) (0.5 * Math.sin(2 * Math.PI * c[2] * i / c[0]));
+                }
+                StereoBuffer out = Resampler.resample(StereoBuffer.wrap(tone, tone), c[0], c[1], null);
+                double energy = 0;
+                int counted = 0;
+                for (int n = 200; n < out.frames() - 200; n++) {
+                    energy += out.getLeft(n) * out.getLeft(n);
+                    counted++;
+                }
+                double rejectionDb = 20 * Math.log10(Math.sqrt(energy / counted) / (0.5 / Math.sqrt(2)));
+                if (rejectionDb > -88.0) {
+                    System.out.printf("  %d Hz tone at %d -> %d: residual %.1f dB\n", c[2], c[0], c[1], rejectionDb);
+                    return false;
+                }
+            }
+            
+            // A 48 kHz file loads at 44.1 kHz with its interaural cues intact, or natively on request
+            dir = java.nio.file.Files.createTempDirectory("muse2_resample_test").toFile();
+            float[][] stereo = SyntheticSignalGenerator.generateSpeechLikeSignal(0.5, 48000.0f, 300.0, 3.0);
+            File wav = new File(dir, "speech48k.wav");
+            WavWriter.write(wav, StereoBuffer.wrap(stereo[0], stereo[1]), 48000, WavWriter.Encoding.FLOAT_32);
+            int frames = Math.min(stereo[0].length, stereo[1].length);
+            
+            AudioProcessor resampled = new AudioProcessor(wav.getPath());
+            AudioProcessor native48 = new AudioProcessor(wav.getPath(), null, AudioProcessor.NATIVE_RATE);
+            if (resampled.getSampleRate() != 44100.0f || resampled.getLeftChannel().length != Resampler.outputFrames(frames, 48000, 44100)
+                    || native48.getSampleRate() != 48000.0f || native48.getLeftChannel().length != frames) {
+                System.out.println("  Loaded at " + resampled.getSampleRate() + "/" + native48.getSampleRate() + " Hz");
+                return false;
+            }
+            SpatialCueAnalyzer.SpatialCues at44 = SpatialCueAnalyzer.analyzeSpatialCues(resampled.getAudio(), 44100);
+            SpatialCueAnalyzer.SpatialCues at48 = SpatialCueAnalyzer.analyzeSpatialCues(native48.getAudio(), 48000);
+            // Within one sample period at 44.1 kHz
+            if (Math.abs(at44.getItdMicroseconds() - at48.getItdMicroseconds()) > 1e6 / 44100 + 1
+                    || Math.abs(at44.getIldDecibels() - at48.getIldDecibels()) > 0.1) {
+                System.out.printf("  Cues at 44.1k %.1f us / %.2f dB, at 48k %.1f us / %.2f dB\n",
+                    at44.getItdMicroseconds(), at44.getIldDecibels(), at48.getItdMicroseconds(), at48.getIldDecibels());
+                return false;
+            }
+            
+            // Batch admission counts float ears at the rate the file is analysed at, plus one pair per shift
+            BatchProcessor batch = new BatchProcessor();
+            batch.setShifts(200f, 400f);
+            long perFrame = 2 * Float.BYTES * 3;
+            long at44k = batch.estimateBytes(wav);
+            batch.setSampleRate(AudioProcessor.NATIVE_RATE);
+            long at48k = batch.estimateBytes(wav);
+            if (Math.abs(at44k - Resampler.outputFrames(frames, 48000, 44100) * perFrame) > perFrame || at48k != frames * perFrame) {
+                System.out.println("  Admission estimates " + at44k + "/" + at48k + " bytes for " + frames + " frames");
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Resampler test exception: " + e);
+            return false;
+        } finally {
+            if (dir != null) deleteRecursively(dir);
+        }
+    }
+    
+    private static boolean testSampleDecoders() {
+        File dir = null;
+        try {
+            int frames = 1000;
+            int channels = 4;
+            int[] sizes = {1, 2, 3, 4, 4};
+            boolean[] floats = {false, false, false, false, true};
+            java.nio.ByteOrder[] orders = {java.nio.ByteOrder.LITTLE_ENDIAN, java.nio.ByteOrder.BIG_ENDIAN};
+            for (int f = 0; f < sizes.length; f++) {
+                for (java.nio.ByteOrder order : orders) {
+                    float[][] expected = new float[channels][frames];
+                    java.nio.ByteBuffer data = encodeInterleaved(frames, channels, sizes[f], floats[f], order, expected);
+                    SampleDecoder decoder = SampleDecoder.forFormat(sizes[f], floats[f], order);
+                    // Channels 3 and 1 as the ear pair, starting a few bytes into the buffer
+                    java.nio.ByteBuffer shifted = java.nio.ByteBuffer.allocate(data.capacity() + 5);
+                    shifted.position(5);
+                    shifted.put(data);
+                    float[] left = new float[frames + 2];
+                    float[] right = new float[frames + 2];
+                    decoder.decodePair(shifted, 5, frames, channels, 3, 1, left, right, 2);
+                    shifted.order(order);
+                    for (int i = 0; i < frames; i++) {
+                        float single = decoder.decodeSample(shifted, 5 + (i * channels + 3) * sizes[f]);
+                        if (left[i + 2] != expected[3][i] || right[i + 2] != expected[1][i] || single != expected[3][i]) {
+                            System.out.printf("  %d-byte %s %s frame %d: %f/%f/%f, expected %f/%f\n", sizes[f], floats[f] ? "float" : "PCM",
+                                order, i, left[i + 2], right[i + 2], single, expected[3][i], expected[1][i]);
+                            return false;
+                        }
+                    }
+                }
+            }
+            
+            // Whole files: 24-bit big-endian (RIFX) and 16-bit little-endian, four channels each
+            dir = java.nio.file.Files.createTempDirectory("muse2_decoder_test").toFile();
+            for (java.nio.ByteOrder order : orders) {
+                boolean big = order == java.nio.ByteOrder.BIG_ENDIAN;
+                int size = big ? 3 : 2;
+                float[][] expected = new float[channels][frames];
+                java.nio.ByteBuffer data = encodeInterleaved(frames, channels, size, false, order, expected);
+                File wav = new File(dir, big ? "rifx24.wav" : "riff16.wav");
+                java.nio.ByteBuffer header = java.nio.ByteBuffer.allocate(44).order(order);
+                header.put((big ? "RIFX" : "RIFF").getBytes("US-ASCII")).putInt(36 + data.capacity()).put("WAVE".getBytes("US-ASCII"));
+                header.put("fmt ".getBytes("US-ASCII")).putInt(16).putShort((short) 1).putShort((short) channels)
+                    .putInt(44100).putInt(44100 * channels * size).putShort((short) (channels * size)).putShort((short) (size * 8));
+                header.put("data".getBytes("US-ASCII")).putInt(data.capacity());
+                try (java.io.FileOutputStream out = new java.io.FileOutputStream(wav)) {
+                    out.write(header.array());
+                    out.write(data.array());
+                }
+                
+                float[] left = new float[frames];
+                float[] right = new float[frames];
+                int read = 0;
+                try (WavStreamReader reader = new WavStreamReader(wav.getPath(), 333, 2, 0)) {
+                    if (reader.getHeader().getByteOrder() != order || reader.getFrameLength() != frames) {
+                        System.out.println("  Header read as " + reader.getHeader());
+                        return false;
+                    }
+                    int n;
+                    while ((n = reader.read()) > 0) {
+                        System.arraycopy(reader.getLeft(), 0, left, read, n);
+                        System.arraycopy(reader.getRight(), 0, right, read, n);
+                        read += n;
+                    }
+                }
+                StereoBuffer mapped = StereoBuffer.allocate(frames - 10);
+                try (MappedWavFile file = new MappedWavFile(wav.getPath())) {
+                    file.readPair(2, 0, 10, mapped);
+                }
+                AudioProcessor loaded = new AudioProcessor(wav.getPath(), null, AudioProcessor.TARGET_SAMPLE_RATE, 2, 0);
+                for (int i = 0; i < frames; i++) {
+                    boolean ok = left[i] == expected[2][i] && right[i] == expected[0][i]
+                        && loaded.getLeftChannel()[i] == expected[2][i] && loaded.getRightChannel()[i] == expected[0][i]
+                        && (i < 10 || (mapped.getLeft(i - 10) == expected[2][i] && mapped.getRight(i - 10) == expected[0][i]));
+                    if (read != frames || !ok) {
+                        System.out.println("  " + wav.getName() + " differs at frame " + i + " (" + read + " frames read)");
+                        return false;
+                    }
+                }
+                
+                // An ear channel the file does not have is rejected
+                try {
+                    new WavStreamReader(wav.getPath(), 333, 0, channels).close();
+                    System.out.println("  Missing channel accepted");
+                    return false;
+                } catch (javax.sound.sampled.UnsupportedAudioFileException expectedFailure) {
+                    // Expected
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Sample decoder test exception: " + e);
+            return false;
+        } finally {
+            if (dir != null) deleteRecursively(dir);
+        }
+    }
+    
+    // Interleaved test tone per channel, filling expected with the values a decoder should return
+    private static java.nio.ByteBuffer encodeInterleaved(int frames, int channels, int size, boolean isFloat,
+                                                         java.nio.ByteOrder order, float[][] expected) {
+        java.nio.ByteBuffer data = java.nio.ByteBuffer.allocate(frames * channels * size).order(order);
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) {
+                double v = 0.9 * Math.sin(2 * Math.PI * (c + 1) * 0.01 * i + c);
+                if (isFloat) {
+                    data.putFloat((float) v);
+                    expected[c][i] = (float) v;
+                    continue;
+                }
+                long full = 1L << (size * 8 - 1);
+                long q = Math.round(v * full);
+                switch (size) {
+                    case 1:
+                        data.put((byte) (q + 128));
+                        expected[c][i] = q / 128.0f;
+                        break;
+                    case 2:
+                        data.putShort((short) q);
+                        expected[c][i] = q / 32768.0f;
+                        break;
+                    case 3:
+                        if (order == java.nio.ByteOrder.BIG_ENDIAN) {
+                            data.put((byte) (q >> 16)).put((byte) (q >> 8)).put((byte) q);
+                        } else {
+                            data.put((byte) q).put((byte) (q >> 8)).put((byte) (q >> 16));
+                        }
+                        expected[c][i] = q / 8388608.0f;
+                        break;
+                    default:
+                        data.putInt((int) q);
+                        expected[c][i] = (int) q / 2147483648.0f;
+                }
+            }
+        }
+        data.flip();
+        return data;
+    }
+    
+    private static boolean testParameterSweep() {
+        try {
+            ParameterSweep[] sweeps = {new ParameterSweep(1), new ParameterSweep(4)};
+            ParameterSweep.Result[] results = new ParameterSweep.Result[sweeps.length];
+            for (int k = 0; k < sweeps.length; k++) {
+                ParameterSweep sweep = sweeps[k];
+                sweep.setFrequencies(500, 1000);
+                sweep.setItds(0, 250);
+                sweep.setIlds(0, 6);
+                sweep.setNoiseLevels(0, 0.1);
+                sweep.setShifts(0, 200);
+                sweep.setDuration(0.25);
+                
+                // Every point reaches the sink exactly once
+                boolean[] seen = new boolean[sweep.size()];
+                int[] duplicates = {0};
+                results[k] = sweep.run(point -> {
+                    if (seen[point.getIndex()]) duplicates[0]++;
+                    seen[point.getIndex()] = true;
+                });
+                for (int i = 0; i < seen.length; i++) {
+                    if (!seen[i] || duplicates[0] > 0) {
+                        System.out.println("  Sink missed point " + i + " or saw " + duplicates[0] + " twice");
+                        return false;
+                    }
+                }
+            }
+            
+            int points = results[0].getPointCount();
+            if (points != 32) {
+                System.out.println("  Grid has " + points + " points, expected 32");
+                return false;
+            }
+            for (int i = 0; i < points; i++) {
+                // Index order: frequency, ITD, ILD, noise, shift (fastest)
+                boolean clean = (i / 2) % 2 == 0;
+                boolean unshifted = i % 2 == 0;
+                // Noise is seeded per signal, so even noisy points match across parallelism
+                if ((results[0].getItdError(i) != results[1].getItdError(i)
+                        || results[0].getIldError(i) != results[1].getIldError(i))) {
+                    System.out.println("  Serial and parallel sweeps differ at point " + i);
+                    return false;
+                }
+                if (clean && unshifted && (Math.abs(results[1].getItdError(i)) > 50 || Math.abs(results[1].getIldError(i)) > 0.5)) {
+                    System.out.printf("  Point %d: ITD error %.1f us, ILD error %.2f dB\n", i, results[1].getItdError(i), results[1].getIldError(i));
+                    return false;
+                }
+            }
+            
+            // Each cell of a frequency x ITD surface averages the 8 points below it
+            ParameterSweep.AccuracySurface surface = results[1].surface(ParameterSweep.Axis.FREQUENCY, ParameterSweep.Axis.ITD);
+            for (int r = 0; r < 2; r++) {
+                for (int c = 0; c < 2; c++) {
+                    double sum = 0;
+                    for (int j = 0; j < 8; j++) {
+                        sum += Math.abs(results[1].getItdError((r * 2 + c) * 8 + j));
+                    }
+                    if (surface.getCount(r, c) != 8 || Math.abs(surface.getMeanItdError(r, c) - sum / 8) > 1e-9) {
+                        System.out.println("  Surface cell " + r + "," + c + " wrong");
+                        return false;
+                    }
+                }
+            }
+            // The CSV keeps '.' decimals and '\n' line ends under a comma-decimal locale
+            Locale saved = Locale.getDefault();
+            String csv;
+            try {
+                Locale.setDefault(Locale.GERMANY);
+                csv = surface.toCsv();
+            } finally {
+                Locale.setDefault(saved);
+            }
+            if (csv.split("\n").length != 5 || csv.contains("\r") || csv.split("\n")[1].split(",").length != 7) {
+                System.out.println("  Surface CSV is locale or platform dependent");
+                return false;
+            }
+            
+            // Out-of-range shifts are rejected before any point is measured
+            for (float bad : new float[] {1000f, Float.NaN, -10f}) {
+                try {
+                    sweeps[0].setShifts(0, bad);
+                    System.out.println("  Shift " + bad + " accepted");
+                    return false;
+                } catch (IllegalArgumentException expected) {
+                    // expected
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Parameter sweep test exception: " + e);
+            return false;
+        }
+    }
+    
+    private static boolean testOscillators() {
+        try {
+            // Both modes track Math.sin over long runs, at any starting phase and offset
+            int count = 100_000;
+            double[][] cases = {{440.0, 44100.0, 0.0}, {1234.5, 48000.0, -2.0}, {19999.0, 44100.0, 10.0}};
+            double[] tolerance = {1e-6, 2e-6};
+            Oscillator.Mode[] modes = Oscillator.Mode.values();
+            for (int m = 0; m < modes.length; m++) {
+                for (double[] c : cases) {
+                    float[] tone = new float[count + 3];
+                    Oscillator.fill(modes[m], tone, 3, count, c[0], c[1], c[2], 0.5);
+                    float[] mixed = new float[count];
+                    java.util.Arrays.fill(mixed, 0.25f);
+                    Oscillator.add(modes[m], mixed, 0, count, c[0], c[1], c[2], 0.5);
+                    for (int n = 0; n < count; n++) {
+                        double expected = 0.5 * Math.sin(2 * Math.PI * c[0] * n / c[1] + c[2]);
+                        if (Math.abs(tone[n + 3] - expected) > tolerance[m] || Math.abs(mixed[n] - 0.25 - expected) > tolerance[m]) {
+                            System.out.printf("  %s %.1f Hz sample %d: %f/%f, expected %f\n", modes[m], c[0], n, tone[n + 3], mixed[n] - 0.25, expected);
+                            return false;
+                        }
+                    }
+                }
+            }
+            
+            // Seeded noise repeats exactly; different seeds differ
+            float[][] a = SyntheticSignalGenerator.generateNoisySignal(0.1, 44100.0f, 500.0f, 250.0, 3.0, 0.2, 42L);
+            float[][] b = SyntheticSignalGenerator.generateNoisySignal(0.1, 44100.0f, 500.0f, 250.0, 3.0, 0.2, 42L);
+            float[][] c = SyntheticSignalGenerator.generateNoisySignal(0.1, 44100.0f, 500.0f, 250.0, 3.0, 0.2, 43L);
+            if (!java.util.Arrays.equals(a[0], b[0]) || !java.util.Arrays.equals(a[1], b[1]) || java.util.Arrays.equals(a[0], c[0])) {
+                System.out.println("  Seeded noise is not reproducible");
+                return false;
+            }
+            
+            // The wavetable generators still carry the requested cues
+            SyntheticSignalGenerator.setOscillatorMode(Oscillator.Mode.WAVETABLE);
+            try {
+                float[][] speech = SyntheticSignalGenerator.generateSpeechLikeSignal(0.5, 44100.0f, 250.0, 6.0);
+                SpatialCueAnalyzer.SpatialCues cues = SpatialCueAnalyzer.analyzeSpatialCues(speech[0], speech[1], 44100);
+                if (Math.abs(cues.getItdMicroseconds() - 250.0) > 25 || Math.abs(cues.getIldDecibels() - 6.0) > 0.2) {
+                    System.out.printf("  Wavetable speech cues %.1f us / %.2f dB\n", cues.getItdMicroseconds(), cues.getIldDecibels());
+                    return false;
+                }
+            } finally {
+                SyntheticSignalGenerator.setOscillatorMode(Oscillator.Mode.RECURRENCE);
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Oscillator test exception: " + e);
+            return false;
+        }
+    }
+    
+    private static boolean testConcurrentBatch() {
+        File dir = null;
+        String[] names = {"concurrent_test_a.wav", "concurrent_test_b.wav", "concurrent_test_c.wav",
+            "concurrent_test_d.wav", "concurrent_test_e.wav"};
+        float[] shifts = {200f, 400f};
+        try {
+            dir = java.nio.file.Files.createTempDirectory("muse2_concurrent_test").toFile();
+            File inputs = new File(dir, "in");
+            inputs.mkdir();
+            // Different lengths so files finish out of order
+            for (int i = 0; i < names.length; i++) {
+                double duration = 0.6 - 0.1 * i;
+                float[][] stereo = i % 2 == 0
+                    ? SyntheticSignalGenerator.generateSpeechLikeSignal(duration, 44100.0f, 100.0 * i, 1.0 + i)
+                    : SyntheticSignalGenerator.generateSineStereo(duration, 44100.0f, 300.0f + 100 * i, -50.0 * i, 2.0);
+                writeTestWav(stereo, 44100.0f, new File(inputs, names[i]));
+            }
+            
+            File serialCsv = new File(dir, "serial.csv");
+            BatchProcessor serial = new BatchProcessor();
+            serial.setCache(null);
+            serial.setShifts(shifts);
+            serial.processDirectory(inputs.getPath(), serialCsv.getPath());
+            byte[][] serialStimuli = readStimuli(names, shifts);
+            
+            // A budget of about two files forces admission to wait
+            BatchProcessor.ExecutorKind[] kinds = BatchProcessor.ExecutorKind.values();
+            for (BatchProcessor.ExecutorKind kind : kinds) {
+                File parallelCsv = new File(dir, kind + ".csv");
+                BatchProcessor parallel = new BatchProcessor(4, kind, 2 * 26460 * 2 * Float.BYTES * (1 + shifts.length));
+                parallel.setCache(null);
+                parallel.setShifts(shifts);
+                parallel.processDirectory(inputs.getPath(), parallelCsv.getPath());
+                if (!Arrays.equals(java.nio.file.Files.readAllBytes(serialCsv.toPath()), java.nio.file.Files.readAllBytes(parallelCsv.toPath()))) {
+                    System.out.println("  " + kind + " rows differ from the single-threaded run");
+                    return false;
+                }
+                byte[][] parallelStimuli = readStimuli(names, shifts);
+                for (int i = 0; i < serialStimuli.length; i++) {
+                    if (!Arrays.equals(serialStimuli[i], parallelStimuli[i])) {
+                        System.out.println("  " + kind + " stimulus " + i + " differs from the single-threaded run");
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            System.out.println("  Concurrent batch test exception: " + e);
+            return false;
+        } finally {
+            if (dir != null) deleteRecursively(dir);
+            for (String name : names) {
+                for (float shift : shifts) {
+                    new File("output_stimuli", name.replace(".wav", "_shifted_" + (int) shift + "Hz.wav")).delete();
+                }
+            }
+        }
+    }
+    
+    // Helper methods
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+    
+    private static double tonePower(float[] signal, float sampleRate, double freq) {
+        double re = 0, im = 0;
+        for (int i = 0; i < signal.length; i++) {
+            double phase = 2 * Math.PI * freq * i / sampleRate;
+            re += signal[i] * Math.cos(phase);
+            im += signal[i] * Math.sin(phase);
+        }
+        return (re * re + im * im) / signal.length;
+    }
+    
+    // Stimuli written by a batch run, in file and shift order
+    private static byte[][] readStimuli(String[] names, float[] shifts) throws IOException {
+        byte[][] stimuli = new byte[names.length * shifts.length][];
+        for (int i = 0; i < names.length; i++) {
+            for (int j = 0; j < shifts.length; j++) {
+                File file = new File("output_stimuli", names[i].replace(".wav", "_shifted_" + (int) shifts[j] + "Hz.wav"));
+                stimuli[i * shifts.length + j] = java.nio.file.Files.readAllBytes(file.toPath());
+            }
+        }
+        return stimuli;
+    }
+    
+    private static void writeTestWav(float[][] stereo, float sampleRate, File file) throws IOException {
+        int frames = stereo[0].length;
+        byte[] bytes = new byte[frames * 4];
+        for (int i = 0; i < frames; i++) {
+            int l = (int) Math.max(Math.min(stereo[0][i] * 32767.0, 32767), -32768);
+            int r = (int) Math.max(Math.min(stereo[1][i] * 32767.0, 32767), -32768);
+            bytes[i * 4] = (byte) l;
+            bytes[i * 4 + 1] = (byte) (l >> 8);
+            bytes[i * 4 + 2] = (byte) r;
+            bytes[i * 4 + 3] = (byte) (r >> 8);
+        }
+        AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+        try (AudioInputStream ais = new AudioInputStream(new ByteArrayInputStream(bytes), format, frames)) {
+            AudioSystem.write(ais, AudioFileFormat.Type.WAVE, file);
+        }
+    }
+    
     private static double computeRMS(float[] signal) {
         double sum = 0;
         for (float s : signal) {